@@ -2,15 +2,26 @@ package com.acme.server.controller;
 
 import com.acme.server.model.ChatRoom;
 import com.acme.server.model.ChatMessage;
+import com.acme.server.service.ChatRoomView;
 import com.acme.server.service.MessagingService;
 import com.acme.server.util.ActionLinks;
-import com.acme.server.util.StringUtils;
+import com.acme.server.util.RequestBodyParser;
+import com.acme.server.util.ResourceArrayWriter;
+import com.acme.server.util.ResourceEncodings;
+import com.acme.server.util.ResourceNotFoundException;
 
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
 import org.springframework.web.bind.annotation.*;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -22,17 +33,30 @@ import java.util.List;
  *  Those resources include: ChatRoom & ChatMessage. The Resource structure for ChatRoom includes a list of ChatMessages
  *  that are associated with the ChatRoom
  *
- *  The MessagingController converts the InputStreams from clients into a String that contains the JSON body.
+ *  The MessagingController binds the JSON body in the InputStreams from clients straight into the model classes with
+ *  the shared RequestBodyParser.
  *  Any parameters supported by the Endpoint are also handled by the controller & passed along to the Service layer accordingly.
  *  The actual business logic & processing is handed off to the MessagingService layer & when complete, the controller
  *  does the work to set the next set of valid ActionLinks on the Resource representation to ensure the API conforms fully
  *  to HATEOAS.
+ *
+ *  Every ChatRoom endpoint accepts fields & embed parameters selecting the part of the ChatRoom returned, see
+ *  ChatRoomView. The participants & ChatMessages left out are not read from the database at all, so e.g.
+ *  PUT /chatrooms/{id}?embed= returns only the ChatRoom ID, topic & links without reading anything back.
+ *
+ *  The collection endpoints GET /chatrooms & GET /chatrooms/{id}/chatmessages stream their arrays with a
+ *  ResourceArrayWriter, writing each chunk read from the database before reading the next.
  */
 @RestController
 public class MessagingController {
 
     private static Logger log = Logger.getLogger(MessagingController.class);
-    private MessagingService messagingService = new MessagingService();
+    @Autowired
+    private MessagingService messagingService;
+    @Autowired
+    private ResourceEncodings resourceEncodings;
+    @Autowired
+    private RequestBodyParser requestBodyParser;
 
     /**
      * Returns the full list of ChatRoom resources in the database
@@ -47,34 +71,49 @@ public class MessagingController {
      * @param       userID To filter ChatRooms by UserID there is a userID parameter provided. Something that the Hyperlinks alone
      *                     do not make obvious (i.e. documentation of aspects of a REST API is in fact necessary)
      *
-     *                     NOTE: There are no Key's in the datastore that can quickly retrieve the list of ChatRooms for a user so
-     *                     for a very large datastore it is not recommended that this endpoint is used until a future iteration of
-     *                     Acme development.
+     *                     NOTE: Each User has an index of the ChatRooms they participate in so a filtered request only
+     *                     touches that User's ChatRooms. Omitting the userID lists every ChatRoom in the datastore which is
+     *                     not recommended for a very large datastore.
+     * @param       fields - Optional, the comma separated fields of each ChatRoom to return
+     * @param       embed - Optional, participants and / or messages to embed in each ChatRoom, empty for neither
      *
-     * @return      <code>List</code>
+     * The list is streamed: the ChatRooms are read from the database a chunk at a time, with the participants &
+     * ChatMessages of each chunk read in one batch, & each chunk is written before the next is read.
+     *
+     * @return      An array of <code>ChatRoom</code> written straight to the response, JSON unless Smile or protobuf is accepted
      */
     @RequestMapping(value = "/chatrooms",method = RequestMethod.GET)
-    public List<ChatRoom> listAllchatRooms(@RequestParam(value="userid", required=false) String userID){
+    public void listAllchatRooms(@RequestParam(value="userid", required=false) String userID,
+                                 @RequestParam(value="fields", required=false) String fields,
+                                 @RequestParam(value="embed", required=false) String embed,
+                                 HttpServletRequest request, HttpServletResponse response)
+            throws IOException, HttpMediaTypeNotAcceptableException {
         log.info("Entering GET /chatrooms with userID parameter " + userID);
 
-        List<ChatRoom> listOfChatRooms =  messagingService.retrieveAllChatRooms(userID);
-        log.info(listOfChatRooms.size() + " of ChatRooms retrieved ");
-
-        //Construct the next set of allowable actions to send back to the API Consumer to guarantee they can navigate the API
-        //via a set of Hypertext links as outlined in Fielding's REST constraints
-        for(int i = 0;i<listOfChatRooms.size();i++){
-            ChatRoom nextChatRoom = listOfChatRooms.get(i);
-
-            List<ActionLinks> listOfActionLinks = new ArrayList<ActionLinks>();
-            ActionLinks nextActionA = new ActionLinks("/chatrooms/", "self", "POST");
-            ActionLinks nextActionB = new ActionLinks("/chatrooms/" + nextChatRoom.getChatRoomID(), "self", "GET");
-            listOfActionLinks.add(nextActionA);
-            listOfActionLinks.add(nextActionB);
-
-            nextChatRoom.setNextActionLinks(listOfActionLinks);
+        ChatRoomView view = ChatRoomView.fromParameters(fields, embed);
+        Iterator< List<ChatRoom> > chatRoomChunks = messagingService.scanChatRooms(userID, view);
+        ResourceArrayWriter arrayWriter = resourceEncodings.openArrayWriter(request, response);
+        while(chatRoomChunks.hasNext()){
+            List<ChatRoom> listOfChatRooms = chatRoomChunks.next();
+
+            //Construct the next set of allowable actions to send back to the API Consumer to guarantee they can navigate the API
+            //via a set of Hypertext links as outlined in Fielding's REST constraints
+            for(int i = 0;i<listOfChatRooms.size();i++){
+                ChatRoom nextChatRoom = listOfChatRooms.get(i);
+
+                List<ActionLinks> listOfActionLinks = new ArrayList<ActionLinks>();
+                ActionLinks nextActionA = new ActionLinks("/chatrooms/", "self", "POST");
+                ActionLinks nextActionB = new ActionLinks("/chatrooms/" + nextChatRoom.getChatRoomID(), "self", "GET");
+                listOfActionLinks.add(nextActionA);
+                listOfActionLinks.add(nextActionB);
+
+                nextChatRoom.setNextActionLinks(listOfActionLinks);
+                arrayWriter.write(view.apply(nextChatRoom));
+            }
+            arrayWriter.flush();
         }
 
-        return listOfChatRooms;
+        log.info(arrayWriter.close() + " ChatRooms written");
     }
 
 
@@ -89,16 +128,22 @@ public class MessagingController {
      * PUT  /chatrooms/{id} - modify the chatroom (topic)
      * GET  /chatrooms - get all the chatrooms in the system
      *
+     * @param       fields - Optional, the comma separated fields of the ChatRoom to return
+     * @param       embed - Optional, participants and / or messages to embed, empty for neither
+     *
      * @return      <code> ChatRoom </code>
      */
 
     @RequestMapping(value = "/chatrooms/{id}",method = RequestMethod.GET)
-    public ChatRoom chatRoom(@PathVariable("id") String id) {
+    public ChatRoom chatRoom(@PathVariable("id") String id,
+                             @RequestParam(value="fields", required=false) String fields,
+                             @RequestParam(value="embed", required=false) String embed) {
         log.info("Entering GET /chatrooms/" + id);
 
         //Call out to the MessagingService that will in turn, leverage the ChatRoomDAO to retrieve the Resource
-        //Representation from the database
-        ChatRoom chatRoom = messagingService.retrieveChatRoom(id);
+        //Representation from the database, reading only what the client asked for
+        ChatRoomView view = ChatRoomView.fromParameters(fields, embed);
+        ChatRoom chatRoom = messagingService.retrieveChatRoom(id, view);
 
         //Construct the next set of allowable actions to send back to the API Consumer to guarantee they can navigate the API
         //via a set of Hypertext links as outlined in Fielding's REST constraints
@@ -111,7 +156,7 @@ public class MessagingController {
         listOfActionLinks.add(actionC);
         chatRoom.setNextActionLinks(listOfActionLinks);
 
-        return chatRoom;
+        return view.apply(chatRoom);
 
     }
 
@@ -132,19 +177,24 @@ public class MessagingController {
      * POST /chatrooms - create another new ChatRoom
      * GET  /chatrooms - get all the ChatRooms in the system (by user adding the userID parameter to the link provided)
      *
+     * @param       fields - Optional, the comma separated fields of the ChatRoom to return
+     * @param       embed - Optional, participants to embed the Users of the new ChatRoom, empty for none
+     *
      * @return      <code> ChatRoom </code>
      */
     @RequestMapping(value = "/chatrooms", method = RequestMethod.POST)
-    public ChatRoom postNewChatRoom(InputStream data) {
+    public ChatRoom postNewChatRoom(InputStream data,
+                                    @RequestParam(value="fields", required=false) String fields,
+                                    @RequestParam(value="embed", required=false) String embed) throws IOException {
         log.info("Entering POST /chatrooms");
 
-        //Extract incoming json to build a ChatRoom Object from
-        String json = StringUtils.InputStringToString(data);
-        log.info("POST data: " + json);
+        //Bind the incoming json straight from the request body into a ChatRoom Object
+        ChatRoom newChatRoom = requestBodyParser.readChatRoom(data);
 
         //Call out to the MessagingService Class to build & store the new ChatRoom in the database after applying all
         //relevant business constraints on what the consumer is allowed to manipulate
-        ChatRoom chatRoom = messagingService.createChatRoomFromJSON(json);
+        ChatRoomView view = ChatRoomView.fromParameters(fields, embed);
+        ChatRoom chatRoom = messagingService.createChatRoom(newChatRoom, view);
 
         //Construct the next set of allowable actions to send back to the API Consumer to guarantee they can navigate the API
         //via a set of Hypertext links as outlined in Fielding's REST constraints
@@ -161,7 +211,7 @@ public class MessagingController {
         listOfActionLinks.add(actionE);
         chatRoom.setNextActionLinks(listOfActionLinks);
 
-        return chatRoom;
+        return view.apply(chatRoom);
     }
 
 
@@ -184,17 +234,25 @@ public class MessagingController {
      * POST /chatroom/{id}/chatmessages - post a message to the newly created chatroom
      * PUT  /chatroom/{id} - modify the newly created chatroom (topic or add participants etc)
      *
-     * @return      <code> ChatRoom </code>
+     * @param       fields - Optional, the comma separated fields of the ChatRoom to return
+     * @param       embed - Optional, participants and / or messages to embed, empty for neither so nothing is read back
+     *
+     * @return      <code> ChatRoom </code> 404 Not Found if the ChatRoom does not exist
      */
     @RequestMapping(value = "/chatrooms/{id}", method = RequestMethod.PUT)
-    public ChatRoom modifyExistingChatRoom(InputStream data, @PathVariable("id") String id){
+    public ChatRoom modifyExistingChatRoom(InputStream data, @PathVariable("id") String id,
+                                           @RequestParam(value="fields", required=false) String fields,
+                                           @RequestParam(value="embed", required=false) String embed) throws IOException {
         log.info("Entering PUT /chatrooms/{id}" + id);
 
-        //Extract incoming json to build a ChatRoom Object from
-        String json = StringUtils.InputStringToString(data);
-        log.info("PUT data: " + json);
+        //Bind the incoming json straight from the request body into a ChatRoom Object
+        ChatRoom chatRoom = requestBodyParser.readChatRoom(data);
 
-        ChatRoom modifiedChatRoom = messagingService.modifyChatRoomFromJSON(json);
+        ChatRoomView view = ChatRoomView.fromParameters(fields, embed);
+        ChatRoom modifiedChatRoom = messagingService.modifyChatRoom(chatRoom, view);
+        if(modifiedChatRoom == null) {
+            throw new ResourceNotFoundException(chatRoom.getChatRoomID());
+        }
 
         //Construct the next set of allowable actions to send back to the API Consumer to guarantee they can navigate the API
         //via a set of Hypertext links as outlined in Fielding's REST constraints
@@ -211,17 +269,19 @@ public class MessagingController {
         listOfActionLinks.add(actionE);
         modifiedChatRoom.setNextActionLinks(listOfActionLinks);
 
-        return modifiedChatRoom;
+        return view.apply(modifiedChatRoom);
     }
 
 
     /**
-     * Returns the full list of ChatMessage resources in the database for the ChatRoom ID specified in the URL
-     * In a real world implementation this needs throttling & paging applied so as not to overload the system i.e.
-     * this endpoint would also need to be parameterized to ensure that only the last X number of new ChatMessages are
-     * returned & that would need to be documented here for any API consumer to become aware of this type of detail.
+     * Returns a page of the ChatMessage resources in the database for the ChatRoom ID specified in the URL, newest first.
+     * Without parameters the page is the latest chatroom.messages.pageSize ChatMessages. Only the page is read from the
+     * database, so the cost of a request does not grow with the history of the ChatRoom.
      *
-     * Accessible via a GET on /chatrooms/{id}/chatmessages
+     * Accessible via a GET on /chatrooms/{id}/chatmessages?limit=n&before=id or ?limit=n&after=id
+     *
+     * To walk back through the history pass the ID of the last (oldest) ChatMessage of the previous page as before. To
+     * catch up pass the ID of the newest ChatMessage held as after, a full page means there may be more after it.
      *
      * The ChatMessage resource contains the messages that are sent back & forth between two Users in a ChatRoom.
      * In a real world implementation such messages need to be fully encrypted so as not to expose sensitive information
@@ -232,34 +292,60 @@ public class MessagingController {
      * PUT /chatrooms/{id}/chatmessages/{id} - Modify the ChatMessage to set a read receipt
      * POST /chatrooms/{id}/chatmessages - POST another new chatmessage to the chatroom
      *
-     * @return      <code>List</code>
+     * @param       chatroomid - The ChatRoom whose ChatMessages are returned
+     * @param       limit - Optional, the number of ChatMessages wanted, capped by the server
+     * @param       before - Optional, a ChatMessage ID. The ChatMessages posted just before it are returned.
+     * @param       after - Optional, a ChatMessage ID. The ChatMessages posted just after it are returned.
+     * @param       sinceSequence - Optional, a Notification sequence. Instead of a page, the ChatMessages created or
+     *                              modified after it are returned, in the order of their latest change.
+     *
+     * The ChatMessages are streamed, a page is read from the database a chunk at a time & each chunk is written before
+     * the next is read.
+     *
+     * @return      An array of <code>ChatMessage</code> written straight to the response, JSON unless Smile or protobuf is accepted
      */
 
     @RequestMapping(value = "/chatrooms/{chatroomid}/chatmessages",method = RequestMethod.GET)
-    public List<ChatMessage> chatMessagesforRoom(@PathVariable("chatroomid") String chatroomid) {
-        log.info("Entering GET /chatrooms/" + chatroomid + "/chatmessages");
-
-        List<ChatMessage> listOfChatMessages = messagingService.retrieveAllChatMessages(chatroomid);
-        log.info("List of ChatMessages retrieved " + listOfChatMessages.size());
-
-        //Set the action list for each ChatMessage found at the controller level so can base the allowable actions on the
-        //endpoint being invoked (Map to JavaDoc comments)
-        for(int i = 0;i<listOfChatMessages.size();i++){
-            log.info("For Loop " + i);
-            ChatMessage nextChatMessage = listOfChatMessages.get(i);
-
-            List<ActionLinks> listOfActionLinks = new ArrayList<ActionLinks>();
-            ActionLinks nextActionA = new ActionLinks("/chatrooms/"+ chatroomid + "/chatmessages/" + nextChatMessage.getChatMessageID(),"self","GET" );
-            ActionLinks nextActionB = new ActionLinks("/chatrooms/"+ chatroomid + "/chatmessages/" + nextChatMessage.getChatMessageID(),"self","PUT" );
-            ActionLinks nextActionC = new ActionLinks("/chatrooms/"+ chatroomid + "/chatmessages","postmessage","POST" );
-            listOfActionLinks.add(nextActionA);
-            listOfActionLinks.add(nextActionB);
-            listOfActionLinks.add(nextActionC);
-
-            nextChatMessage.setNextActionLinks(listOfActionLinks);
+    public void chatMessagesforRoom(@PathVariable("chatroomid") String chatroomid,
+                                    @RequestParam(value="limit", required=false, defaultValue="0") int limit,
+                                    @RequestParam(value="before", required=false) String before,
+                                    @RequestParam(value="after", required=false) String after,
+                                    @RequestParam(value="since", required=false) Long sinceSequence,
+                                    HttpServletRequest request, HttpServletResponse response)
+            throws IOException, HttpMediaTypeNotAcceptableException {
+        log.info("Entering GET /chatrooms/" + chatroomid + "/chatmessages?limit=" + limit + "&before=" + before
+                + "&after=" + after + "&since=" + sinceSequence);
+
+        //A coalesced Notification links here with since set, only the ChatMessages changed since are returned. They are
+        //bounded by the length of the feed & read in one go.
+        Iterator< List<ChatMessage> > chatMessageChunks = sinceSequence != null
+                ? Collections.singletonList(messagingService.retrieveChatMessagesChangedAfter(chatroomid, sinceSequence)).iterator()
+                : messagingService.scanChatMessagePage(chatroomid, before, after, limit);
+
+        ResourceArrayWriter arrayWriter = resourceEncodings.openArrayWriter(request, response);
+        while(chatMessageChunks.hasNext()){
+            List<ChatMessage> listOfChatMessages = chatMessageChunks.next();
+
+            //Set the action list for each ChatMessage found at the controller level so can base the allowable actions on the
+            //endpoint being invoked (Map to JavaDoc comments)
+            for(int i = 0;i<listOfChatMessages.size();i++){
+                ChatMessage nextChatMessage = listOfChatMessages.get(i);
+
+                List<ActionLinks> listOfActionLinks = new ArrayList<ActionLinks>();
+                ActionLinks nextActionA = new ActionLinks("/chatrooms/"+ chatroomid + "/chatmessages/" + nextChatMessage.getChatMessageID(),"self","GET" );
+                ActionLinks nextActionB = new ActionLinks("/chatrooms/"+ chatroomid + "/chatmessages/" + nextChatMessage.getChatMessageID(),"self","PUT" );
+                ActionLinks nextActionC = new ActionLinks("/chatrooms/"+ chatroomid + "/chatmessages","postmessage","POST" );
+                listOfActionLinks.add(nextActionA);
+                listOfActionLinks.add(nextActionB);
+                listOfActionLinks.add(nextActionC);
+
+                nextChatMessage.setNextActionLinks(listOfActionLinks);
+                arrayWriter.write(nextChatMessage);
+            }
+            arrayWriter.flush();
         }
 
-        return listOfChatMessages;
+        log.info("List of ChatMessages written " + arrayWriter.close());
     }
 
 
@@ -332,7 +418,7 @@ public class MessagingController {
     @RequestMapping(value = "/chatrooms/{chatroomID}/chatmessages",method = RequestMethod.POST)
     public ChatMessage chatMessage(@PathVariable("chatroomID") String chatroomID, InputStream data,
                                    @RequestParam(value="test", required=false, defaultValue = "false") String testMessages,
-                                   @RequestParam(value="num", required=false, defaultValue="2") Integer numTestMessages) {
+                                   @RequestParam(value="num", required=false, defaultValue="2") Integer numTestMessages) throws IOException {
         log.info("Entering POST /chatroom/" + chatroomID + "/chatmessages");
 
         if(testMessages.equals("true")){
@@ -346,11 +432,10 @@ public class MessagingController {
         }
         else {
 
-            //Extract incoming json to build a ChatRoom Object from
-            String json = StringUtils.InputStringToString(data);
-            log.info("POST data: " + json);
+            //Bind the incoming json straight from the request body into a ChatMessage Object
+            ChatMessage chatMessage = requestBodyParser.readChatMessage(data);
 
-            ChatMessage newChatMessage = messagingService.createChatMessageFromJSON(json);
+            ChatMessage newChatMessage = messagingService.createChatMessage(chatMessage);
 
             List<ActionLinks> listOfActionLinks = new ArrayList<ActionLinks>();
             ActionLinks nextActionA = new ActionLinks("/chatrooms/"+ chatroomID + "/chatmessages" + newChatMessage.getChatMessageID(),"self","GET" );
@@ -388,18 +473,20 @@ public class MessagingController {
      * POST /chatrooms/ - post another message to the ChatRoom
      * GET  /chatrooms - get all the ChatRooms in the system
      *
-     * @return      <code> ChatMessage </code>
+     * @return      <code> ChatMessage </code> 404 Not Found if the ChatMessage does not exist
      */
     @RequestMapping(value = "/chatrooms/{chatroomID}/chatmessages/{messageID}", method = RequestMethod.PUT)
     public ChatMessage modifyExistingChatMessage(InputStream data, @PathVariable("chatroomID") String chatroomID,
-                                              @PathVariable("messageID") String messageID){
+                                              @PathVariable("messageID") String messageID) throws IOException {
         log.info("Entering PUT /chatrooms/" + chatroomID + "/chatmessages/" + messageID);
 
-        //Extract incoming json to build a ChatRoom Object from
-        String json = StringUtils.InputStringToString(data);
-        log.info("PUT data: " + json);
+        //Bind the incoming json straight from the request body into a ChatMessage Object
+        ChatMessage chatMessage = requestBodyParser.readChatMessage(data);
 
-        ChatMessage modifiedChatMessage = messagingService.modifyChatMessageFromJSON(json);
+        ChatMessage modifiedChatMessage = messagingService.modifyChatMessage(chatMessage);
+        if(modifiedChatMessage == null) {
+            throw new ResourceNotFoundException(chatMessage.getChatMessageID());
+        }
 
         //Construct the next set of allowable actions to send back to the API Consumer to guarantee they can navigate the API
         //via a set of Hypertext links as outlined in Fielding's REST constraints
@@ -451,16 +538,15 @@ public class MessagingController {
      * @return      <code> ChatRoom </code>
      */
     @RequestMapping(value = "/v2/chatrooms", method = RequestMethod.POST)
-    public ChatRoom postNewChatRoomv2(InputStream data) {
+    public ChatRoom postNewChatRoomv2(InputStream data) throws IOException {
         log.info("Entering POST /v2/chatrooms");
 
-        //Extract incoming json to build a ChatRoom Object from
-        String json = StringUtils.InputStringToString(data);
-        log.info("POST data: " + json);
+        //Bind the incoming json straight from the request body into a ChatRoom Object
+        ChatRoom newChatRoom = requestBodyParser.readChatRoom(data);
 
         //Call out to the MessagingService Class to build & store the new ChatRoom & child resources in the database
         // after applying all relevant business constraints on what the consumer is allowed to manipulate
-        ChatRoom chatRoom = messagingService.createModifiedChatRoomFromJSON(json);
+        ChatRoom chatRoom = messagingService.createModifiedChatRoom(newChatRoom);
 
         //Construct the next set of allowable actions to send back to the API Consumer to guarantee they can navigate the API
         //via a set of Hypertext links as outlined in Fielding's REST constraints
@@ -0,0 +1,345 @@
+package com.acme.server.controller;
+
+import com.acme.server.model.ChatMessage;
+import com.acme.server.model.Notification;
+import com.acme.server.util.FeedListener;
+import com.acme.server.util.RequestBodyParser;
+import com.acme.server.service.MessagingService;
+import com.acme.server.service.NotificationService;
+import com.acme.server.util.ServerMetrics;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  The MessagingSocketHandler is the WebSocket entry point for the Messaging services, the counterpart of the
+ *  MessagingController for clients that keep a socket open: ws://host/messaging/socket?userid=id&since=sequence
+ *
+ *  Clients post ChatMessages & set read receipts by sending JSON frames, which are handed to the same MessagingService
+ *  methods as POST & PUT on /chatrooms/{id}/chatmessages so REST & socket writes store the same data & record the same
+ *  Notifications:
+ *
+ *  { "type" : "chatmessage", "requestID" : "1", "chatMessage" : { "chatRoomID" : ..., "fromParticipantID" : ..., "message" : ... } }
+ *  { "type" : "readreceipt", "requestID" : "2", "chatMessage" : { "chatMessageID" : ..., "readReceipt" : "true" } }
+ *
+ *  Each is answered with a frame of the same type carrying the requestID & the ChatMessage as stored, or an error frame.
+ *
+ *  Every change recorded in the User's feed is pushed down the same socket. ChatMessages created or modified are sent in
+ *  full so the client does not need a GET to render them, other changes are sent as Notifications:
+ *
+ *  { "type" : "chatmessage", "sequence" : 42, "chatMessage" : { ... } }
+ *  { "type" : "notification", "sequence" : 43, "notification" : { ... } }
+ *
+ *  The sequence of the last frame received can be passed as since when reconnecting to resume where the socket left off.
+ *  No ActionLinks are sent on the socket.
+ *
+ *  A client connecting with coalesce=true is pushed its changes coalesced as by a poll with coalesce=true, several
+ *  ChatMessages changed in a ChatRoom arrive as one notification frame linking to them all. Its pushes are made
+ *  notifications.coalesce.windowMillis after the change that wakes it so a whole burst is coalesced.
+ */
+@Component
+public class MessagingSocketHandler extends TextWebSocketHandler implements FeedListener {
+
+    private static Logger log = Logger.getLogger(MessagingSocketHandler.class);
+
+    private final MessagingService messagingService;
+    private final NotificationService notificationService;
+    private final RequestBodyParser requestBodyParser;
+    private final Gson gson = new Gson();
+    private final JsonParser jsonParser = new JsonParser();
+
+    //The open sockets of each User
+    private final ConcurrentMap< String, List<UserSocket> > sockets = new ConcurrentHashMap< String, List<UserSocket> >();
+
+    //Pushes new changes to the sockets so it is not done on the thread that recorded them
+    private final ScheduledExecutorService pushExecutor;
+
+    @Autowired
+    public MessagingSocketHandler(MessagingService messagingService, NotificationService notificationService,
+                                  RequestBodyParser requestBodyParser,
+                                  @Value("${messaging.socket.threads:2}") int threads) {
+        this.messagingService = messagingService;
+        this.notificationService = notificationService;
+        this.requestBodyParser = requestBodyParser;
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.pushExecutor = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "messaging-socket-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        notificationService.addFeedListener(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pushExecutor.shutdownNow();
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        String userID = queryParameter(session, "userid");
+        log.info("Entering MessagingSocketHandler.afterConnectionEstablished: " + userID);
+
+        if(userID == null) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("userid is required"));
+            return;
+        }
+
+        long lastSequence = 0;
+        String since = queryParameter(session, "since");
+        if(since != null) {
+            try {
+                lastSequence = Long.parseLong(since);
+            }
+            catch (NumberFormatException e) {
+                log.info("Ignoring invalid since: " + since);
+            }
+        }
+
+        boolean coalesce = "true".equals(queryParameter(session, "coalesce"));
+
+        UserSocket socket = new UserSocket(userID, lastSequence, coalesce, session);
+        session.getAttributes().put(UserSocket.class.getName(), socket);
+
+        List<UserSocket> userSockets = sockets.get(userID);
+        if(userSockets == null) {
+            List<UserSocket> newUserSockets = new CopyOnWriteArrayList<UserSocket>();
+            userSockets = sockets.putIfAbsent(userID, newUserSockets);
+            if(userSockets == null) {
+                userSockets = newUserSockets;
+            }
+        }
+        userSockets.add(socket);
+        ServerMetrics.increment("messaging.socket.open", 1);
+
+        //Catch up on anything recorded since the client last saw
+        schedulePush(socket, 0);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        UserSocket socket = (UserSocket) session.getAttributes().get(UserSocket.class.getName());
+        if(socket == null) {
+            return;
+        }
+        log.info("Socket closed for " + socket.userID + ": " + status);
+
+        List<UserSocket> userSockets = sockets.get(socket.userID);
+        if(userSockets != null && userSockets.remove(socket)) {
+            ServerMetrics.increment("messaging.socket.open", -1);
+        }
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage frame) throws IOException {
+        UserSocket socket = (UserSocket) session.getAttributes().get(UserSocket.class.getName());
+        if(socket == null) {
+            return;
+        }
+
+        JsonObject reply = new JsonObject();
+        try {
+            JsonElement requestJSON = jsonParser.parse(frame.getPayload());
+            if(!requestJSON.isJsonObject()) {
+                throw new JsonParseException("Frame is not a JSON object");
+            }
+            JsonObject request = requestJSON.getAsJsonObject();
+            String type = request.has("type") ? request.get("type").getAsString() : null;
+            JsonElement chatMessageJSON = request.get("chatMessage");
+            if(request.has("requestID")) {
+                reply.add("requestID", request.get("requestID"));
+            }
+            log.info("Entering socket " + type + " from " + socket.userID);
+
+            if(chatMessageJSON == null || !chatMessageJSON.isJsonObject()) {
+                replyWithError(reply, "chatMessage is required");
+            }
+            else if("chatmessage".equals(type)) {
+                //Same path as POST /chatrooms/{id}/chatmessages
+                ChatMessage newChatMessage = messagingService.createChatMessage(
+                        requestBodyParser.readChatMessage(chatMessageJSON));
+                reply.addProperty("type", "chatmessage");
+                reply.add("chatMessage", gson.toJsonTree(newChatMessage));
+            }
+            else if("readreceipt".equals(type)) {
+                //Same path as PUT /chatrooms/{id}/chatmessages/{id}
+                ChatMessage modifiedChatMessage = messagingService.modifyChatMessage(
+                        requestBodyParser.readChatMessage(chatMessageJSON));
+                if(modifiedChatMessage == null) {
+                    replyWithError(reply, "ChatMessage does not exist");
+                }
+                else {
+                    reply.addProperty("type", "readreceipt");
+                    reply.add("chatMessage", gson.toJsonTree(modifiedChatMessage));
+                }
+            }
+            else {
+                replyWithError(reply, "Unknown frame type: " + type);
+            }
+        }
+        catch (JsonParseException e) {
+            replyWithError(reply, "Invalid JSON frame");
+        }
+        catch (RuntimeException e) {
+            log.error("Socket request from " + socket.userID + " failed", e);
+            replyWithError(reply, "Request failed");
+        }
+
+        socket.send(reply.toString());
+    }
+
+    private void replyWithError(JsonObject reply, String message) {
+        reply.addProperty("type", "error");
+        reply.addProperty("message", message);
+    }
+
+    /**
+     * Pushes the new changes in the feeds of the Users given to their open sockets
+     *
+     * @param       userIDs - The Users whose feeds have new entries
+     */
+    public void feedsChanged(Set<String> userIDs) {
+        for(String userID : userIDs) {
+            List<UserSocket> userSockets = sockets.get(userID);
+            if(userSockets != null) {
+                for(UserSocket socket : userSockets) {
+                    schedulePush(socket, socket.coalesce ? notificationService.getCoalesceWindowMillis() : 0);
+                }
+            }
+        }
+    }
+
+    //A burst of changes for the same User is sent by a single push, for a coalescing socket the changes made until the
+    //delay runs out are part of the burst
+    private void schedulePush(final UserSocket socket, long delayMillis) {
+        if(socket.pushScheduled.compareAndSet(false, true)) {
+            pushExecutor.schedule(new Runnable() {
+                public void run() {
+                    socket.pushScheduled.set(false);
+                    push(socket);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //Sends every change in the User's feed after the last one sent on the socket, reading the ChatMessages in one batch
+    private void push(UserSocket socket) {
+        synchronized (socket) {
+            try {
+                List<Notification> notifications;
+                do {
+                    if(!socket.session.isOpen()) {
+                        return;
+                    }
+                    notifications = notificationService.checkForNewEvents(socket.userID, socket.lastSequence, false,
+                            socket.coalesce);
+
+                    List<String> chatMessageIDs = new ArrayList<String>();
+                    for(Notification notification : notifications) {
+                        if(notification.getSubResourceIDModified() != null) {
+                            chatMessageIDs.add(notification.getSubResourceIDModified());
+                        }
+                    }
+                    List<ChatMessage> chatMessages = chatMessageIDs.isEmpty() ? new ArrayList<ChatMessage>()
+                            : messagingService.retrieveChatMessages(chatMessageIDs);
+
+                    int nextChatMessage = 0;
+                    for(Notification notification : notifications) {
+                        JsonObject push = new JsonObject();
+                        push.addProperty("sequence", notification.getSequence());
+                        if(notification.getSubResourceIDModified() != null) {
+                            push.addProperty("type", "chatmessage");
+                            push.add("chatMessage", gson.toJsonTree(chatMessages.get(nextChatMessage++)));
+                        }
+                        else {
+                            push.addProperty("type", "notification");
+                            push.add("notification", gson.toJsonTree(notification));
+                        }
+                        socket.send(push.toString());
+                        socket.lastSequence = notification.getSequence();
+                    }
+                    ServerMetrics.increment("messaging.socket.pushed", notifications.size());
+                } while(notificationService.isFullPage(notifications));
+            }
+            catch (Exception e) {
+                log.info("Failed to push to socket for " + socket.userID + ": " + e.getMessage());
+                try {
+                    socket.session.close(CloseStatus.SERVER_ERROR);
+                }
+                catch (IOException closeFailure) {
+                    log.info("Failed to close socket for " + socket.userID);
+                }
+            }
+        }
+    }
+
+    private String queryParameter(WebSocketSession session, String name) {
+        String query = session.getUri() != null ? session.getUri().getQuery() : null;
+        if(query == null) {
+            return null;
+        }
+        for(String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if(separator > 0 && parameter.substring(0, separator).equals(name)) {
+                return parameter.substring(separator + 1);
+            }
+        }
+        return null;
+    }
+
+    //An open socket of a User, a WebSocketSession must not be sent to by two threads at once
+    private static class UserSocket {
+
+        private final String userID;
+        private final WebSocketSession session;
+        private final boolean coalesce;
+        private final AtomicBoolean pushScheduled = new AtomicBoolean();
+        private long lastSequence;
+
+        UserSocket(String userID, long lastSequence, boolean coalesce, WebSocketSession session) {
+            this.userID = userID;
+            this.lastSequence = lastSequence;
+            this.coalesce = coalesce;
+            this.session = session;
+        }
+
+        void send(String frame) throws IOException {
+            synchronized (session) {
+                session.sendMessage(new TextMessage(frame));
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.acme.server.controller;
+
+import com.acme.server.util.PooledJedisConnectionFactory;
+import com.acme.server.util.ServerMetrics;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ *  The MetricsController exposes the counters kept by the server for performance analysis e.g. the number of data
+ *  store round trips made per request mapping. It is an operational endpoint & is not part of the Acme Collaboration
+ *  Resource model so no ActionLinks are returned.
+ */
+@RestController
+public class MetricsController {
+
+    private static Logger log = Logger.getLogger(MetricsController.class);
+
+    //Not present when the server runs with the in memory storage backend
+    @Autowired(required = false)
+    private PooledJedisConnectionFactory jedisConnectionFactory;
+
+    /**
+     * Returns a snapshot of all server counters & the current state of the Redis connection pool
+     * Accessible via a GET on /metrics
+     *
+     * @return      <code>Map</code>
+     */
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET)
+    public Map<String, Long> getMetrics() {
+        log.info("Entering GET /metrics");
+        Map<String, Long> metrics = ServerMetrics.snapshot();
+        if (jedisConnectionFactory != null) {
+            metrics.putAll(jedisConnectionFactory.getPool().getStatistics());
+        }
+        return metrics;
+    }
+}
@@ -2,10 +2,15 @@ package com.acme.server.controller;
 
 import com.acme.server.model.Notification;
 import com.acme.server.service.NotificationService;
+import com.acme.server.service.NotificationStreamService;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
-import java.util.Date;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -34,24 +39,27 @@ import java.util.List;
  *  NotificationController which observes changes across all Resources is a more pragmatic where polling is necessary to achieve
  *  state synchronisation.
  *
- *  Alternate approaches to polling include some pub / sub mechanism, the use of sockets etc.
+ *  Alternate approaches to polling include some pub / sub mechanism, the use of sockets etc. Clients that can hold a
+ *  connection open use GET /notifications/stream, a Server-Sent Events stream the Notifications are pushed down as they
+ *  are recorded.
  *
  */
 @RestController
 public class NotificationController {
 
     private static Logger log = Logger.getLogger(NotificationController.class);
-    private static NotificationService notificationService= new NotificationService();
+    @Autowired
+    private NotificationService notificationService;
+    @Autowired
+    private NotificationStreamService notificationStreamService;
 
     /**
      * Returns a list of <code>Notification</code> resources which provide the detail of what resources have been
      * modified since the client last polled
      *
-     * NOTE: The team at Acme have yet to build the correct implementation behind this endpoint that will accept a timestamp
-     * as an input parameter & check what is in fact new.
-     * It is used here in iteration 1 development only to illustrate the impact of a polling based design & will periodically
-     * return a set of newly created messages to the API consumer to process as they would if a remote user posted new
-     * messages to the chatroom.
+     * The client passes the sequence of the last Notification it processed & receives only the changes recorded in its
+     * User's feed after it, oldest first. The sequence of the last Notification returned is passed on the next poll.
+     * An empty list means nothing has changed.
      *
      * This is used by consumers to identify changes across all Collaboration resources (ChatRoom & Messaging)
      * Accessible via a GET on /notifications
@@ -62,8 +70,17 @@ public class NotificationController {
      * GET  /chatroom/{id}/messages - get the latest set of messages for a given modified chatroom
      * GET  /chatroom/{id}/message/{id} - get the specific message that has been modified
      *
-     * @param       testNotifications - provided as an input in the absense of a proper polling mechanism that uses timestamps
-     *                                or sequence numbers to find & return any newly created or modified
+     * @param       userID - The User polling for changes
+     * @param       lastSequence - The sequence of the last Notification the client processed, 0 or absent on the first poll
+     * @param       embed - true to carry the ChatMessage, ChatRoom topic or User changed in each Notification, up to a
+     *                      size budget, so no GET is needed to find out what changed
+     * @param       coalesce - true to collapse the changes to the same User or ChatRoom into one Notification & the
+     *                         ChatMessage changes of each ChatRoom into one Notification carrying a count & a single
+     *                         link to GET /chatrooms/{id}/chatmessages?since=since for the whole delta
+     * @param       testNotifications - creates a new test ChatMessage in chatroomID & returns its Notification, used to
+     *                                simulate a remote user posting new messages to the chatroom
+     * @param       response - Carries the X-Poll-Interval header, the number of seconds the client should wait before
+     *                         its next poll. It is short while the User's ChatRooms are busy & grows while they are quiet.
      *
      *
      * @return      <code> List </code>
@@ -71,8 +88,13 @@ public class NotificationController {
 
     @RequestMapping(value = "/notifications", method = RequestMethod.GET)
     public List<Notification> getNotifications(@RequestParam(value="chatroomID", required=false) String chatRoomID,
-                                               @RequestParam(value="test", required=false, defaultValue="false") String testNotifications) {
-        log.info("Entering GET /notifications?chatroomID=" + chatRoomID);
+                                               @RequestParam(value="userid", required=false) String userID,
+                                               @RequestParam(value="since", required=false, defaultValue="0") long lastSequence,
+                                               @RequestParam(value="embed", required=false, defaultValue="false") boolean embed,
+                                               @RequestParam(value="coalesce", required=false, defaultValue="false") boolean coalesce,
+                                               @RequestParam(value="test", required=false, defaultValue="false") String testNotifications,
+                                               HttpServletResponse response) {
+        log.info("Entering GET /notifications?chatroomID=" + chatRoomID + "&userid=" + userID + "&since=" + lastSequence);
 
         //Call out to notificationService to simulate a scenario where there have been a series of new chatMessages created
         //by the other party in a chat room & the receiver needs to process them in their client.
@@ -81,11 +103,73 @@ public class NotificationController {
             return notificationService.createTestChatMessageNotifications(chatRoomID,1);
         }
         else {
-         //   log.info("Entering GET /notifications?chatroomID=" + chatRoomID);
-            //Do something else that will generally not return new notifications
-            long clientTimeStamp = new Date().getTime();
-            return notificationService.checkForNewEvents(clientTimeStamp);
+            //Return whatever has been recorded in the User's feed since the client's last poll & when to poll next
+            List<Notification> notifications = notificationService.checkForNewEvents(userID, lastSequence, embed, coalesce);
+            response.setHeader("X-Poll-Interval", String.valueOf(notificationService.getNextPollSeconds(userID)));
+            return notifications;
         }
     }
 
+    /**
+     * Long polling version of GET /notifications, selected by the wait parameter. If nothing has changed since the
+     * client's last poll the request is parked without holding a request thread & is answered as soon as a change is
+     * recorded for the User, or with an empty list once the wait runs out. The client polls again straight away with the
+     * sequence of the last Notification returned.
+     *
+     * Accessible via a GET on /notifications?userid=id&since=sequence&wait=seconds
+     *
+     * @param       userID - The User polling for changes
+     * @param       lastSequence - The sequence of the last Notification the client processed, 0 or absent on the first poll
+     * @param       waitSeconds - How long to wait for a change, capped by the server
+     * @param       embed - true to carry the resource changed in each Notification
+     * @param       coalesce - true to coalesce the changes to the same resource or the ChatMessages of a ChatRoom
+     *
+     * @return      <code> DeferredResult </code>
+     */
+    @RequestMapping(value = "/notifications", method = RequestMethod.GET, params = "wait")
+    public DeferredResult<List<Notification>> waitForNotifications(@RequestParam(value="userid", required=false) String userID,
+                                                                   @RequestParam(value="since", required=false, defaultValue="0") long lastSequence,
+                                                                   @RequestParam(value="wait") int waitSeconds,
+                                                                   @RequestParam(value="embed", required=false, defaultValue="false") boolean embed,
+                                                                   @RequestParam(value="coalesce", required=false, defaultValue="false") boolean coalesce) {
+        log.info("Entering GET /notifications?userid=" + userID + "&since=" + lastSequence + "&wait=" + waitSeconds);
+        return notificationService.waitForNewEvents(userID, lastSequence, waitSeconds, embed, coalesce);
+    }
+
+    /**
+     * Opens a text/event-stream of the Notifications for a User. Every Notification already in the User's feed after the
+     * sequence given is sent straight away & each new one is pushed as soon as it is recorded, so the client no longer
+     * polls. Each event carries the sequence of its Notification as its id. A reconnecting EventSource sends the last
+     * id received in the Last-Event-ID header, which takes precedence over the since parameter.
+     *
+     * Accessible via a GET on /notifications/stream?userid=id&since=sequence
+     *
+     * @param       userID - The User whose Notifications are streamed
+     * @param       lastSequence - The sequence of the last Notification the client processed, 0 or absent to send the whole feed
+     * @param       embed - true to carry the resource changed in each Notification
+     * @param       coalesce - true to coalesce the changes to the same resource or the ChatMessages of a ChatRoom, the
+     *                         Notifications of a burst are then sent together once it has had time to finish
+     * @param       lastEventID - Sent by the client on reconnect, the id of the last event it received
+     */
+    @RequestMapping(value = "/notifications/stream", method = RequestMethod.GET)
+    public void streamNotifications(@RequestParam(value="userid") String userID,
+                                    @RequestParam(value="since", required=false, defaultValue="0") long lastSequence,
+                                    @RequestParam(value="embed", required=false, defaultValue="false") boolean embed,
+                                    @RequestParam(value="coalesce", required=false, defaultValue="false") boolean coalesce,
+                                    @RequestHeader(value="Last-Event-ID", required=false) String lastEventID,
+                                    HttpServletRequest request, HttpServletResponse response) throws IOException {
+        log.info("Entering GET /notifications/stream?userid=" + userID + "&since=" + lastSequence + " Last-Event-ID: " + lastEventID);
+
+        if(lastEventID != null){
+            try {
+                lastSequence = Long.parseLong(lastEventID.trim());
+            }
+            catch (NumberFormatException e) {
+                log.info("Ignoring invalid Last-Event-ID: " + lastEventID);
+            }
+        }
+
+        notificationStreamService.openStream(userID, lastSequence, embed, coalesce, request, response);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.acme.server.controller;
+
+import com.acme.server.model.SyncResult;
+import com.acme.server.service.SyncService;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ *  The SyncController is the entry point for clients catching up after being offline e.g. a mobile client waking from
+ *  sleep. Rather than polling GET /notifications & then making a GET for each resource linked, the client makes one
+ *  GET /sync with the token of its last sync & receives every ChatRoom, ChatMessage (including read receipts) & User
+ *  that changed since, as they are now, together with the token for its next sync.
+ *
+ *  Once caught up the client moves on to GET /notifications or one of its push variants, passing the token as since.
+ */
+@RestController
+public class SyncController {
+
+    private static Logger log = Logger.getLogger(SyncController.class);
+    @Autowired
+    private SyncService syncService;
+
+    /**
+     * Returns everything the User can see that changed since the sync token given. A reply with more set was cut short
+     * by its size budget, the client syncs again straight away with the nextToken returned.
+     *
+     * Accessible via a GET on /sync?userid=id&since=token
+     *
+     * @param       userID - The User syncing
+     * @param       since - The nextToken of the client's last sync, absent on the first sync
+     * @param       maxBytes - The most bytes of resources wanted in the reply, estimated from their text & capped by
+     *                             the server
+     *
+     * @return      <code> SyncResult </code>
+     */
+    @RequestMapping(value = "/sync", method = RequestMethod.GET)
+    public SyncResult sync(@RequestParam(value="userid", required=false) String userID,
+                           @RequestParam(value="since", required=false) String since,
+                           @RequestParam(value="maxBytes", required=false, defaultValue="0") int maxBytes) {
+        log.info("Entering GET /sync?userid=" + userID + "&since=" + since);
+        return syncService.syncChanges(userID, since, maxBytes);
+    }
+}
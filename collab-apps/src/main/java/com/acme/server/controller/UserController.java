@@ -3,13 +3,22 @@ package com.acme.server.controller;
 import com.acme.server.model.User;
 import com.acme.server.service.UserService;
 import com.acme.server.util.ActionLinks;
-import com.acme.server.util.StringUtils;
+import com.acme.server.util.RequestBodyParser;
+import com.acme.server.util.ResourceArrayWriter;
+import com.acme.server.util.ResourceEncodings;
+import com.acme.server.util.ResourceNotFoundException;
 
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -23,7 +32,8 @@ import java.util.List;
  *  A User, once created, can use the endpoint to modify certain aspects of their user account e.g. nickname.
  *  A real world scenario would impose Auth checks on any endpoint but this type in particular
  *
- *  The UserController converts the InputStreams from clients into a String that contains the JSON body.
+ *  The UserController binds the JSON body in the InputStreams from clients straight into a User with the shared
+ *  RequestBodyParser.
  *  Any parameters supported by the Endpoint are also handled by the controller & passed along to the Service layer accordingly.
  *  The actual business logic & processing is handed off to the UserService layer & when complete, the controller
  *  does the work to set the next set of valid ActionLinks on the Resource representation to ensure the API conforms fully
@@ -35,7 +45,12 @@ import java.util.List;
 public class UserController {
 
     private static Logger log = Logger.getLogger(UserController.class);
-    private static UserService userService= new UserService();
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private ResourceEncodings resourceEncodings;
+    @Autowired
+    private RequestBodyParser requestBodyParser;
 
     /**
      * Returns the full list of User resources representing the list of provisioned users
@@ -51,28 +66,39 @@ public class UserController {
      * GET /users/{id} - GET a specific user resource for further manipulation
      * PUT /users/{id} - Modify the User resource (the nickname which is the only mutable data)
      *
-     * @return      <code>List</code>
+     * The list is streamed: the Users are read from the database a chunk at a time & each chunk is written to the
+     * response before the next is read, so the memory used does not grow with the number of Users.
+     *
+     * @return      An array of <code>User</code> written straight to the response, JSON unless Smile or protobuf is accepted
      */
     @RequestMapping(value = "/users", method = RequestMethod.GET)
-    public List<User> getAllUsers() {
+    public void getAllUsers(HttpServletRequest request, HttpServletResponse response)
+            throws IOException, HttpMediaTypeNotAcceptableException {
         log.info("Entering GET /users");
 
-        List <User> listOfUsers = userService.retrieveAllUsers();
-
-        //Set the action list for each User found at the controller level so can base the allowable actions on the
-        //endpoint being invoked
-        for(int i = 0;i<listOfUsers.size();i++){
-            User nextUser = listOfUsers.get(i);
-
-            List<ActionLinks> listOfActionLinks = new ArrayList<ActionLinks>();
-            ActionLinks nextActionA = new ActionLinks("/users/"+nextUser.getUserID(),"self","GET" );
-            ActionLinks nextActionB = new ActionLinks("/users/"+nextUser.getUserID(),"self","PUT" );
-            listOfActionLinks.add(nextActionA);
-            listOfActionLinks.add(nextActionB);
-            nextUser.setNextActionLinks(listOfActionLinks);
+        Iterator< List<User> > userChunks = userService.scanAllUsers();
+        ResourceArrayWriter arrayWriter = resourceEncodings.openArrayWriter(request, response);
+        while(userChunks.hasNext()){
+            List <User> listOfUsers = userChunks.next();
+
+            //Set the action list for each User found at the controller level so can base the allowable actions on the
+            //endpoint being invoked
+            for(int i = 0;i<listOfUsers.size();i++){
+                User nextUser = listOfUsers.get(i);
+
+                List<ActionLinks> listOfActionLinks = new ArrayList<ActionLinks>();
+                ActionLinks nextActionA = new ActionLinks("/users/"+nextUser.getUserID(),"self","GET" );
+                ActionLinks nextActionB = new ActionLinks("/users/"+nextUser.getUserID(),"self","PUT" );
+                listOfActionLinks.add(nextActionA);
+                listOfActionLinks.add(nextActionB);
+                nextUser.setNextActionLinks(listOfActionLinks);
+
+                arrayWriter.write(nextUser);
+            }
+            arrayWriter.flush();
         }
 
-        return listOfUsers;
+        log.info(arrayWriter.close() + " Users written");
     }
     /**
      * Returns the User resource representation with the specific id in the URL
@@ -122,13 +148,9 @@ public class UserController {
      */
     @RequestMapping(value = "/users", method = RequestMethod.POST)
     public User createNewUser(InputStream data, @RequestParam(value="test", required=false, defaultValue = "false") String testUsers,
-                              @RequestParam(value="num", required=false, defaultValue="2") Integer numTestUsers) {
+                              @RequestParam(value="num", required=false, defaultValue="2") Integer numTestUsers) throws IOException {
         log.info("Entering POST /users");
 
-        //Extract incoming json to construct a User Resource from the representation input
-        String json = StringUtils.InputStringToString(data);
-        log.info("POST data: " + json);
-
         if(testUsers.equals("true")){
             log.info("Test Parameter set to true. Creating " + numTestUsers + " new Users");
             userService.createTestUsers(numTestUsers.intValue());
@@ -139,7 +161,8 @@ public class UserController {
         else {
             //Call out to the UserService Class to build & store the new user in the database after applying all
             //relevant business constraints on what the consumer is allowed to manipulate
-            User newUser = userService.createUserFromJSON(json);
+            //The incoming json is bound straight from the request body into a User Resource
+            User newUser = userService.createUser(requestBodyParser.readUser(data));
 
             //Set the next action links at the controller level before returning the JSON to the API consumer
             //NOTE: These links are not relevant anywhere else in the business logic & are part of the resource representations
@@ -170,19 +193,22 @@ public class UserController {
      * GET  /users/{id} - get the modified user
      * PUT  /users/{id} - modify the nickname again
      *
-     * @return      <code> User </code>
+     * @return      <code> User </code> 404 Not Found if the User does not exist
      */
     @RequestMapping(value = "/users/{id}", method = RequestMethod.PUT)
-    public User modifyUser(InputStream data,@PathVariable("id") String id) {
+    public User modifyUser(InputStream data,@PathVariable("id") String id) throws IOException {
         log.info("Entering PUT /users/" + id);
 
-        //Extract incoming json to determine what fields in the User Resource the consumer wants modified
-        String json = StringUtils.InputStringToString(data);
-        log.info("PUT data: " + json);
+        //Bind the incoming json straight from the request body to determine what fields in the User Resource the
+        //consumer wants modified
+        User user = requestBodyParser.readUser(data);
 
         //Call out to the UserService Class to build & store the new user in the database after applying all
         //relevant business constraints on what the consumer is allowed to manipulate
-        User modifiedUser = userService.modifyUserFromJSON(json);
+        User modifiedUser = userService.modifyUser(user);
+        if(modifiedUser == null) {
+            throw new ResourceNotFoundException(user.getUserID());
+        }
 
         //Set the next action links at the controller level before returning the JSON to the API consumer
         log.info("Setting Next Action links: ");
@@ -3,7 +3,6 @@ package com.acme.server.dao;
 import com.acme.server.model.ChatMessage;
 import com.acme.server.model.ChatRoom;
 import com.acme.server.model.User;
-import com.acme.server.util.DatabaseManager;
 import org.apache.log4j.Logger;
 
 import java.util.Date;
@@ -37,8 +36,6 @@ public class ChatMessageDAO {
     private long lastModified;           //Server generated timestamp of when the message was last modified (created or updated)
     private String readReceipt;      //Flag indicating whether the other Participant in the chatroom read the message (Assumes 1:1)
 
-    private DatabaseManager databaseManager = new DatabaseManager();
-
     private static Logger log = Logger.getLogger(ChatMessageDAO.class);
 
     public ChatMessageDAO() {
@@ -129,39 +126,6 @@ public class ChatMessageDAO {
         this.readReceipt = readReceipt;
     }
 
-    public void persist() {
-        log.info("Entering ChatMessageDAO.persist()");
-
-        final String key = this.chatMessageID.toString();
-
-        log.info("Key for new ChatMessage: " + key);
-
-        if(this.getChatRoomID() !=null) {
-            log.info("ChatRoomID: " + this.getChatRoomID().toString());
-        }else{
-            log.info("ChatRoomID is null"); //throw error
-        }
-
-        if(this.getFromParticipantID() !=null) {
-            log.info("ChatMessage was sent from: " + this.getFromParticipantID().toString());
-        }else{
-            log.info("Other Participant is null");
-        }
-
-        //Build up HashMap of data that will be pushed to the database
-        final Map< String, Object > properties = new HashMap< String, Object >();
-
-        properties.put("chatmessageid",this.getChatMessageID());
-        properties.put("chatroomid", this.getChatRoomID() );
-        properties.put("fromParticipantID", this.getFromParticipantID() );
-        properties.put("message", this.getMessage() );
-        properties.put("readreceipt", this.getReadReceipt() );
-        properties.put("lastmodified", new Date().getTime() );
-
-        //Use the databaseManager to push the HashMap constructed
-        databaseManager.setStringObjectHash(key,properties);
-    }
-
 
 /*  public Collection<ChatMessageDAO> retrieveByChatRoomID(String chatRoomID) {
         log.info("Entering ChatMessageDAO.retrieveByChatRoomID: " + chatRoomID);
@@ -0,0 +1,41 @@
+package com.acme.server.dao;
+
+import com.acme.server.model.User;
+
+import java.util.List;
+
+/**
+ *  The ChatRoomAggregate holds everything read from the data store to build a full ChatRoom Resource Representation
+ *  in one call: the ChatRoomDAO, the two Users taking part & the latest page of ChatMessageDAOs, oldest first.
+ */
+public class ChatRoomAggregate {
+
+    private ChatRoomDAO chatRoomDAO;
+    private User chatRoomCreator;
+    private User chatRoomParticipant;
+    private List<ChatMessageDAO> chatMessageDAOs;
+
+    public ChatRoomAggregate(ChatRoomDAO chatRoomDAO, User chatRoomCreator, User chatRoomParticipant,
+                             List<ChatMessageDAO> chatMessageDAOs) {
+        this.chatRoomDAO = chatRoomDAO;
+        this.chatRoomCreator = chatRoomCreator;
+        this.chatRoomParticipant = chatRoomParticipant;
+        this.chatMessageDAOs = chatMessageDAOs;
+    }
+
+    public ChatRoomDAO getChatRoomDAO() {
+        return chatRoomDAO;
+    }
+
+    public User getChatRoomCreator() {
+        return chatRoomCreator;
+    }
+
+    public User getChatRoomParticipant() {
+        return chatRoomParticipant;
+    }
+
+    public List<ChatMessageDAO> getChatMessageDAOs() {
+        return chatMessageDAOs;
+    }
+}
@@ -3,7 +3,6 @@ package com.acme.server.dao;
 import com.acme.server.model.ChatMessage;
 import com.acme.server.model.ChatRoom;
 import com.acme.server.model.User;
-import com.acme.server.util.DatabaseManager;
 import org.apache.log4j.Logger;
 import org.springframework.data.redis.core.RedisTemplate;
 
@@ -31,7 +30,6 @@ public class ChatRoomDAO {
     private String chatRoomParticipantID;
     private String topic;
     private long lastModified;
-    private DatabaseManager databaseManager = new DatabaseManager();
 
     private static Logger log = Logger.getLogger(ChatRoomDAO.class);
 
@@ -127,64 +125,9 @@ public class ChatRoomDAO {
     }
 
 
-// TODO: Every dao object that represents a specific resource should implement an interface with methods:
-// persist() - push this single dao instance to the DB
-// retrieve(key) - retrieve a single dao instance from the DB with , static method returning a dao populated from data
-
-// retrieveAll() - get ALL instances of dao in the persistent data store
-// retrieve(value) - get all instances of the das in the persistent data store that have the specified values
-
-
-    public void persist() {
-        log.info("Entering ChatRoomDAO.persist()");
-
-        final String key = this.getChatRoomID();
-
-        log.info("Key for new ChatRoom: " + key);
-        log.info("Topic for new ChatRoom: " + this.getTopic());
-
-        if(this.getChatRoomCreatorUserID() !=null) {
-            log.info("UserID of ChatRoom creator: " + this.getChatRoomCreatorUserID());
-        }else{
-            log.info("ChatRoom creator is null");
-        }
-
-        if(this.getChatRoomParticipantID() !=null) {
-            log.info("UserID of other participant: " + this.getChatRoomParticipantID());
-        }else{
-            log.info("Other Participant is null");
-        }
-
-        //Build up HashMap of data that will be pushed to the database
-        final Map< String, Object > properties = new HashMap< String, Object >();
-
-        //create a Map / Hash to hold all the message ID's for a given ChatRoom
-       /* final Map<String, Object> messages = new HashMap<String, Object>();
-        ChatMessage testMessage1 = new ChatMessage(this.chatRoomID,this.getChatRoomCreatorUserID(),"test Message");
-        ChatMessage testMessage2 = new ChatMessage(this.chatRoomID,this.getChatRoomParticipantID(),"test response");
-
-        //Put the two New ChatMessages into the HashMap using their ID's as the keys (consider the timestamp)..
-        messages.put(testMessage1.getChatMessageID().toString(),testMessage1);
-        log.info("TestMessage 1 added to Hash");
-
-        messages.put(testMessage2.getChatMessageID().toString(),testMessage2);
-        log.info("TestMessage 2 added to Hash");
-
-        ChatMessage testRetrievalFromHash1 = (ChatMessage) messages.get(testMessage1.getChatMessageID().toString());
-        log.info("TestMessage 1 retrieved from Hash: " + testRetrievalFromHash1.getMessage());
-
-        ChatMessage testRetrievalFromHash2 = (ChatMessage) messages.get(testMessage2.getChatMessageID().toString());
-        log.info("TestMessage 2 retrieved from Hash: " + testRetrievalFromHash2.getMessage());*/
-
-        properties.put("chatroomid",this.getChatRoomID());
-        properties.put("topic", this.getTopic() );
-        properties.put("chatroomcreatoruserid", this.getChatRoomCreatorUserID() );
-        properties.put("chatroomparticipantid", this.getChatRoomParticipantID() );
-        // properties.put( "messages",messages);
-
-
-        //User the databaseManager to push the HashMap constructed
-        databaseManager.setStringObjectHash(key,properties);
-    }
+// NOTE: DAO objects hold data only & are pushed to / read from the DB by the DatabaseManager singleton so that
+// building a DAO on the request path does not build a connection to the data store with it e.g.
+// DatabaseManager.createChatRoomFromDAO(dao) - push this single dao instance to the DB
+// DatabaseManager.retrieveChatRoomDAO(key) - retrieve a single dao instance from the DB
 
 }
\ No newline at end of file
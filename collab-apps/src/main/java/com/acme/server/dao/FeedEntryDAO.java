@@ -0,0 +1,75 @@
+package com.acme.server.dao;
+
+import java.util.Date;
+
+/**
+ *  The FeedEntryDAO is a representation of a single entry of the change feed held in the data store for every User.
+ *  An entry is appended each time a User, ChatRoom or ChatMessage is created or modified & is read back by the
+ *  NotificationService to build the Notifications returned to a polling client.
+ *
+ *  A FeedEntryDAO instance contains:
+ *
+ *  long sequence - a server generated number, unique & increasing across every feed, assigned when the entry is stored
+ *  String notificationType - USER, CHATROOM or CHATMESSAGE
+ *  String parentResourceID - the User or ChatRoom created / modified, or the ChatRoom of the ChatMessage
+ *  String subResourceID - the ChatMessage created / modified, null for USER & CHATROOM entries
+ *  long timestamp - server generated timestamp of when the change was made
+ */
+public class FeedEntryDAO {
+
+    private long sequence;
+    private String notificationType;
+    private String parentResourceID;
+    private String subResourceID;
+    private long timestamp;
+
+    public FeedEntryDAO() {
+    }
+
+    public FeedEntryDAO(String notificationType, String parentResourceID, String subResourceID) {
+        this.notificationType = notificationType;
+        this.parentResourceID = parentResourceID;
+        this.subResourceID = subResourceID;
+        this.timestamp = new Date().getTime();
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public String getNotificationType() {
+        return notificationType;
+    }
+
+    public void setNotificationType(String notificationType) {
+        this.notificationType = notificationType;
+    }
+
+    public String getParentResourceID() {
+        return parentResourceID;
+    }
+
+    public void setParentResourceID(String parentResourceID) {
+        this.parentResourceID = parentResourceID;
+    }
+
+    public String getSubResourceID() {
+        return subResourceID;
+    }
+
+    public void setSubResourceID(String subResourceID) {
+        this.subResourceID = subResourceID;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+}
@@ -0,0 +1,36 @@
+package com.acme.server.dao;
+
+import com.acme.server.model.User;
+
+import java.util.Map;
+
+/**
+ *  The FeedResources holds the Users, ChatRooms & ChatMessages named by a page of feed entries, read from the data store
+ *  in one batch so they can be embedded in the Notifications returned to a client. Each map is keyed by resource ID &
+ *  holds only the resources that still exist.
+ */
+public class FeedResources {
+
+    private Map<String, User> users;
+    private Map<String, ChatRoomDAO> chatRoomDAOs;
+    private Map<String, ChatMessageDAO> chatMessageDAOs;
+
+    public FeedResources(Map<String, User> users, Map<String, ChatRoomDAO> chatRoomDAOs,
+                         Map<String, ChatMessageDAO> chatMessageDAOs) {
+        this.users = users;
+        this.chatRoomDAOs = chatRoomDAOs;
+        this.chatMessageDAOs = chatMessageDAOs;
+    }
+
+    public Map<String, User> getUsers() {
+        return users;
+    }
+
+    public Map<String, ChatRoomDAO> getChatRoomDAOs() {
+        return chatRoomDAOs;
+    }
+
+    public Map<String, ChatMessageDAO> getChatMessageDAOs() {
+        return chatMessageDAOs;
+    }
+}
@@ -1,9 +1,7 @@
 package com.acme.server.model;
 
-import com.acme.server.dao.ChatRoomDAO;
-import com.acme.server.service.MessagingService;
-import com.acme.server.service.UserService;
 import com.acme.server.util.ActionLinks;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import org.apache.log4j.Logger;
 
 import java.net.URL;
@@ -24,7 +22,10 @@ import java.util.UUID;
  *   long lastModified - Server generated timestamp when the ChatRoom was created or modified
  *   List<ChatMessage> - The list of ChatMessages posted to this ChatRoom
  *   List<NextActionLinks> - The allowable list of next actions on the ChatRoom Resource
+ *
+ *  Fields that are not set e.g. those left out at the client's request are left out of the JSON representation.
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class ChatRoom {
 
     private String chatRoomID;
@@ -63,41 +64,6 @@ public class ChatRoom {
         this.chatMessages = messages;
     }
 
-    public ChatRoom(ChatRoomDAO chatRoomDAO){
-        this.setChatRoomID(chatRoomDAO.getChatRoomID());
-
-        this.setTopic(chatRoomDAO.getTopic());
-        log.info("Basic Info set");
-
-        //Reconstruct two user objects associated with this ChatRoom using the UserService to retrieve them form the DB
-        UserService userService = new UserService();
-        MessagingService messagingService = new MessagingService();
-
-        List<User> chatRoomParticipants = new ArrayList<User>();
-        User chatRoomCreator = userService.retrieveExistingUser(chatRoomDAO.getChatRoomCreatorUserID());
-        User chatRoomParticipant = userService.retrieveExistingUser(chatRoomDAO.getChatRoomParticipantID());
-        chatRoomParticipants.add(chatRoomCreator);
-        chatRoomParticipants.add(chatRoomParticipant);
-        this.setParticipants(chatRoomParticipants);
-        log.info("Participants Set");
-
-        //Create a utility method that will search the DB for all messages associated with this chatroom (or last X)
-        //This will return a list of ChatRoom Messages that we can assocaite with the ChatRoom to return the full resource
-        //representation of the ChatRoom.
-
-        // TODO: THIS IS AN AREA TO DEMONSTRATE WHERE VIOLATING THIS CONSTRAINT CAN CREATE OPTIMISATIONS
-        // The first message of the chatRoom may be contained in the JSON body of the ChatRoom Resource but that
-        // would violate one of the REST constraints that a POST against a resource should only create instances of
-        // that resource.
-        List<ChatMessage> chatMessages = new ArrayList<ChatMessage>();
-        chatMessages = messagingService.retrieveAllChatMessages(chatRoomDAO.getChatRoomID());
-        log.info(chatMessages.size() + "Messages Found for chatroom ID: " + chatRoomDAO.getChatRoomID());
-
-        this.setChatMessages(chatMessages);
-        log.info("Messages Set: " + chatMessages.size());
-
-    }
-
     public String getChatRoomID() {
         return chatRoomID;
     }
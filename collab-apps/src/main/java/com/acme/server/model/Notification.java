@@ -1,6 +1,7 @@
 package com.acme.server.model;
 
 import com.acme.server.service.MessagingService;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
@@ -20,32 +21,45 @@ import java.util.List;
 public class Notification {
 
     private static Logger log = Logger.getLogger(Notification.class);
+    private static final String BASE_URL = "http://localhost:8080"; //Move to be read  from  config file.
     private long timestamp;
+    private long sequence;           //Position of the change in the polling User's feed, sent back as 'since' on the next poll
     private String parentResourceIDModified;
     private String subResourceIDModified;
     private List<String> links;
 
+    //The number of changes this Notification stands for when the client asked for them to be coalesced
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer count;
+
+    //The resource changed, set only when the client asks for it to be embedded & it fits the size budget of the reply
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private ChatMessage chatMessage;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String chatRoomTopic;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private User user;
+
     public Notification(String notificationType, String parentresourceID, String subresourceID) {
         log.info("Entering Notification Constructor: " + notificationType + " " + parentresourceID + " " );
         links = new ArrayList<String>();
-        String baseURL = "http://localhost:8080"; //Move to be read  from  config file.
 
         if(notificationType.equals("CHATROOM")){
             log.info("Found New ChatRoom Notification: ");
-            String chatRoomURL = baseURL + "/chatrooms/" + parentresourceID;
+            String chatRoomURL = BASE_URL + "/chatrooms/" + parentresourceID;
             this.parentResourceIDModified = parentresourceID;
             links.add(chatRoomURL);
         }
         else if(notificationType.equals("CHATMESSAGE")){
             log.info("Found New Message Notification: ");
-            String chatMessageURL = baseURL + "/chatrooms/" + parentresourceID + "/chatmessages/" + subresourceID;
+            String chatMessageURL = BASE_URL + "/chatrooms/" + parentresourceID + "/chatmessages/" + subresourceID;
             this.parentResourceIDModified = parentresourceID;
             this.subResourceIDModified = subresourceID;
             links.add(chatMessageURL);
         }
         else if(notificationType.equals("USER")){
             log.info("Found New User Notification: ");
-            String userURL = baseURL + "/users/" + parentresourceID;
+            String userURL = BASE_URL + "/users/" + parentresourceID;
             this.parentResourceIDModified = parentresourceID;
             links.add(userURL);
         }
@@ -55,6 +69,14 @@ public class Notification {
 
     public long getTimestamp(){return timestamp;}
 
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
     public List<String> getLinks(){
         return links;
     }
@@ -84,4 +106,50 @@ public class Notification {
         this.links = modifiedResourceLinks;
     };
 
+    public Integer getCount() {
+        return count;
+    }
+
+    public void setCount(Integer count) {
+        this.count = count;
+    }
+
+    /**
+     * Makes this the Notification of several changes to the ChatMessages of its ChatRoom. Its single link returns every
+     * ChatMessage changed after the sequence given in one GET.
+     *
+     * @param       count - The number of changes coalesced
+     * @param       afterSequence - The sequence of the last Notification the client processed before them
+     */
+    public void coalesceChatMessages(int count, long afterSequence) {
+        this.count = count;
+        this.subResourceIDModified = null;
+        links = new ArrayList<String>();
+        links.add(BASE_URL + "/chatrooms/" + parentResourceIDModified + "/chatmessages?since=" + afterSequence);
+    }
+
+    public ChatMessage getChatMessage() {
+        return chatMessage;
+    }
+
+    public void setChatMessage(ChatMessage chatMessage) {
+        this.chatMessage = chatMessage;
+    }
+
+    public String getChatRoomTopic() {
+        return chatRoomTopic;
+    }
+
+    public void setChatRoomTopic(String chatRoomTopic) {
+        this.chatRoomTopic = chatRoomTopic;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package com.acme.server.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  The SyncResult is the reply to GET /sync, everything a User can see that changed since the sync token the client
+ *  sent, so a client coming back from being offline catches up in one request.
+ *
+ *  A SyncResult instance contains:
+ *
+ *   List<ChatRoom> - The ChatRooms created or modified, with their participants but without their ChatMessages
+ *   List<ChatMessage> - The ChatMessages created or modified, including those whose read receipt was set
+ *   List<User> - The Users created or modified
+ *   String nextToken - Sent as since on the next sync to receive only what changed after this reply
+ *   boolean more - true when the reply was cut short by its size budget & the client should sync again straight away
+ *
+ *  Each resource appears once, as it is stored now, however many times it changed.
+ */
+public class SyncResult {
+
+    private List<ChatRoom> chatRooms = new ArrayList<ChatRoom>();
+    private List<ChatMessage> chatMessages = new ArrayList<ChatMessage>();
+    private List<User> users = new ArrayList<User>();
+    private String nextToken;
+    private boolean more;
+
+    public SyncResult(String nextToken) {
+        this.nextToken = nextToken;
+    }
+
+    public List<ChatRoom> getChatRooms() {
+        return chatRooms;
+    }
+
+    public List<ChatMessage> getChatMessages() {
+        return chatMessages;
+    }
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public boolean isMore() {
+        return more;
+    }
+
+    public void setNextToken(String nextToken) {
+        this.nextToken = nextToken;
+    }
+
+    public void setMore(boolean more) {
+        this.more = more;
+    }
+}
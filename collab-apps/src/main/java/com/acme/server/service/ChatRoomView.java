@@ -0,0 +1,105 @@
+package com.acme.server.service;
+
+import com.acme.server.model.ChatRoom;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ *  The ChatRoomView is the part of a ChatRoom Resource Representation a client asked for with the fields & embed
+ *  parameters of the ChatRoom endpoints. The MessagingService reads only the related resources the view includes from
+ *  the Database & the controller drops the fields it excludes, so a client that only needs the topic pays for neither.
+ *
+ *  fields=chatRoomID,topic,participants,chatMessages,nextActionLinks - the fields of the ChatRoom returned
+ *  embed=participants,messages - the related resources read & embedded in it, empty for none
+ *
+ *  A participant or ChatMessage list is embedded only when it is allowed by both. Without either parameter the whole
+ *  ChatRoom is returned.
+ */
+public class ChatRoomView {
+
+    public static final ChatRoomView FULL = new ChatRoomView(null, true, true);
+
+    //The fields returned, null for every field
+    private final Set<String> fields;
+    private final boolean participants;
+    private final boolean chatMessages;
+
+    private ChatRoomView(Set<String> fields, boolean participants, boolean chatMessages) {
+        this.fields = fields;
+        this.participants = participants;
+        this.chatMessages = chatMessages;
+    }
+
+    /**
+     * Builds the view from the fields & embed request parameters, each a comma separated list
+     *
+     * @param       fields - The fields wanted, null for every field
+     * @param       embed - The related resources wanted, participants and / or messages, null for both
+     * @return      <code>ChatRoomView</code>
+     */
+    public static ChatRoomView fromParameters(String fields, String embed) {
+        if(fields == null && embed == null) {
+            return FULL;
+        }
+
+        Set<String> fieldSet = fields != null ? parseList(fields) : null;
+        Set<String> embedSet = embed != null ? parseList(embed) : null;
+
+        boolean participants = (embedSet == null || embedSet.contains("participants"))
+                && (fieldSet == null || fieldSet.contains("participants"));
+        boolean chatMessages = (embedSet == null || embedSet.contains("messages") || embedSet.contains("chatMessages"))
+                && (fieldSet == null || fieldSet.contains("chatMessages"));
+        return new ChatRoomView(fieldSet, participants, chatMessages);
+    }
+
+    private static Set<String> parseList(String list) {
+        Set<String> values = new HashSet<String>();
+        for(String value : list.split(",")) {
+            if(value.trim().length() > 0) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
+    public boolean includesParticipants() {
+        return participants;
+    }
+
+    public boolean includesChatMessages() {
+        return chatMessages;
+    }
+
+    public boolean includesField(String field) {
+        return fields == null || fields.contains(field);
+    }
+
+    /**
+     * Clears the fields of a ChatRoom this view excludes so they are left out of the JSON returned
+     *
+     * @param       chatRoom - The ChatRoom to trim, may be null
+     * @return      <code>ChatRoom</code> The same ChatRoom
+     */
+    public ChatRoom apply(ChatRoom chatRoom) {
+        if(chatRoom == null || this == FULL) {
+            return chatRoom;
+        }
+        if(!includesField("chatRoomID")) {
+            chatRoom.setChatRoomID(null);
+        }
+        if(!includesField("topic")) {
+            chatRoom.setTopic(null);
+        }
+        if(!participants) {
+            chatRoom.setParticipants(null);
+        }
+        if(!chatMessages) {
+            chatRoom.setChatMessages(null);
+        }
+        if(!includesField("nextActionLinks")) {
+            chatRoom.setNextActionLinks(null);
+        }
+        return chatRoom;
+    }
+}
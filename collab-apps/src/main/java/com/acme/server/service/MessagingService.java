@@ -1,15 +1,26 @@
 package com.acme.server.service;
 
 import com.acme.server.dao.ChatMessageDAO;
+import com.acme.server.dao.ChatRoomAggregate;
 import com.acme.server.dao.ChatRoomDAO;
+import com.acme.server.dao.FeedEntryDAO;
 import com.acme.server.model.ChatRoom;
 import com.acme.server.model.ChatMessage;
 import com.acme.server.model.User;
 import com.acme.server.util.DatabaseManager;
-import com.google.gson.Gson;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.List;
 
@@ -20,36 +31,103 @@ import java.util.List;
  *
  *  This service implements any of the business logic required to satisfy ACME's business constraints, abstracting that
  *  detail from the Controller or DAO layers.
+ *
+ *  Every ChatRoom & ChatMessage it creates or modifies is recorded with the NotificationService so the participants of the
+ *  ChatRoom find the change on their next poll.
+ *
+ *  It is a stateless singleton shared by every request thread.
  */
+@Service
 public class MessagingService {
 
-    private DatabaseManager databaseManager;
-    public UserService userService = new UserService();
+    private final DatabaseManager databaseManager;
+    private final NotificationService notificationService;
     private static Logger log = Logger.getLogger(MessagingService.class);
 
-    public MessagingService() {
+    //The number of the latest ChatMessages included in a single ChatRoom Resource Representation & in a page of
+    //GET /chatrooms/{id}/chatmessages when the client does not ask for a size, the rest of the history is paged from it
+    private final int chatRoomMessagePageSize;
+
+    //The most ChatMessages a client may ask for in one page of GET /chatrooms/{id}/chatmessages
+    private final int maxChatMessagePageSize;
+
+    //The number of ChatRooms or ChatMessages read from the Database at a time for a streamed response
+    private final int streamChunkSize;
+
+    @Autowired
+    public MessagingService(DatabaseManager databaseManager, NotificationService notificationService,
+                            @Value("${chatroom.messages.pageSize:50}") int chatRoomMessagePageSize,
+                            @Value("${chatroom.messages.maxPageSize:200}") int maxChatMessagePageSize,
+                            @Value("${streaming.chunkSize:100}") int streamChunkSize) {
         log.info("Entering MessagingService constructor");
-        databaseManager = new DatabaseManager();
+        this.databaseManager = databaseManager;
+        this.notificationService = notificationService;
+        this.chatRoomMessagePageSize = chatRoomMessagePageSize;
+        this.maxChatMessagePageSize = maxChatMessagePageSize;
+        this.streamChunkSize = Math.max(1, streamChunkSize);
     }
 
     /**
-     * Retrieves & Returns the List of all ChatRooms in the system
+     * Walks the ChatRooms of a User, or every ChatRoom in the system, a chunk of streaming.chunkSize at a time so a
+     * response can be written as it is read. Each chunk is built with its participants & ChatMessages read in one batch
+     * per chunk, so the memory held does not grow with the number of ChatRooms.
      *
-     * The JSON object returned includes a set of Action Links that represent the next set of allowable actions.
-     * This would be controlled to be limited by User in a real world scenario (auth info or parameter input)
-     *
-     * GET /users - GET all ChatRooms in the system
-     *
-     * @return      <code>List</code>
+     * @param       userID - The User whose ChatRooms are listed, null for every ChatRoom
+     * @param       view - The related resources to read & embed in each ChatRoom
+     * @return      <code>Iterator</code> The chunks of ChatRooms, each read from the Database only when it is taken
      */
-    public List<ChatRoom> retrieveAllChatRooms(String userID){
-        log.info("Entering MessagingService.retrieveAllChatRooms()");
+    public Iterator< List<ChatRoom> > scanChatRooms(String userID, final ChatRoomView view){
+        log.info("Entering MessagingService.scanChatRooms() with userID " + userID);
 
+        final Iterator< List<ChatRoomDAO> > chatRoomDAOChunks = databaseManager.scanChatRoomDAOs(userID, streamChunkSize);
+        return new Iterator< List<ChatRoom> >() {
+            public boolean hasNext() {
+                return chatRoomDAOChunks.hasNext();
+            }
+
+            public List<ChatRoom> next() {
+                return createChatRoomsFromDAOs(chatRoomDAOChunks.next(), view);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    //Builds the ChatRooms for a batch of ChatRoomDAOs, embedding what the view asks for
+    private List<ChatRoom> createChatRoomsFromDAOs(List<ChatRoomDAO> listOfChatRoomDAOs, ChatRoomView view){
         List<ChatRoom> listOfChatRooms = new ArrayList<ChatRoom>();
-        List<ChatRoomDAO> listOfChatRoomDAOs = databaseManager.getAllChatRoomDAOs(userID);
-        log.info("Retrieved all ChatRoomDAOs");
 
-        //Construct a list of actual ChatRoom objects for returning from the ChatRoom DAO & finding the users & messages
+        //Gather every participant & ChatRoom referenced by the list so the Users & ChatMessages can be read in batches,
+        //keeping the number of data store round trips fixed however many ChatRooms are returned. Only what the view
+        //embeds is read.
+        Set<String> participantIDs = new LinkedHashSet<String>();
+        List<String> chatRoomIDs = new ArrayList<String>();
+        for(int i = 0;i<listOfChatRoomDAOs.size();i++){
+            ChatRoomDAO nextChatRoomDAO = listOfChatRoomDAOs.get(i);
+            participantIDs.add(nextChatRoomDAO.getChatRoomCreatorUserID());
+            participantIDs.add(nextChatRoomDAO.getChatRoomParticipantID());
+            chatRoomIDs.add(nextChatRoomDAO.getChatRoomID());
+        }
+
+        Map<String, User> participants = new HashMap<String, User>();
+        if(view.includesParticipants()){
+            List<String> participantIDList = new ArrayList<String>(participantIDs);
+            List<User> participantList = databaseManager.getUsers(participantIDList);
+            for(int i = 0;i<participantIDList.size();i++){
+                participants.put(participantIDList.get(i), participantList.get(i));
+            }
+            log.info("Retrieved all participants");
+        }
+
+        Map<String, List<ChatMessageDAO>> chatMessageDAOs = new HashMap<String, List<ChatMessageDAO>>();
+        if(view.includesChatMessages()){
+            chatMessageDAOs = databaseManager.getLatestChatMessageDAOs(chatRoomIDs, chatRoomMessagePageSize);
+            log.info("Retrieved all ChatMessageDAOs");
+        }
+
+        //Construct a list of actual ChatRoom objects for returning from the ChatRoom DAO & the users & messages
         //associated with each ChatRoom
         for(int i = 0;i<listOfChatRoomDAOs.size();i++){
             ChatRoomDAO nextChatRoomDAO = listOfChatRoomDAOs.get(i);
@@ -61,22 +139,23 @@ public class MessagingService {
             nextChatRoom.setTopic(nextChatRoomDAO.getTopic());
             log.info("Basic Info set");
 
-            //Reconstruct two user objects associated with this ChatRoom using the UserService to retrieve them form the DB
-            List<User> chatRoomParticipants = new ArrayList<User>();
-            User chatRoomCreator = userService.retrieveExistingUser(nextChatRoomDAO.getChatRoomCreatorUserID());
-            User chatRoomParticipant = userService.retrieveExistingUser(nextChatRoomDAO.getChatRoomParticipantID());
-            chatRoomParticipants.add(chatRoomCreator);
-            chatRoomParticipants.add(chatRoomParticipant);
-            nextChatRoom.setParticipants(chatRoomParticipants);
-            log.info("Participants Set");
-
-            //Create a utility method that will search the DB for all messages associated with this chatroom (or last X)
-            //This will return a list of ChatRoom Messages that we can assocaite with the ChatRoom to return the full resource
-            //representation of the ChatRoom.
-            List<ChatMessage> chatMessages = new ArrayList<ChatMessage>();
-            chatMessages = retrieveAllChatMessages(nextChatRoomDAO.getChatRoomID());
-            nextChatRoom.setChatMessages(chatMessages);
-            log.info("Messages Set");
+            //Set the two user objects associated with this ChatRoom from the batch retrieved above
+            if(view.includesParticipants()){
+                List<User> chatRoomParticipants = new ArrayList<User>();
+                chatRoomParticipants.add(participants.get(nextChatRoomDAO.getChatRoomCreatorUserID()));
+                chatRoomParticipants.add(participants.get(nextChatRoomDAO.getChatRoomParticipantID()));
+                nextChatRoom.setParticipants(chatRoomParticipants);
+                log.info("Participants Set");
+            }
+
+            if(view.includesChatMessages()){
+                List<ChatMessageDAO> chatRoomMessageDAOs = chatMessageDAOs.get(nextChatRoomDAO.getChatRoomID());
+                if(chatRoomMessageDAOs == null){
+                    chatRoomMessageDAOs = new ArrayList<ChatMessageDAO>();
+                }
+                nextChatRoom.setChatMessages(createMessagesFromDAOs(chatRoomMessageDAOs));
+                log.info("Messages Set");
+            }
 
             listOfChatRooms.add(nextChatRoom);
         }
@@ -85,20 +164,44 @@ public class MessagingService {
     }
 
     /**
-     * Retrieves & Returns the ChatRoom with the specified ID
+     * Retrieves & Returns the ChatRoom with the specified ID including its participants & the latest page of
+     * ChatMessages, all read from the Database in a single round trip
      *
-     * GET /users - GET all Users in the system
+     * GET /chatrooms/{id} - GET a specific ChatRoom
      *
-     * @return      ChatRoom
+     * @param       chatRoomID - The ID of the ChatRoom
+     * @return      ChatRoom - null if the ChatRoom does not exist
      */
     public ChatRoom retrieveChatRoom(String chatRoomID){
+        return retrieveChatRoom(chatRoomID, ChatRoomView.FULL);
+    }
+
+    /**
+     * Retrieves & Returns the ChatRoom with the specified ID, reading its participants & the latest page of
+     * ChatMessages only if the view embeds them, all in a single round trip
+     *
+     * @param       chatRoomID - The ID of the ChatRoom
+     * @param       view - The related resources to read & embed
+     * @return      ChatRoom - null if the ChatRoom does not exist
+     */
+    public ChatRoom retrieveChatRoom(String chatRoomID, ChatRoomView view){
         log.info("Entering retrieveChatRoom: " + chatRoomID);
 
-        ChatRoomDAO chatRoomDAO = databaseManager.retrieveChatRoomDAO(chatRoomID);
-        //chatRoomDAO.retrieve(chatRoomID);
+        ChatRoomAggregate chatRoomAggregate = databaseManager.retrieveChatRoomAggregate(chatRoomID,
+                view.includesParticipants(), view.includesChatMessages() ? chatRoomMessagePageSize : 0);
+        if(chatRoomAggregate == null){
+            return null;
+        }
 
-        log.info("Building a ChatRoom Representation from DAO object retrieved for ChatRoom ID " + chatRoomDAO.getChatRoomID().toString());
-        return createChatRoomFromDAO(chatRoomDAO);
+        log.info("Building a ChatRoom Representation from the data retrieved for ChatRoom ID " + chatRoomID);
+        ChatRoom chatRoom = createChatRoomFromAggregate(chatRoomAggregate);
+        if(!view.includesParticipants()){
+            chatRoom.setParticipants(null);
+        }
+        if(!view.includesChatMessages()){
+            chatRoom.setChatMessages(null);
+        }
+        return chatRoom;
     }
 
     /**
@@ -109,40 +212,37 @@ public class MessagingService {
      *
      * GET /users - GET all Users in the system
      *
-     * @param
+     * @param       chatRoom - The ChatRoom to create, bound from the JSON body
+     * @param       view - The related resources to read & embed in the ChatRoom returned
      * @return      <code>List</code>
      */
-    public ChatRoom createChatRoomFromJSON(String json ){
-        log.info("Entering createChatRoomFromJSON: " + json);
-
-        //Create empty ChatRoom object in memory to return the JSON representation of the new object to the Controller
-        ChatRoom chatRoom = new ChatRoom();
-        Gson gsonFromJSON = new Gson();
-
-        //Populate a ChatRoom object directly using data from the JSON representation
-        chatRoom = gsonFromJSON.fromJson(json, chatRoom.getClass());
-        log.info("ChatRoom object constructed from JSON representation");
+    public ChatRoom createChatRoom(ChatRoom chatRoom, ChatRoomView view){
+        log.info("Entering createChatRoom");
 
         //Create a ChatRoomDAO to translate to something that can be persisted in a KEY / VALUE data store
         ChatRoomDAO chatRoomDAO = new ChatRoomDAO(chatRoom);
 
         //DAO Object ready to persist to Database
         log.info("Persisting ChatRoomDAO");
-        chatRoomDAO.persist();
+        databaseManager.createChatRoomFromDAO(chatRoomDAO);
+        notificationService.recordChange("CHATROOM", chatRoomDAO.getChatRoomID(), null);
 
         //Reconstruct a representation of the  ChatRoom object from the data stored & retrieval of the other resources
         //referenced in the ChatRoom DAO.
         chatRoom.setChatRoomID(chatRoomDAO.getChatRoomID());
 
-        //Retrieve the Users specified in the ChatRoomDAO object & set them into the chatRoom representation
-        List<User> chatRoomUsers = new ArrayList<User>();
-
-        User userA = databaseManager.getUser(chatRoomDAO.getChatRoomCreatorUserID().toString());
-        User userB = databaseManager.getUser(chatRoomDAO.getChatRoomParticipantID().toString());
-
-        chatRoomUsers.add(userA);
-        chatRoomUsers.add(userB);
-        chatRoom.setParticipants(chatRoomUsers);
+        //Retrieve the Users specified in the ChatRoomDAO object in one batch & set them into the chatRoom representation,
+        //a new ChatRoom has no ChatMessages
+        chatRoom.setChatMessages(null);
+        if(view.includesParticipants()){
+            List<String> chatRoomUserIDs = new ArrayList<String>();
+            chatRoomUserIDs.add(chatRoomDAO.getChatRoomCreatorUserID());
+            chatRoomUserIDs.add(chatRoomDAO.getChatRoomParticipantID());
+            chatRoom.setParticipants(databaseManager.getUsers(chatRoomUserIDs));
+        }
+        else {
+            chatRoom.setParticipants(null);
+        }
 
         // THIS IS AN AREA TO DEMONSTRATE WHERE VIOLATING THIS CONSTRAINT CAN CREATE OPTIMISATIONS
         // The first message of the chatRoom may be contained in the JSON body of the ChatRoom Resource but that
@@ -151,25 +251,21 @@ public class MessagingService {
         return chatRoom;
     }
 
-    //TODO there is this method and a constructor on ChatRoom that accepts DAO.. which to keep?
-    private ChatRoom createChatRoomFromDAO(ChatRoomDAO chatRoomDAO){
-        log.info("Entering createChatRoomFromDAO");
+    private ChatRoom createChatRoomFromAggregate(ChatRoomAggregate chatRoomAggregate){
+        log.info("Entering createChatRoomFromAggregate");
 
+        ChatRoomDAO chatRoomDAO = chatRoomAggregate.getChatRoomDAO();
         ChatRoom chatRoom = new ChatRoom();
 
-        //Reconstruct a representation of the  ChatRoom object from the data stored & retrieval of the other resources
-        //referenced in the ChatRoom DAO.
+        //Reconstruct a representation of the  ChatRoom object from the data stored & the other resources
+        //referenced in the ChatRoom DAO that were retrieved with it.
         chatRoom.setChatRoomID(chatRoomDAO.getChatRoomID());
         chatRoom.setTopic(chatRoomDAO.getTopic());
 
-        //Retrieve the Users specified in the ChatRoomDAO object & set them into the chatRoom representation
+        //Set the Users specified in the ChatRoomDAO object into the chatRoom representation
         List<User> chatRoomUsers = new ArrayList<User>();
-
-        User userA = databaseManager.getUser(chatRoomDAO.getChatRoomCreatorUserID().toString());
-        User userB = databaseManager.getUser(chatRoomDAO.getChatRoomParticipantID().toString());
-
-        chatRoomUsers.add(userA);
-        chatRoomUsers.add(userB);
+        chatRoomUsers.add(chatRoomAggregate.getChatRoomCreator());
+        chatRoomUsers.add(chatRoomAggregate.getChatRoomParticipant());
         chatRoom.setParticipants(chatRoomUsers);
 
         // THIS IS AN AREA TO DEMONSTRATE WHERE VIOLATING THIS CONSTRAINT CAN CREATE OPTIMISATIONS
@@ -177,9 +273,8 @@ public class MessagingService {
         // would violate one of the REST constraints that a POST against a resource should only create instances of
         // that resource.
 
-        //Get any messages stored in the DB & associated with this ChatRoomDAO & add to the ChatRoom
-        List<ChatMessage> chatMessages = retrieveAllChatMessages(chatRoomDAO.getChatRoomID());
-        chatRoom.setChatMessages(chatMessages);
+        //Add the latest messages stored in the DB & associated with this ChatRoom
+        chatRoom.setChatMessages(createMessagesFromDAOs(chatRoomAggregate.getChatMessageDAOs()));
 
         return chatRoom;
     }
@@ -190,35 +285,26 @@ public class MessagingService {
      * Only the 'Topic' of a ChatRoom is modifiable after creation in this phase of Acme development so all other fields
      * input in JSON body get ignored.
      *
-     * @param       json - Contains the detail of the modification to make
+     * @param       chatRoom - Bound from the JSON body, contains the detail of the modification to make
+     * @param       view - The related resources to read & embed in the ChatRoom returned
      * @return      ChatRoom - The Representation of the updated Resource as stored in the Database after modification
      */
-    public ChatRoom modifyChatRoomFromJSON(String json){
-        log.info("Entering modifyUserFromJSON: " + json);
-
-        //Create empty ChatRoom object to populate with the JSON input
-        ChatRoom chatRoom = new ChatRoom();
-        Gson gsonFromJSON = new Gson();
-
-        //Populate the User object directly using data from the JSON representation
-        chatRoom = gsonFromJSON.fromJson(json, chatRoom.getClass());
-        log.info("ChatRoom object constructed from JSON representation");
+    public ChatRoom modifyChatRoom(ChatRoom chatRoom, ChatRoomView view){
+        log.info("Entering modifyChatRoom");
 
         //Log the User Object as constructed from JSON input
         log.info("ChatRoom ID: " + chatRoom.getChatRoomID());
         log.info("ChatRoom Topic: " + chatRoom.getTopic());
 
-        //Retrieve the existing resource representation from Key/Value store
-        //Validate the chatRoomID is valid / populated before doing anything else
-        ChatRoomDAO existingChatRoom = databaseManager.retrieveChatRoomDAO(chatRoom.getChatRoomID());
-
-        //Overwrite the current topic with the one from the JSON body in the DAO retrieved from the Key / Value store
-        existingChatRoom.setTopic(chatRoom.getTopic());
-        log.info("Updated Topic for existingChatRoomID: " + existingChatRoom.getChatRoomID() + " to" + chatRoom.getTopic() );
-
-        //Update the data in the KeyValue Store using the same value
-        //Will have the same key as one that already exists
-        databaseManager.createChatRoomFromDAO(existingChatRoom);
+        //Overwrite the current topic with the one from the JSON body in the Key / Value store, only if the chatRoomID is
+        //valid i.e. the ChatRoom already exists
+        ChatRoomDAO existingChatRoom = databaseManager.updateChatRoomTopic(chatRoom.getChatRoomID(), chatRoom.getTopic());
+        if(existingChatRoom == null){
+            log.info("ChatRoom ID " + chatRoom.getChatRoomID() + " does not exist - nothing modified");
+            return null;
+        }
+        log.info("Updated Topic for existingChatRoomID: " + existingChatRoom.getChatRoomID() + " to" + existingChatRoom.getTopic() );
+        notificationService.recordChange("CHATROOM", existingChatRoom.getChatRoomID(), null);
 
         //Re-read the data from the key / value store after the update operation so the ChatRoom object built to send back
         //to the consumer is comprised of he actual data stored.
@@ -226,11 +312,12 @@ public class MessagingService {
         //modified the same ChatRoom topic before this is invoked or immediately AFTER the response has gone back to the consumer
         //The User will not discover this until they do the next 'GET' operation. Another issue that surfaces prevalently using
         //synchronous REST V some sequence based notification mechanism
-        ChatRoomDAO modifiedChatRoomDAO = databaseManager.retrieveChatRoomDAO(chatRoom.getChatRoomID());
-
-        //Reconstruct a modified version of the ChatRoom to send back to the API consumer (including the messages & users associated
-        //with the ChatRoom
-        return createChatRoomFromDAO(modifiedChatRoomDAO);
+        //The modified ChatRoom is re-read together with the messages & users associated with the ChatRoom in one round trip
+        //to send back to the API consumer. A view embedding neither is built from the ChatRoom returned by the update.
+        if(!view.includesParticipants() && !view.includesChatMessages()){
+            return new ChatRoom(existingChatRoom.getChatRoomID(), existingChatRoom.getTopic(), null, null);
+        }
+        return retrieveChatRoom(chatRoom.getChatRoomID(), view);
     }
 
 
@@ -254,20 +341,121 @@ public class MessagingService {
 
 
     /**
-     * Retrieves & Returns the List of all ChatMessages in the system for a given ChatRoom
+     * Retrieves & Returns the ChatMessages with the specified IDs, read from the Database in a single batch
+     *
+     * @param       chatMessageIDs - The IDs of the ChatMessages
+     * @return      <code>List</code> The ChatMessages in the same order as the IDs, any that do not exist have null fields
+     */
+    public List<ChatMessage> retrieveChatMessages(List<String> chatMessageIDs){
+        log.info("Entering retrieveChatMessages: " + chatMessageIDs.size());
+        return createMessagesFromDAOs(databaseManager.retrieveChatMessageDAOs(chatMessageIDs));
+    }
+
+    /**
+     * Retrieves & Returns one page of the ChatMessages of a given ChatRoom, newest first. Without a cursor the page is
+     * the latest ChatMessages. To walk back through the history the client passes the ID of the last (oldest)
+     * ChatMessage of a page as before, to catch up it passes the ID of the first (newest) ChatMessage it holds as after.
+     * Only the ChatMessages on the page are read from the Database.
+     *
+     * @param       chatRoomID - The ChatRoom ID for the messages requested
+     * @param       beforeChatMessageID - Optional, return the ChatMessages posted just before this one
+     * @param       afterChatMessageID - Optional, return the ChatMessages posted just after this one
+     * @param       limit - The number of ChatMessages wanted, 0 for chatroom.messages.pageSize, capped at
+     *                      chatroom.messages.maxPageSize
+     * @return      <code>List</code> List of ChatMessages for the given ChatRoom, newest first
+     *
+     */
+    public List<ChatMessage> retrieveChatMessagePage(String chatRoomID, String beforeChatMessageID,
+                                                     String afterChatMessageID, int limit){
+        log.info("Entering MessagingService.retrieveChatMessagePage() for ChatRoomID: " + chatRoomID + " before "
+                + beforeChatMessageID + " after " + afterChatMessageID + " limit " + limit);
+
+        int pageSize = limit > 0 ? Math.min(limit, maxChatMessagePageSize) : chatRoomMessagePageSize;
+        List<ChatMessageDAO> listOfChatMessageDAOs = databaseManager.getChatMessageDAOPage(chatRoomID,
+                beforeChatMessageID, afterChatMessageID, pageSize);
+        log.info("Retrieved a page of " + listOfChatMessageDAOs.size() + " ChatMessageDAOs");
+
+        return createMessagesFromDAOs(listOfChatMessageDAOs);
+    }
+
+    /**
+     * Walks one page of the ChatMessages of a given ChatRoom, newest first, as retrieveChatMessagePage would return it
+     * but read a chunk of streaming.chunkSize at a time so a response can be written as it is read. Each chunk after
+     * the first is read from the oldest ChatMessage of the chunk before, so the page is the same however it is split.
      *
-     * The JSON object returned includes a set of Action Links that represent the next set of allowable actions.
+     * The ChatMessages just after a cursor are found oldest first but returned newest first, so a page with only an
+     * after cursor is read whole. It is capped at chatroom.messages.maxPageSize like every page.
      *
      * @param       chatRoomID - The ChatRoom ID for the messages requested
-     * @return      <code>List</code> List of ChatMessages for the given ChatRoom
+     * @param       beforeChatMessageID - Optional, return the ChatMessages posted just before this one
+     * @param       afterChatMessageID - Optional, return the ChatMessages posted just after this one
+     * @param       limit - The number of ChatMessages wanted, 0 for chatroom.messages.pageSize, capped at
+     *                      chatroom.messages.maxPageSize
+     * @return      <code>Iterator</code> The chunks of the page, each read from the Database only when it is taken
+     */
+    public Iterator< List<ChatMessage> > scanChatMessagePage(final String chatRoomID, final String beforeChatMessageID,
+                                                             String afterChatMessageID, int limit){
+        log.info("Entering MessagingService.scanChatMessagePage() for ChatRoomID: " + chatRoomID + " before "
+                + beforeChatMessageID + " after " + afterChatMessageID + " limit " + limit);
+
+        if(beforeChatMessageID == null && afterChatMessageID != null) {
+            return Collections.singletonList(
+                    retrieveChatMessagePage(chatRoomID, null, afterChatMessageID, limit)).iterator();
+        }
+
+        final int pageSize = limit > 0 ? Math.min(limit, maxChatMessagePageSize) : chatRoomMessagePageSize;
+        return new Iterator< List<ChatMessage> >() {
+            private String cursor = beforeChatMessageID;
+            private int remaining = pageSize;
+
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            public List<ChatMessage> next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                int chunkSize = Math.min(remaining, streamChunkSize);
+                List<ChatMessageDAO> chunk = databaseManager.getChatMessageDAOPage(chatRoomID, cursor, null, chunkSize);
+                log.info("Retrieved a chunk of " + chunk.size() + " ChatMessageDAOs");
+
+                //A short chunk means the start of the ChatRoom's history has been reached
+                remaining = chunk.size() < chunkSize ? 0 : remaining - chunk.size();
+                if(!chunk.isEmpty()) {
+                    cursor = chunk.get(chunk.size() - 1).getChatMessageID();
+                }
+                return createMessagesFromDAOs(chunk);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Retrieves the ChatMessages of a ChatRoom created or modified after a feed sequence, the whole delta behind a
+     * coalesced Notification in one call
      *
+     * @param       chatRoomID - The ChatRoom ID for the messages requested
+     * @param       afterSequence - The sequence of the last Notification the client processed
+     * @return      <code>List</code> List of ChatMessages in the order of their latest change
      */
-    public List<ChatMessage> retrieveAllChatMessages(String chatRoomID){
-        log.info("Entering MessagingService.retrieveAllChatMessages() for ChatRoomID: " + chatRoomID);
+    public List<ChatMessage> retrieveChatMessagesChangedAfter(String chatRoomID, long afterSequence){
+        log.info("Entering MessagingService.retrieveChatMessagesChangedAfter() for ChatRoomID: " + chatRoomID + " after " + afterSequence);
+        return createMessagesFromDAOs(databaseManager.getChangedChatMessageDAOs(chatRoomID, afterSequence));
+    }
 
+    /**
+     * Builds the ChatMessage Resource Representations for a List of ChatMessageDAOs already read from the Database
+     *
+     * @param       listOfChatMessageDAOs - The ChatMessageDAOs to convert
+     * @return      <code>List</code> List of ChatMessages in the same order as the DAOs
+     */
+    private List<ChatMessage> createMessagesFromDAOs(List<ChatMessageDAO> listOfChatMessageDAOs){
         List<ChatMessage> listOfChatMessages = new ArrayList<ChatMessage>();
-        List<ChatMessageDAO> listOfChatMessageDAOs = databaseManager.getAllChatMessageDAOs(chatRoomID);
-        log.info("Retrieved all ChatMessageDAOs");
 
         //Construct a list of actual ChatMessage objects for returning from the ChatMessage DAO & finding the users
         //associated with each ChatMessage
@@ -298,26 +486,20 @@ public class MessagingService {
      *
      * GET /users - GET all Users in the system
      *
+     * @param       chatMessage - The ChatMessage to create, bound from the JSON body
      * @return      <code>List</code>
      */
-    public ChatMessage createChatMessageFromJSON(String json ){
-        log.info("Entering createChatMessageFromJSON: " + json);
-
-        //Create empty ChatMessage object in memory to return the JSON representation of the new object to the Controller
-        ChatMessage chatMessage = new ChatMessage();
-        Gson gsonFromJSON = new Gson();
-
-        //Populate a ChatRoom object directly using data from the JSON representation
-        chatMessage = gsonFromJSON.fromJson(json, chatMessage.getClass());
-        log.info("ChatMessage object constructed from JSON representation");
+    public ChatMessage createChatMessage(ChatMessage chatMessage){
+        log.info("Entering createChatMessage");
 
         //Create a ChatMessageDAO to translate to something that can be persisted in a KEY / VALUE data store
         ChatMessageDAO chatMessageDAO = new ChatMessageDAO(chatMessage);
 
         //DAO Object ready to persist to Database
         log.info("Persisting ChatMessageDAO");
-        chatMessageDAO.persist();
+        databaseManager.createChatMessageFromDAO(chatMessageDAO);
         log.info("ChatMessage persisted");
+        notificationService.recordChange("CHATMESSAGE", chatMessageDAO.getChatRoomID(), chatMessageDAO.getChatMessageID());
 
         //Reconstruct a representation of the  ChatRoom object from the data stored & retrieval of the other resources
         //referenced in the ChatRoom DAO.
@@ -371,42 +553,30 @@ public class MessagingService {
      * Only the 'ReadReceipt' of a ChatMessage is modifiable after creation in this phase of Acme development so all other fields
      * input in JSON body get ignored.
      *
-     * @param       json - Contains the detail of the modification to make
+     * @param       chatMessage - Bound from the JSON body, contains the detail of the modification to make
      * @return      ChatMessage - The Representation of the updated Resource as stored in the Database after modification
      */
-    public ChatMessage modifyChatMessageFromJSON(String json){
-        log.info("Entering modifyChatMessageFromJSON: " + json);
-
-        //Create empty ChatMessage object to populate with the JSON input
-        ChatMessage chatMessage = new ChatMessage();
-        Gson gsonFromJSON = new Gson();
-
-        //Populate the ChatMessage object directly using data from the JSON representation
-        chatMessage = gsonFromJSON.fromJson(json, chatMessage.getClass());
-        log.info("ChatMessage object constructed from JSON representation");
+    public ChatMessage modifyChatMessage(ChatMessage chatMessage){
+        log.info("Entering modifyChatMessage");
 
         //Log the ChatMessage Object as constructed from JSON input
         log.info("ChatMessage ID: " + chatMessage.getChatMessageID());
         log.info("ChatMessage ReadReceipt: " + chatMessage.getReadReceipt());
 
-        //Retrieve the existing resource representation from Key/Value store
-        //Validate the ChatMessageID is valid / populated before doing anything else
-        ChatMessageDAO existingChatMessage = databaseManager.retrieveChatMessageDAO(chatMessage.getChatMessageID());
-
-        //Overwrite the current topic with the one from the JSON body in the DAO retrieved from the Key / Value store
-        existingChatMessage.setReadReceipt(chatMessage.getReadReceipt());
-        log.info("Updated ReadReceipt for existingChatMessageID: " + existingChatMessage.getChatMessageID() + " to" + chatMessage.getReadReceipt() );
-
-        //Update the data in the KeyValue Store using the same value
-        //Will have the same key as one that already exists
-        databaseManager.createChatMessageFromDAO(existingChatMessage);
-        log.info("Pushed data to DB");
-
-        //Re-read the data from the key / value store after the update operation so the ChatMessage object built to send back
-        //to the consumer is comprised of he actual data stored.
+        //Overwrite the current read receipt with the one from the JSON body in the Key / Value store, only if the
+        //ChatMessageID is valid. The data returned is read in the same call after the update so the ChatMessage object
+        //built to send back to the consumer is comprised of the actual data stored.
         //NOTE: When support >2 participants in any given chatroom readreceipts would need to be set on a per user basis as
         //users will read messages at different times.
-        ChatMessageDAO modifiedChatMessageDAO = databaseManager.retrieveChatMessageDAO(chatMessage.getChatMessageID());
+        ChatMessageDAO modifiedChatMessageDAO = databaseManager.updateChatMessageReadReceipt(chatMessage.getChatMessageID(),
+                chatMessage.getReadReceipt());
+        if(modifiedChatMessageDAO == null){
+            log.info("ChatMessage ID " + chatMessage.getChatMessageID() + " does not exist - nothing modified");
+            return null;
+        }
+        log.info("Updated ReadReceipt for existingChatMessageID: " + modifiedChatMessageDAO.getChatMessageID() + " to" + modifiedChatMessageDAO.getReadReceipt() );
+        notificationService.recordChange("CHATMESSAGE", modifiedChatMessageDAO.getChatRoomID(),
+                modifiedChatMessageDAO.getChatMessageID());
 
         //Reconstruct a modified version of the ChatMessage to send back to the API consumer (including the messages & users associated
         //with the ChatMessage
@@ -422,28 +592,28 @@ public class MessagingService {
     public List<ChatMessage> createTestMessages(String chatRoomID, int numTestMessages) {
         log.info("Entering createTestMessage: " + chatRoomID);
 
-        ChatRoom chatRoom = retrieveChatRoom(chatRoomID);
-        if(chatRoom != null){
-            String fromParticipantID = chatRoom.getParticipants().get(1).getUserID();
+        ChatRoomDAO chatRoomDAO = databaseManager.retrieveChatRoomDAO(chatRoomID);
+        if(chatRoomDAO.getChatRoomID() != null){
+            String fromParticipantID = chatRoomDAO.getChatRoomParticipantID();
 
-            List listOfTestMessages = new ArrayList();
+            List<ChatMessageDAO> testMessages = new ArrayList<ChatMessageDAO>();
             for (int i = 0; i < numTestMessages; i++) {
-                ChatMessageDAO testMessage = new ChatMessageDAO(chatRoomID, fromParticipantID,
-                        "Test Messsage " + i + "for chatroom ID: " + chatRoomID, "false");
-
-                //Push the DAO object to the Database
-                databaseManager.createChatMessageFromDAO(testMessage);
+                testMessages.add(new ChatMessageDAO(chatRoomID, fromParticipantID,
+                        "Test Messsage " + i + "for chatroom ID: " + chatRoomID, "false"));
+            }
 
-                //Should retrieve it again so have the DAO version of what got stored
-                ChatMessageDAO retrievedDAO = databaseManager.retrieveChatMessageDAO(testMessage.getChatMessageID());
-                log.info("ChatMessage ID of message stored: " + retrievedDAO.getChatMessageID());
+            //Push the DAO objects to the Database in bulk, the DAOs hold exactly what got stored so there is no need
+            //to read them back to build the ChatMessages returned
+            databaseManager.createChatMessagesFromDAOs(testMessages);
+            log.info("Test ChatMessages stored: " + testMessages.size());
 
-                //Build a ChatMessage to return from the DAO object created
-                ChatMessage nextChatMessage = new ChatMessage(retrievedDAO);
-                listOfTestMessages.add(nextChatMessage);
+            List<FeedEntryDAO> feedEntryDAOs = new ArrayList<FeedEntryDAO>();
+            for (int i = 0; i < testMessages.size(); i++) {
+                feedEntryDAOs.add(new FeedEntryDAO("CHATMESSAGE", chatRoomID, testMessages.get(i).getChatMessageID()));
             }
+            notificationService.recordChanges(feedEntryDAOs);
 
-            return listOfTestMessages;
+            return createMessagesFromDAOs(testMessages);
         }
         else{
             log.info("ChatRoom with ID: " + chatRoomID + " does not exist, no TestMessages created");
@@ -457,23 +627,16 @@ public class MessagingService {
      * This explicitly violates REST constraints.
      *
 
-     * @param       json Input JSON with detail of what needs to be created or modified.
+     * @param       chatRoom Bound from the input JSON with detail of what needs to be created or modified.
      * @return      <code>List</code>
      */
-    public ChatRoom createModifiedChatRoomFromJSON(String json ){
-        log.info("Entering createChatRoomFromJSON: " + json);
-
-        //Create empty ChatRoom object in memory to return the JSON representation of the new object to the Controller
-        ChatRoom chatRoom = new ChatRoom();
-        Gson gsonFromJSON = new Gson();
+    public ChatRoom createModifiedChatRoom(ChatRoom chatRoom){
+        log.info("Entering createModifiedChatRoom");
 
-        //Populate a ChatRoom object directly using data from the JSON representation
-        chatRoom = gsonFromJSON.fromJson(json, chatRoom.getClass());
-        log.info("ChatRoom object constructed from JSON representation");
-
-        //Step 1 CHECK IF THIS IS A MODIFICATION OR CREATION OF THE CHATROOM RESOURCE BY LOOKING UP THE DATABASE
-        ChatRoomDAO existingChatRoomDAO = databaseManager.retrieveChatRoomDAO(chatRoom.getChatRoomID());
-        String existingChatRoomID = existingChatRoomDAO.getChatRoomID();
+        //Step 1 CHECK IF THIS IS A MODIFICATION OR CREATION OF THE CHATROOM RESOURCE BY UPDATING THE TOPIC IN THE DATABASE
+        //The update only takes place if the ChatRoom already exists
+        ChatRoomDAO existingChatRoomDAO = databaseManager.updateChatRoomTopic(chatRoom.getChatRoomID(), chatRoom.getTopic());
+        String existingChatRoomID = existingChatRoomDAO != null ? existingChatRoomDAO.getChatRoomID() : null;
 
         //Create a new String to make the value accessible by the ChatMessages being create also if valid in the code below.
         //If this is a modification request the value won't change but if it's a new ChatRoom need to set the ID in order to be
@@ -482,16 +645,7 @@ public class MessagingService {
 
         if( existingChatRoomID != null){
             log.info("This is a modify ChatRoom request");
-
-            //copy the logic for ChatRoom modification - update the ChatRoomTopic
-
-            //Overwrite the current topic in the ChatRoomDAO found with the one from the JSON body
-            existingChatRoomDAO.setTopic(chatRoom.getTopic());
-            log.info("Updated Topic for existingChatRoomID: " + existingChatRoomID + " to" + chatRoom.getTopic() );
-
-            //Update the data in the KeyValue Store using the same value
-            //Will have the same key as one that already exists so modified
-            databaseManager.createChatRoomFromDAO(existingChatRoomDAO);
+            log.info("Updated Topic for existingChatRoomID: " + existingChatRoomID + " to" + existingChatRoomDAO.getTopic() );
         }
         else{
             log.info("This is a standard ChatRoom create request");
@@ -502,7 +656,7 @@ public class MessagingService {
 
             //DAO Object ready to persist to Database
             log.info("Persisting ChatRoomDAO");
-            newChatRoomDAO.persist();
+            databaseManager.createChatRoomFromDAO(newChatRoomDAO);
 
             //set the ID of the newly created chatRoom if appropriate so any new ChatMessages include it.
             modifiedChatRoomID = newChatRoomDAO.getChatRoomID();
@@ -519,42 +673,23 @@ public class MessagingService {
             String chatMessageIDJSON = nextChatMessage.getChatMessageID();
 
             //Now determine if this is a Message that already exists (update with the readreceipt in JSON body)
-            //or if it doesn't exist & the request is to create the new Message
-            ChatMessageDAO chatMessageDAO = databaseManager.retrieveChatMessageDAO(chatMessageIDJSON);
-            if(chatMessageDAO.getChatMessageID() != null){
+            //or if it doesn't exist & the request is to create the new Message. The update only takes place if the
+            //Message exists & returns the data stored after the update.
+            ChatMessageDAO modifiedChatMessageDAO = databaseManager.updateChatMessageReadReceipt(chatMessageIDJSON,
+                    nextChatMessage.getReadReceipt());
+            if(modifiedChatMessageDAO != null){
                 log.info("This is a modify ChatMessage request");
 
-              //TODO - Make sure that the ChatMessgaeID is at least one associated with this Chatroom if it already exists
+              //TODO - Make sure that the ChatMessgaeID is at least one associated with this Chatroom before modifying it
               //  if(chatMessageDAO.getChatMessageID().contains(chatRoomID)){
-
-
-                boolean validModificationRequest = chatMessageDAO.getChatMessageID().indexOf(existingChatRoomID) > 0;
-                if (validModificationRequest) {
+                if (modifiedChatMessageDAO.getChatMessageID().indexOf(modifiedChatRoomID) > 0) {
                     log.info("Valid Message Modification Request ");
                 }
+                log.info("Read Receipt Updated for ChatMessage ID: " + modifiedChatMessageDAO.getChatMessageID() +
+                        ", read receipt is: " + modifiedChatMessageDAO.getReadReceipt());
 
-                int t=1;
-                if(t==1){
-                    log.info("Valid ChatMessage - modifying read receipt");
-                    chatMessageDAO.setReadReceipt(nextChatMessage.getReadReceipt());
-
-                    //Update the data in the KeyValue Store using the same value
-                    //Will have the same key as one that already exists
-                    databaseManager.createChatMessageFromDAO(chatMessageDAO);
-                    log.info("Read Receipt Updated for ChatMessage ID: " + chatMessageDAO.getChatMessageID());
-
-                    //Re-read the data from the key / value store after the update operation so the ChatMessage object built to send back
-                    ChatMessageDAO modifiedChatMessageDAO = databaseManager.retrieveChatMessageDAO(chatMessageDAO.getChatMessageID());
-                    log.info("Re Read ChatMessage ID updated, read receipt is: " + chatMessageDAO.getReadReceipt());
-
-                    //Add to a list of ChatMessageDAO's created of modified for the ChatRoomID
-                    modifiedChatMessageDAOs.add(modifiedChatMessageDAO);
-
-                }
-                else{
-                    log.info("This ChatMessage is not associated with the ChatRoom ID - no authorisation to modify it");
-                }
-
+                //Add to a list of ChatMessageDAO's created of modified for the ChatRoomID
+                modifiedChatMessageDAOs.add(modifiedChatMessageDAO);
             }
             else{
                 //The modifiedChatRoomID here is either the existing one that was modified above or a new one created above.
@@ -569,17 +704,27 @@ public class MessagingService {
 
                 //DAO Object ready to persist to Database
                 log.info("Persisting ChatRoomDAO");
-                newChatMessageDAO.persist();
-
-               //Retrieve the newly created ChatMessage from the DB & add it to the list of ChatMessage DAO's
-                ChatMessageDAO modifiedChatMessageDAO = databaseManager.retrieveChatMessageDAO(newChatMessageDAO.getChatMessageID());
-                log.info("Re Read New ChatMessage ID created: " + modifiedChatMessageDAO.getChatMessageID());
+                databaseManager.createChatMessageFromDAO(newChatMessageDAO);
+                log.info("New ChatMessage ID created: " + newChatMessageDAO.getChatMessageID());
 
-                //Add to a list of ChatMessageDAO's created of modified for the ChatRoomID
-                modifiedChatMessageDAOs.add(modifiedChatMessageDAO);
+                //Add to a list of ChatMessageDAO's created of modified for the ChatRoomID, the DAO holds exactly what
+                //got stored so it is not read back
+                modifiedChatMessageDAOs.add(newChatMessageDAO);
             }
         }
 
+        //Record the ChatRoom & every ChatMessage created or modified in the feeds of the participants in one write.
+        //A modified ChatMessage is recorded against the ChatRoom it belongs to, which is not necessarily this one
+        //as the read receipt update above accepts the ID of a ChatMessage in any ChatRoom
+        List<FeedEntryDAO> feedEntryDAOs = new ArrayList<FeedEntryDAO>();
+        feedEntryDAOs.add(new FeedEntryDAO("CHATROOM", modifiedChatRoomID, null));
+        for(int i=0;i<modifiedChatMessageDAOs.size();i++){
+            ChatMessageDAO modifiedChatMessageDAO = modifiedChatMessageDAOs.get(i);
+            feedEntryDAOs.add(new FeedEntryDAO("CHATMESSAGE", modifiedChatMessageDAO.getChatRoomID(),
+                    modifiedChatMessageDAO.getChatMessageID()));
+        }
+        notificationService.recordChanges(feedEntryDAOs);
+
        //Reconstruct a representation of the  ChatRoom object from the data stored & retrieval of the other resources
        //referenced in the ChatRoom DAO.
         ChatRoom chatRoomToReturn = retrieveChatRoom(modifiedChatRoomID);
@@ -1,60 +1,574 @@
 package com.acme.server.service;
 
 import com.acme.server.dao.ChatMessageDAO;
+import com.acme.server.dao.ChatRoomDAO;
+import com.acme.server.dao.FeedEntryDAO;
+import com.acme.server.dao.FeedResources;
 import com.acme.server.model.Notification;
 import com.acme.server.model.ChatMessage;
 import com.acme.server.model.ChatRoom;
 import com.acme.server.model.User;
 import com.acme.server.util.DatabaseManager;
+import com.acme.server.util.FeedListener;
+import com.acme.server.util.PollIntervalAdvisor;
+import com.acme.server.util.RecentFeedCache;
+import com.acme.server.util.ServerMetrics;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *  The NotificationService is invoked by the NotificationController & performs the necessary logic to check if there
- *  have been any new or modified resources in the database since last poll was performed via a basic algorithm of searching
- *  the DB for all created / modified timestamps since the last poll was performed (the GET /notifications endpoint is
- *  parameterised to accept the last server generated polling timestamp sent to the client.
+ *  have been any new or modified resources in the database since the last poll was performed. Every create or modify of
+ *  a User, ChatRoom or ChatMessage is recorded by the other services as an entry in the change feed of each User that
+ *  can see the resource. Each entry carries a sequence number taken from a single increasing counter & the
+ *  GET /notifications endpoint is parameterised to accept the sequence of the last Notification the client processed, so
+ *  a poll is a range query on one User's feed whose cost depends only on the number of new entries, not on the amount of
+ *  data stored. The newest entries of the feeds read recently are cached by the RecentFeedCache, so a poll that finds
+ *  nothing new usually costs no read at all.
  *
- *  NOTE: A real world polling implementation would likely be build on a more advance algorithm that would take race conditions
- *  & state consistency into account using a formal message queue such as RabbitMQ etc. There is some margin for error here.
+ *  Each poll is answered with a hint of how long to wait before the next one, short while the User's ChatRooms are
+ *  busy & longer while they are quiet, so idle clients poll far less often than active ones.
  *
- *  It is responsible for searching the DB for new 'notification' & constructing Notification Objects to send back to the
- *  client that is polling which include links to the resources modified so that the consumers can subsequently perform
- *  a GET operation on the modified resource for further manipulation.
+ *  A client may also long poll by passing wait=<seconds>. If its feed has nothing new the request is parked without
+ *  holding a request thread & is completed as soon as a change is recorded for the User or when the wait runs out.
+ *  The number of parked requests is bounded by notifications.longPoll.maxParked, beyond it a long poll is answered
+ *  straight away like a normal poll.
+ *
+ *  A client asking for its changes to be coalesced is answered notifications.coalesce.windowMillis after the change that
+ *  wakes it rather than straight away, whether it long polls or streams, so a burst of changes in a ChatRoom reaches it
+ *  as one Notification instead of the first change alone followed by the rest.
+ *
+ *  A client passing embed=true receives the ChatMessage, ChatRoom topic or User changed inside each Notification, read
+ *  for the whole page in one batch, so it can skip the GET it would otherwise make to find out what changed. The bytes
+ *  embedded in one reply are bounded by notifications.embed.maxBytes.
+ *
+ *  Parked polls & the listeners registered here are woken by the DatabaseManager, which reports the feeds written by
+ *  every server sharing the store, so a client parked on one server is answered when the change is made on another.
+ *
+ *  NOTE: Each feed keeps only its newest entries (notifications.feed.maxLength). A client that falls further behind than
+ *  that misses the oldest changes & should re-read the resources it holds.
+ *
+ *  It is responsible for constructing Notification Objects to send back to the client that is polling which include links
+ *  to the resources modified so that the consumers can subsequently perform a GET operation on the modified resource for
+ *  further manipulation.
  *
  *  NOTE: This is done at a Resource level i.e. if a Message associated with a ChatRoom is modified, only a URL to the message
  *  modified is provided.
  */
+@Service
+public class NotificationService implements FeedListener {
 
-public class NotificationService {
-
-    private DatabaseManager databaseManager;
-    private MessagingService messagingService = new MessagingService();
+    private final DatabaseManager databaseManager;
+    private final RecentFeedCache recentFeedCache;
+    private final PollIntervalAdvisor pollIntervalAdvisor;
     private static Logger log = Logger.getLogger(MessagingService.class);
 
-    public NotificationService() {
-        databaseManager = new DatabaseManager();
+    //The maximum number of Notifications returned by a single poll, a client that receives this many polls again
+    //straight away with the sequence of the last one
+    private final int maxNotificationsPerPoll;
+
+    //The most bytes of resources embedded in the Notifications of one reply, the allowance made for the field names &
+    //punctuation of each resource embedded
+    private final int maxEmbedBytes;
+    private static final int EMBED_OVERHEAD_BYTES = 100;
+
+    //Long polls waiting for a change to the feed of each User, guarded by synchronizing on the map itself
+    private final Map< String, List<ParkedPoll> > parkedPolls = new HashMap< String, List<ParkedPoll> >();
+    private final AtomicInteger parkedPollCount = new AtomicInteger();
+    private final int maxParkedPolls;
+    private final int maxWaitSeconds;
+
+    //How long a client coalescing its changes is left to gather the rest of a burst once a change is recorded for it
+    private final long coalesceWindowMillis;
+
+    //Re-reads the feeds of woken long polls so the thread recording a change does not pay for it, after the coalesce
+    //window for the polls that coalesce
+    private final ScheduledExecutorService wakeUpExecutor;
+
+    //Told of every change recorded on any server e.g. to push Notifications to the clients streaming them
+    private final List<FeedListener> feedListeners = new CopyOnWriteArrayList<FeedListener>();
+
+    @Autowired
+    public NotificationService(DatabaseManager databaseManager, RecentFeedCache recentFeedCache,
+                               PollIntervalAdvisor pollIntervalAdvisor,
+                               @Value("${notifications.poll.maxEntries:100}") int maxNotificationsPerPoll,
+                               @Value("${notifications.longPoll.maxParked:10000}") int maxParkedPolls,
+                               @Value("${notifications.longPoll.maxWaitSeconds:30}") int maxWaitSeconds,
+                               @Value("${notifications.longPoll.wakeUpThreads:2}") int wakeUpThreads,
+                               @Value("${notifications.embed.maxBytes:65536}") int maxEmbedBytes,
+                               @Value("${notifications.coalesce.windowMillis:200}") long coalesceWindowMillis) {
+        this.databaseManager = databaseManager;
+        this.recentFeedCache = recentFeedCache;
+        this.pollIntervalAdvisor = pollIntervalAdvisor;
+        this.maxNotificationsPerPoll = maxNotificationsPerPoll;
+        this.maxEmbedBytes = maxEmbedBytes;
+        this.maxParkedPolls = maxParkedPolls;
+        this.maxWaitSeconds = maxWaitSeconds;
+        this.coalesceWindowMillis = coalesceWindowMillis;
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.wakeUpExecutor = Executors.newScheduledThreadPool(wakeUpThreads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "notification-wakeup-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
-    //Perform a DB Lookup to see what changes have been made since the last time this client polled for
-    //new events. Returns null if no changes since last poll. If a Notification is found & returned to the client,
-    //the next operation by a client is a 'GET' to identify what exactly has changed & process that subset of data.
-    public List<Notification> checkForNewEvents(long lastTimeStamp){
-        log.info("Entering checkForNewEvents");
+    /**
+     * Tells whether the Notifications returned by one call to checkForNewEvents filled the page read, in which case
+     * there may be more to read straight away. A coalesced Notification counts for the changes it stands for.
+     *
+     * @param       notifications - The Notifications returned
+     * @return      true if the page read was full
+     */
+    public boolean isFullPage(List<Notification> notifications) {
+        int changes = 0;
+        for(int i = 0;i<notifications.size();i++){
+            Integer count = notifications.get(i).getCount();
+            changes += count != null ? count : 1;
+        }
+        return changes >= maxNotificationsPerPoll;
+    }
+
+    /**
+     * How long to wait after a change is recorded for a client that coalesces its changes before reading its feed, so
+     * the rest of a burst is read with it. See notifications.coalesce.windowMillis.
+     *
+     * @return      The window in milliseconds, 0 to read straight away
+     */
+    public long getCoalesceWindowMillis() {
+        return coalesceWindowMillis;
+    }
+
+    /**
+     * Suggests how long a client of the User should wait before its next poll, short while the User's ChatRooms are
+     * busy & longer while they are quiet or the server is loaded. See PollIntervalAdvisor.
+     *
+     * @param       userID - The User polling
+     * @return      The number of seconds to wait before the next poll
+     */
+    public int getNextPollSeconds(String userID) {
+        return pollIntervalAdvisor.nextPollSeconds(userID);
+    }
+
+    /**
+     * Registers a listener to be told of the Users whose feeds have new entries each time a change is recorded on any server
+     *
+     * @param       feedListener - The listener to add
+     */
+    public void addFeedListener(FeedListener feedListener) {
+        feedListeners.add(feedListener);
+    }
+
+    @PostConstruct
+    public void start() {
+        databaseManager.addFeedListener(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wakeUpExecutor.shutdownNow();
+    }
+
+    /**
+     * Wakes the long polls parked by the Users given & passes the change on to the listeners registered here, once the
+     * cached feeds of the Users are marked as changed so the reads made when they wake see the change
+     *
+     * @param       userIDs - The Users whose feeds have new entries, written by this or any other server
+     */
+    public void feedsChanged(Set<String> userIDs) {
+        recentFeedCache.feedsChanged(userIDs);
+        wakeUp(userIDs);
+        for(FeedListener feedListener : feedListeners){
+            feedListener.feedsChanged(userIDs);
+        }
+    }
+
+    /**
+     * Looks up the changes made to the resources a User can see since the last time this client polled for new events.
+     * Returns an empty list if there have been no changes since the last poll. If a Notification is found & returned to
+     * the client, the next operation by a client is a 'GET' to identify what exactly has changed & process that subset
+     * of data.
+     *
+     * @param       userID - The User polling for changes
+     * @param       lastSequence - The sequence of the last Notification the client processed, 0 on the first poll
+     * @return      <code>List</code> The Notifications oldest first, the sequence of the last one is the next lastSequence
+     */
+    public List<Notification> checkForNewEvents(String userID, long lastSequence){
+        return checkForNewEvents(userID, lastSequence, false, false);
+    }
+
+    /**
+     * Looks up the changes made to the resources a User can see since the last time this client polled for new events,
+     * optionally embedding each resource changed in its Notification so the client has no GET to make to find out what
+     * changed. Resources are embedded oldest first until notifications.embed.maxBytes is used up, the Notifications
+     * after that carry only their links.
+     *
+     * Changes may also be coalesced over the page read. The changes to the same User or ChatRoom become the
+     * Notification of the latest of them. The ChatMessage changes of a ChatRoom become one Notification whose link
+     * returns every ChatMessage changed since lastSequence in a single GET. Each coalesced Notification carries the
+     * number of changes it stands for & the sequence of the latest. Counting one for a Notification without a count,
+     * the page read was full & the client should poll again straight away when they add up to the poll maximum.
+     *
+     * @param       userID - The User polling for changes
+     * @param       lastSequence - The sequence of the last Notification the client processed, 0 on the first poll
+     * @param       embed - true to embed the ChatMessage, ChatRoom topic or User changed in each Notification
+     * @param       coalesce - true to coalesce the changes to the same resource or the ChatMessages of the same ChatRoom
+     * @return      <code>List</code> The Notifications oldest first, the sequence of the last one is the next lastSequence
+     */
+    public List<Notification> checkForNewEvents(String userID, long lastSequence, boolean embed, boolean coalesce){
+        log.info("Entering checkForNewEvents: " + userID + " since " + lastSequence + " embed " + embed
+                + " coalesce " + coalesce);
 
         List<Notification> allNewNotifications = new ArrayList<Notification>();
+        if(userID == null){
+            log.info("No User specified - no feed to check");
+            return allNewNotifications;
+        }
 
-        //TODO Do a Look up in Database for ALL New or Modified ChatRoom, ChatMessage or User Resources since
-        //some timestamp or sequence number specified by the last poll. Build a list of Notifications based on what
-        //gets returned & send this back to the API consumer for processing.
+        List<FeedEntryDAO> feedEntryDAOs = recentFeedCache.getFeedEntries(userID, lastSequence, maxNotificationsPerPoll);
 
+        List<Integer> counts = null;
+        if(coalesce){
+            counts = new ArrayList<Integer>();
+            int entriesRead = feedEntryDAOs.size();
+            feedEntryDAOs = coalesce(feedEntryDAOs, counts);
+            ServerMetrics.increment("notifications.coalesced", entriesRead - feedEntryDAOs.size());
+        }
 
+        for(int i = 0;i<feedEntryDAOs.size();i++){
+            Notification notification = createNotificationFromDAO(feedEntryDAOs.get(i));
+            if(counts != null && counts.get(i) > 1){
+                if("CHATMESSAGE".equals(feedEntryDAOs.get(i).getNotificationType())){
+                    notification.coalesceChatMessages(counts.get(i), lastSequence);
+                }
+                else {
+                    notification.setCount(counts.get(i));
+                }
+            }
+            allNewNotifications.add(notification);
+        }
+
+        if(embed && !feedEntryDAOs.isEmpty()){
+            embedResources(feedEntryDAOs, allNewNotifications);
+        }
         return allNewNotifications;
     }
 
+    //Collapses the changes to the same User or ChatRoom, & the ChatMessage changes of the same ChatRoom, into the latest
+    //change of each group. It is placed where that change was so the sequences stay in order & the last is unchanged.
+    //The number of changes behind each entry returned is added to counts.
+    private List<FeedEntryDAO> coalesce(List<FeedEntryDAO> feedEntryDAOs, List<Integer> counts){
+        Map<String, Integer> groupCounts = new HashMap<String, Integer>();
+        Map<String, FeedEntryDAO> latestChanges = new HashMap<String, FeedEntryDAO>();
+        for(int i = 0;i<feedEntryDAOs.size();i++){
+            String group = coalesceGroup(feedEntryDAOs.get(i));
+            Integer count = groupCounts.get(group);
+            groupCounts.put(group, count != null ? count + 1 : 1);
+            latestChanges.put(group, feedEntryDAOs.get(i));
+        }
+
+        List<FeedEntryDAO> coalescedFeedEntryDAOs = new ArrayList<FeedEntryDAO>();
+        for(int i = 0;i<feedEntryDAOs.size();i++){
+            String group = coalesceGroup(feedEntryDAOs.get(i));
+            if(latestChanges.get(group) == feedEntryDAOs.get(i)){
+                coalescedFeedEntryDAOs.add(feedEntryDAOs.get(i));
+                counts.add(groupCounts.get(group));
+            }
+        }
+        return coalescedFeedEntryDAOs;
+    }
+
+    private static String coalesceGroup(FeedEntryDAO feedEntryDAO){
+        return feedEntryDAO.getNotificationType() + "|" + feedEntryDAO.getParentResourceID();
+    }
+
+    //Reads every resource named by the feed entries in one batch & embeds them in order until the byte budget is spent
+    private void embedResources(List<FeedEntryDAO> feedEntryDAOs, List<Notification> notifications){
+        Set<String> userIDs = new HashSet<String>();
+        Set<String> chatRoomIDs = new HashSet<String>();
+        Set<String> chatMessageIDs = new HashSet<String>();
+        for(int i = 0;i<feedEntryDAOs.size();i++){
+            FeedEntryDAO feedEntryDAO = feedEntryDAOs.get(i);
+            if("USER".equals(feedEntryDAO.getNotificationType())){
+                userIDs.add(feedEntryDAO.getParentResourceID());
+            }
+            else if("CHATROOM".equals(feedEntryDAO.getNotificationType())){
+                chatRoomIDs.add(feedEntryDAO.getParentResourceID());
+            }
+            else if(notifications.get(i).getSubResourceIDModified() != null){
+                chatMessageIDs.add(feedEntryDAO.getSubResourceID());
+            }
+        }
+
+        FeedResources feedResources = databaseManager.retrieveFeedResources(userIDs, chatRoomIDs, chatMessageIDs);
+
+        int bytesLeft = maxEmbedBytes;
+        int embedded = 0;
+        for(int i = 0;i<feedEntryDAOs.size();i++){
+            FeedEntryDAO feedEntryDAO = feedEntryDAOs.get(i);
+            Notification notification = notifications.get(i);
+
+            if("USER".equals(feedEntryDAO.getNotificationType())){
+                User user = feedResources.getUsers().get(feedEntryDAO.getParentResourceID());
+                if(user == null){
+                    continue;
+                }
+                int size = embeddedSize(user.getUserID(), user.getFirstName(), user.getLastName(), user.getNickname());
+                if(size > bytesLeft){
+                    break;
+                }
+                notification.setUser(user);
+                bytesLeft -= size;
+            }
+            else if("CHATROOM".equals(feedEntryDAO.getNotificationType())){
+                ChatRoomDAO chatRoomDAO = feedResources.getChatRoomDAOs().get(feedEntryDAO.getParentResourceID());
+                if(chatRoomDAO == null || chatRoomDAO.getTopic() == null){
+                    continue;
+                }
+                int size = embeddedSize(chatRoomDAO.getTopic());
+                if(size > bytesLeft){
+                    break;
+                }
+                notification.setChatRoomTopic(chatRoomDAO.getTopic());
+                bytesLeft -= size;
+            }
+            else {
+                //A coalesced Notification stands for several ChatMessages & links to them instead
+                if(notification.getSubResourceIDModified() == null){
+                    continue;
+                }
+                ChatMessageDAO chatMessageDAO = feedResources.getChatMessageDAOs().get(feedEntryDAO.getSubResourceID());
+                if(chatMessageDAO == null){
+                    continue;
+                }
+                int size = embeddedSize(chatMessageDAO.getChatMessageID(), chatMessageDAO.getChatRoomID(),
+                        chatMessageDAO.getFromParticipantID(), chatMessageDAO.getMessage(), chatMessageDAO.getReadReceipt());
+                if(size > bytesLeft){
+                    break;
+                }
+                ChatMessage chatMessage = new ChatMessage(chatMessageDAO);
+                chatMessage.setTimestamp(chatMessageDAO.getLastModified());
+                notification.setChatMessage(chatMessage);
+                bytesLeft -= size;
+            }
+            embedded++;
+        }
+        ServerMetrics.increment("notifications.embedded", embedded);
+    }
+
+    //Approximate size of an embedded resource in the reply: the characters of its text plus an allowance for field
+    //names & punctuation. It is not the size of the encoded reply, so nothing is serialized twice to measure it
+    static int embeddedSize(String... fields){
+        int size = EMBED_OVERHEAD_BYTES;
+        for(String field : fields){
+            if(field != null){
+                size += field.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Long polls for the changes made to the resources a User can see since the last time this client polled. If there
+     * are none the request is parked until a change is recorded for the User or the wait runs out, in which case the
+     * result is an empty list.
+     *
+     * @param       userID - The User polling for changes
+     * @param       lastSequence - The sequence of the last Notification the client processed, 0 on the first poll
+     * @param       waitSeconds - How long to wait for a change, capped at notifications.longPoll.maxWaitSeconds
+     * @param       embed - true to embed the resource changed in each Notification, see checkForNewEvents
+     * @param       coalesce - true to coalesce the changes to the same resource, see checkForNewEvents
+     * @return      <code>DeferredResult</code> Completed with the Notifications oldest first
+     */
+    public DeferredResult<List<Notification>> waitForNewEvents(String userID, long lastSequence, int waitSeconds,
+                                                               boolean embed, boolean coalesce){
+        log.info("Entering waitForNewEvents: " + userID + " since " + lastSequence + " for " + waitSeconds + "s");
+
+        long timeoutMillis = Math.min(waitSeconds, maxWaitSeconds) * 1000L;
+        DeferredResult<List<Notification>> deferredResult =
+                new DeferredResult<List<Notification>>(timeoutMillis, new ArrayList<Notification>());
+
+        if(userID == null || timeoutMillis <= 0 || !reserveParkedPoll()){
+            deferredResult.setResult(checkForNewEvents(userID, lastSequence, embed, coalesce));
+            return deferredResult;
+        }
+
+        //Park before reading the feed so a change recorded in between wakes this poll rather than being missed
+        final ParkedPoll parkedPoll = new ParkedPoll(userID, lastSequence, embed, coalesce, deferredResult);
+        deferredResult.onCompletion(new Runnable() {
+            public void run() {
+                unpark(parkedPoll);
+            }
+        });
+        park(parkedPoll);
+
+        List<Notification> newNotifications = checkForNewEvents(userID, lastSequence, embed, coalesce);
+        if(!newNotifications.isEmpty()){
+            deferredResult.setResult(newNotifications);
+        }
+        return deferredResult;
+    }
+
+    //Takes one of the maxParkedPolls places, false if they are all taken
+    private boolean reserveParkedPoll(){
+        if(parkedPollCount.incrementAndGet() > maxParkedPolls){
+            parkedPollCount.decrementAndGet();
+            ServerMetrics.increment("notifications.longpoll.rejected", 1);
+            log.info("Long poll limit of " + maxParkedPolls + " reached - answering straight away");
+            return false;
+        }
+        return true;
+    }
+
+    private void park(ParkedPoll parkedPoll){
+        synchronized (parkedPolls) {
+            List<ParkedPoll> userParkedPolls = parkedPolls.get(parkedPoll.userID);
+            if(userParkedPolls == null){
+                userParkedPolls = new ArrayList<ParkedPoll>();
+                parkedPolls.put(parkedPoll.userID, userParkedPolls);
+            }
+            userParkedPolls.add(parkedPoll);
+        }
+        ServerMetrics.increment("notifications.longpoll.parked", 1);
+    }
+
+    //Called once the parked request completes for any reason: a result, the wait running out or the connection failing
+    private void unpark(ParkedPoll parkedPoll){
+        synchronized (parkedPolls) {
+            List<ParkedPoll> userParkedPolls = parkedPolls.get(parkedPoll.userID);
+            if(userParkedPolls == null || !userParkedPolls.remove(parkedPoll)){
+                return;
+            }
+            if(userParkedPolls.isEmpty()){
+                parkedPolls.remove(parkedPoll.userID);
+            }
+        }
+        parkedPollCount.decrementAndGet();
+        ServerMetrics.increment("notifications.longpoll.parked", -1);
+    }
+
+    //Completes the long polls parked by the Users given with whatever is now in their feeds, straight away or once the
+    //coalesce window has passed for the polls that coalesce
+    private void wakeUp(Set<String> userIDs){
+        List<ParkedPoll> pollsToWake = new ArrayList<ParkedPoll>();
+        List<ParkedPoll> pollsToCoalesce = new ArrayList<ParkedPoll>();
+        synchronized (parkedPolls) {
+            for(String userID : userIDs){
+                List<ParkedPoll> userParkedPolls = parkedPolls.get(userID);
+                if(userParkedPolls == null){
+                    continue;
+                }
+                for(ParkedPoll parkedPoll : userParkedPolls){
+                    if(!parkedPoll.coalesce){
+                        pollsToWake.add(parkedPoll);
+                    }
+                    //A poll already waiting out the window reads this change too when it wakes
+                    else if(parkedPoll.wakeUpScheduled.compareAndSet(false, true)){
+                        pollsToCoalesce.add(parkedPoll);
+                    }
+                }
+            }
+        }
+
+        scheduleWakeUp(pollsToWake, 0);
+        scheduleWakeUp(pollsToCoalesce, coalesceWindowMillis);
+    }
+
+    private void scheduleWakeUp(final List<ParkedPoll> pollsToWake, long delayMillis){
+        if(pollsToWake.isEmpty()){
+            return;
+        }
+
+        wakeUpExecutor.schedule(new Runnable() {
+            public void run() {
+                for(ParkedPoll parkedPoll : pollsToWake){
+                    parkedPoll.wakeUpScheduled.set(false);
+                    if(parkedPoll.deferredResult.isSetOrExpired()){
+                        continue;
+                    }
+                    try {
+                        List<Notification> newNotifications = checkForNewEvents(parkedPoll.userID, parkedPoll.lastSequence,
+                                parkedPoll.embed, parkedPoll.coalesce);
+                        if(!newNotifications.isEmpty()){
+                            parkedPoll.deferredResult.setResult(newNotifications);
+                        }
+                    }
+                    catch (Exception e) {
+                        log.error("Failed to complete long poll for " + parkedPoll.userID, e);
+                        parkedPoll.deferredResult.setErrorResult(e);
+                    }
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records a change to a User, ChatRoom or ChatMessage in the feeds of the Users that can see it
+     *
+     * @param       notificationType - USER, CHATROOM or CHATMESSAGE
+     * @param       parentResourceID - The User or ChatRoom changed, or the ChatRoom of the ChatMessage changed
+     * @param       subResourceID - The ChatMessage changed, null for a User or ChatRoom
+     */
+    public void recordChange(String notificationType, String parentResourceID, String subResourceID){
+        List<FeedEntryDAO> feedEntryDAOs = new ArrayList<FeedEntryDAO>();
+        feedEntryDAOs.add(new FeedEntryDAO(notificationType, parentResourceID, subResourceID));
+        recordChanges(feedEntryDAOs);
+    }
+
+    /**
+     * Records a batch of changes in the feeds of the Users that can see them in a single write
+     *
+     * @param       feedEntryDAOs - The changes made, in the order they happened. Each is given its sequence number.
+     */
+    public void recordChanges(List<FeedEntryDAO> feedEntryDAOs){
+        log.info("Entering recordChanges: " + feedEntryDAOs.size());
+
+        //Changes to resources that were never stored have no feed to go to
+        List<FeedEntryDAO> validFeedEntryDAOs = new ArrayList<FeedEntryDAO>();
+        for(int i = 0;i<feedEntryDAOs.size();i++){
+            if(feedEntryDAOs.get(i).getParentResourceID() != null){
+                validFeedEntryDAOs.add(feedEntryDAOs.get(i));
+            }
+        }
+
+        //Clients waiting on the Users written to are woken through feedsChanged, on every server. The cached feeds on
+        //this one are marked straight away so a client reading back its own change does not wait for the event.
+        if(!validFeedEntryDAOs.isEmpty()){
+            recentFeedCache.feedsChanged(databaseManager.appendFeedEntries(validFeedEntryDAOs));
+        }
+    }
+
+    private Notification createNotificationFromDAO(FeedEntryDAO feedEntryDAO){
+        Notification notification = new Notification(feedEntryDAO.getNotificationType(),
+                feedEntryDAO.getParentResourceID(), feedEntryDAO.getSubResourceID());
+        notification.setSequence(feedEntryDAO.getSequence());
+        notification.setTimestamp(feedEntryDAO.getTimestamp());
+        return notification;
+    }
+
 
 
     /**
@@ -77,36 +591,34 @@ public class NotificationService {
     public List<Notification> createTestChatMessageNotifications(String chatRoomID, int numNotifications) {
         log.info("Entering createTestChatMessageNotifications" + chatRoomID + toString());
 
-        ChatRoom testChatroom = messagingService.retrieveChatRoom(chatRoomID);
-        if (testChatroom != null) {
+        ChatRoomDAO testChatroom = databaseManager.retrieveChatRoomDAO(chatRoomID);
+        if (testChatroom.getChatRoomID() != null) {
             log.info("Valid ChatRoom ID - continue processing");
-            List<User> users = testChatroom.getParticipants();
 
             //Identify the remote participant
-            String fromParticipantID = users.get(0).getUserID();
+            String fromParticipantID = testChatroom.getChatRoomCreatorUserID();
 
-            List<Notification> listOfTestNotifications = new ArrayList();
+            List<ChatMessageDAO> testChatMessageDAOs = new ArrayList<ChatMessageDAO>();
             for (int i = 0; i < numNotifications; i++) {
 
-                log.info("Creating new Chat Message" + chatRoomID + toString());
-
                 //Create a new ChatMessage DAO to push the new message to the database
-                ChatMessageDAO testChatMessageDAO = new ChatMessageDAO(chatRoomID, fromParticipantID, "Test Message " + i
-                        + "for chatroom id: " + chatRoomID, "false");
-
-                //persist the new test ChatMessage to the database
-                testChatMessageDAO.persist();
+                testChatMessageDAOs.add(new ChatMessageDAO(chatRoomID, fromParticipantID, "Test Message " + i
+                        + "for chatroom id: " + chatRoomID, "false"));
+            }
 
-                ChatMessageDAO retrievedDAO = databaseManager.retrieveChatMessageDAO(testChatMessageDAO.getChatMessageID());
-                log.info("ChatMessage ID of message stored: " + retrievedDAO.getChatMessageID());
+            //persist the new test ChatMessages to the database in bulk & record them in the feeds of both participants
+            databaseManager.createChatMessagesFromDAOs(testChatMessageDAOs);
 
-                //Reconstruct the message to send back
-                // messagingService.createMessageFromDAO(testChatMessageDAO);
+            List<FeedEntryDAO> feedEntryDAOs = new ArrayList<FeedEntryDAO>();
+            for (int i = 0; i < testChatMessageDAOs.size(); i++) {
+                feedEntryDAOs.add(new FeedEntryDAO("CHATMESSAGE", chatRoomID, testChatMessageDAOs.get(i).getChatMessageID()));
+            }
+            recordChanges(feedEntryDAOs);
 
+            List<Notification> listOfTestNotifications = new ArrayList<Notification>();
+            for (int i = 0; i < feedEntryDAOs.size(); i++) {
                 log.info("Creating a Message Notification");
-                Notification testChatMessageNotification = new Notification("CHATMESSAGE", chatRoomID, retrievedDAO.getChatMessageID());
-                listOfTestNotifications.add(testChatMessageNotification);
-
+                listOfTestNotifications.add(createNotificationFromDAO(feedEntryDAOs.get(i)));
             }
             return listOfTestNotifications;
         } else {
@@ -116,4 +628,23 @@ public class NotificationService {
 
     }
 
-}
\ No newline at end of file
+    //A long poll waiting for the feed of a User to move past the sequence the client last processed
+    private static class ParkedPoll {
+
+        private final String userID;
+        private final long lastSequence;
+        private final boolean embed;
+        private final boolean coalesce;
+        private final DeferredResult<List<Notification>> deferredResult;
+        private final AtomicBoolean wakeUpScheduled = new AtomicBoolean();
+
+        ParkedPoll(String userID, long lastSequence, boolean embed, boolean coalesce,
+                   DeferredResult<List<Notification>> deferredResult) {
+            this.userID = userID;
+            this.lastSequence = lastSequence;
+            this.embed = embed;
+            this.coalesce = coalesce;
+            this.deferredResult = deferredResult;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.acme.server.service;
+
+import com.acme.server.model.Notification;
+import com.acme.server.util.FeedListener;
+import com.acme.server.util.ServerMetrics;
+import com.google.gson.Gson;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  The NotificationStreamService pushes Notifications to clients over Server-Sent Events, one long lived
+ *  text/event-stream connection per client, so a client no longer has to poll GET /notifications to find out that
+ *  something changed.
+ *
+ *  Each Notification is sent as an event whose id is its sequence. A client that reconnects sends the id of the last
+ *  event it received in the Last-Event-ID header & the stream resumes from the User's feed after it, so no change is
+ *  lost across a reconnect as long as it is still held in the feed.
+ *
+ *  An open stream holds no request thread, it is an asynchronous request parked in the servlet container. When a change
+ *  is recorded for a User the streams of that User are flushed by a small pool of threads, & a heartbeat comment is
+ *  written to every stream by the same pool at a fixed interval so proxies keep idle connections open & closed
+ *  connections are found & released. The number of open streams is bounded by notifications.stream.maxStreams.
+ *
+ *  A client passing coalesce=true is sent its changes coalesced as by a poll with coalesce=true. Its stream is flushed
+ *  notifications.coalesce.windowMillis after the change that wakes it, so a burst of changes in a ChatRoom is sent as
+ *  one Notification.
+ */
+@Service
+public class NotificationStreamService implements FeedListener {
+
+    private static Logger log = Logger.getLogger(NotificationStreamService.class);
+
+    private final NotificationService notificationService;
+    private final Gson gson = new Gson();
+
+    //The open streams of each User, guarded by synchronizing on the map itself
+    private final Map< String, List<NotificationStream> > streams = new HashMap< String, List<NotificationStream> >();
+    private final AtomicInteger streamCount = new AtomicInteger();
+    private final int maxStreams;
+    private final int heartbeatSeconds;
+    private final int reconnectMillis;
+
+    //Writes new Notifications & heartbeats to the streams, so neither is done on the thread recording a change or on
+    //the single thread timing the heartbeats
+    private final ScheduledExecutorService flushExecutor;
+    private final ScheduledExecutorService heartbeatExecutor;
+
+    @Autowired
+    public NotificationStreamService(NotificationService notificationService,
+                                     @Value("${notifications.stream.maxStreams:20000}") int maxStreams,
+                                     @Value("${notifications.stream.heartbeatSeconds:15}") int heartbeatSeconds,
+                                     @Value("${notifications.stream.reconnectMillis:5000}") int reconnectMillis,
+                                     @Value("${notifications.stream.threads:2}") int threads) {
+        log.info("Entering NotificationStreamService constructor");
+        this.notificationService = notificationService;
+        this.maxStreams = maxStreams;
+        this.heartbeatSeconds = heartbeatSeconds;
+        this.reconnectMillis = reconnectMillis;
+        this.flushExecutor = Executors.newScheduledThreadPool(threads, daemonThreads("notification-stream-"));
+        this.heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(daemonThreads("notification-heartbeat-"));
+    }
+
+    private static ThreadFactory daemonThreads(final String namePrefix) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void start() {
+        notificationService.addFeedListener(this);
+        heartbeatExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                sendHeartbeats();
+            }
+        }, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeatExecutor.shutdownNow();
+        flushExecutor.shutdownNow();
+        for(NotificationStream stream : allStreams()) {
+            stream.close();
+        }
+    }
+
+    /**
+     * Opens an event stream of the Notifications for a User on the request given. The request is put into asynchronous
+     * mode & the calling thread returns straight away, everything after the initial catch up is written by this service.
+     *
+     * @param       userID - The User whose Notifications are streamed
+     * @param       lastSequence - The sequence of the last Notification the client received, 0 to send the whole feed
+     * @param       embed - true to embed the resource changed in each Notification sent
+     * @param       coalesce - true to coalesce the changes to the same resource or the ChatMessages of a ChatRoom
+     * @param       request - The GET request, which is kept open as the stream
+     * @param       response - The response the events are written to
+     */
+    public void openStream(String userID, long lastSequence, boolean embed, boolean coalesce, HttpServletRequest request,
+                           HttpServletResponse response) throws IOException {
+        log.info("Entering openStream: " + userID + " since " + lastSequence);
+
+        if(streamCount.incrementAndGet() > maxStreams) {
+            streamCount.decrementAndGet();
+            ServerMetrics.increment("notifications.stream.rejected", 1);
+            log.info("Stream limit of " + maxStreams + " reached - client told to retry later");
+            response.setHeader("Retry-After", String.valueOf(reconnectMillis / 1000));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(0);
+
+        NotificationStream stream = new NotificationStream(userID, lastSequence, embed, coalesce, asyncContext,
+                response.getWriter());
+        asyncContext.addListener(stream);
+
+        synchronized (streams) {
+            List<NotificationStream> userStreams = streams.get(userID);
+            if(userStreams == null) {
+                userStreams = new ArrayList<NotificationStream>();
+                streams.put(userID, userStreams);
+            }
+            userStreams.add(stream);
+        }
+        ServerMetrics.increment("notifications.stream.open", 1);
+
+        //Commit the headers & tell the client how long to wait before reconnecting, then catch up on anything missed
+        synchronized (stream) {
+            try {
+                stream.write("retry: " + reconnectMillis + "\n\n");
+            }
+            catch (IOException e) {
+                log.info("Closing stream for " + userID + ": " + e.getMessage());
+                stream.close();
+                return;
+            }
+        }
+        scheduleFlush(stream, 0);
+    }
+
+    /**
+     * Flushes the streams of the Users whose feeds have new entries
+     *
+     * @param       userIDs - The Users whose feeds have new entries
+     */
+    public void feedsChanged(Set<String> userIDs) {
+        List<NotificationStream> streamsToFlush = new ArrayList<NotificationStream>();
+        synchronized (streams) {
+            for(String userID : userIDs) {
+                List<NotificationStream> userStreams = streams.get(userID);
+                if(userStreams != null) {
+                    streamsToFlush.addAll(userStreams);
+                }
+            }
+        }
+
+        for(NotificationStream stream : streamsToFlush) {
+            scheduleFlush(stream, stream.coalesce ? notificationService.getCoalesceWindowMillis() : 0);
+        }
+    }
+
+    //A burst of changes for the same User is written by a single flush, for a coalescing stream the changes made until
+    //the delay runs out are part of the burst
+    private void scheduleFlush(final NotificationStream stream, long delayMillis) {
+        if(stream.flushScheduled.compareAndSet(false, true)) {
+            flushExecutor.schedule(new Runnable() {
+                public void run() {
+                    stream.flushScheduled.set(false);
+                    flush(stream);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //Writes every Notification in the User's feed after the last one sent to the stream
+    private void flush(NotificationStream stream) {
+        synchronized (stream) {
+            if(stream.closed) {
+                return;
+            }
+
+            try {
+                List<Notification> notifications;
+                do {
+                    notifications = notificationService.checkForNewEvents(stream.userID, stream.lastSequence, stream.embed,
+                            stream.coalesce);
+                    StringBuilder events = new StringBuilder();
+                    for(int i = 0;i<notifications.size();i++){
+                        Notification notification = notifications.get(i);
+                        events.append("id: ").append(notification.getSequence()).append('\n');
+                        events.append("event: notification\n");
+                        events.append("data: ").append(gson.toJson(notification)).append("\n\n");
+                        stream.lastSequence = notification.getSequence();
+                    }
+                    if(events.length() > 0) {
+                        stream.write(events.toString());
+                        ServerMetrics.increment("notifications.stream.events", notifications.size());
+                    }
+                } while(notificationService.isFullPage(notifications));
+            }
+            catch (Exception e) {
+                log.info("Closing stream for " + stream.userID + ": " + e.getMessage());
+                stream.close();
+            }
+        }
+    }
+
+    //Hands a heartbeat for every stream to the flush threads, so this thread never blocks on the write to a slow client
+    private void sendHeartbeats() {
+        for(NotificationStream stream : allStreams()) {
+            scheduleHeartbeat(stream);
+        }
+    }
+
+    //A stream whose heartbeat has not been written since the last interval, e.g. one stuck on a slow client, is given
+    //no other
+    private void scheduleHeartbeat(final NotificationStream stream) {
+        if(stream.heartbeatScheduled.compareAndSet(false, true)) {
+            flushExecutor.execute(new Runnable() {
+                public void run() {
+                    stream.heartbeatScheduled.set(false);
+                    sendHeartbeat(stream);
+                }
+            });
+        }
+    }
+
+    //Writes a comment line to the stream, a write that fails means the client has gone & the stream is closed
+    private void sendHeartbeat(NotificationStream stream) {
+        synchronized (stream) {
+            if(stream.closed) {
+                return;
+            }
+            try {
+                stream.write(": heartbeat\n\n");
+            }
+            catch (IOException e) {
+                log.info("Closing stream for " + stream.userID + ": " + e.getMessage());
+                stream.close();
+            }
+        }
+    }
+
+    private List<NotificationStream> allStreams() {
+        List<NotificationStream> openStreams = new ArrayList<NotificationStream>();
+        synchronized (streams) {
+            for(List<NotificationStream> userStreams : streams.values()) {
+                openStreams.addAll(userStreams);
+            }
+        }
+        return openStreams;
+    }
+
+    //Called once for each stream whether it was closed by this service, by the client or by the container
+    private void removeStream(NotificationStream stream) {
+        synchronized (streams) {
+            List<NotificationStream> userStreams = streams.get(stream.userID);
+            if(userStreams == null || !userStreams.remove(stream)) {
+                return;
+            }
+            if(userStreams.isEmpty()) {
+                streams.remove(stream.userID);
+            }
+        }
+        streamCount.decrementAndGet();
+        ServerMetrics.increment("notifications.stream.open", -1);
+    }
+
+    //An open event stream to a client, writes are made holding the lock of the stream
+    private class NotificationStream implements AsyncListener {
+
+        private final String userID;
+        private final boolean embed;
+        private final boolean coalesce;
+        private final AsyncContext asyncContext;
+        private final PrintWriter writer;
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final AtomicBoolean heartbeatScheduled = new AtomicBoolean();
+        private long lastSequence;
+        private volatile boolean closed;
+
+        NotificationStream(String userID, long lastSequence, boolean embed, boolean coalesce, AsyncContext asyncContext,
+                           PrintWriter writer) {
+            this.userID = userID;
+            this.embed = embed;
+            this.coalesce = coalesce;
+            this.lastSequence = lastSequence;
+            this.asyncContext = asyncContext;
+            this.writer = writer;
+        }
+
+        //PrintWriter swallows IOExceptions, so a failed write is reported through checkError
+        void write(String text) throws IOException {
+            writer.write(text);
+            writer.flush();
+            if(writer.checkError()) {
+                throw new IOException("Client disconnected");
+            }
+        }
+
+        void close() {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            removeStream(this);
+            try {
+                asyncContext.complete();
+            }
+            catch (IllegalStateException e) {
+                log.info("Stream for " + userID + " already completed");
+            }
+        }
+
+        public void onComplete(AsyncEvent event) {
+            closed = true;
+            removeStream(this);
+        }
+
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.acme.server.service;
+
+import com.acme.server.dao.ChatMessageDAO;
+import com.acme.server.dao.ChatRoomDAO;
+import com.acme.server.dao.FeedEntryDAO;
+import com.acme.server.dao.FeedResources;
+import com.acme.server.model.ChatMessage;
+import com.acme.server.model.ChatRoom;
+import com.acme.server.model.SyncResult;
+import com.acme.server.model.User;
+import com.acme.server.util.DatabaseManager;
+import com.acme.server.util.RecentFeedCache;
+import com.acme.server.util.ServerMetrics;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *  The SyncService is invoked by the SyncController & gathers everything that changed for a User since a sync token
+ *  into one SyncResult, so a client that was offline catches up with a single request instead of a poll of
+ *  GET /notifications followed by a GET for each link returned.
+ *
+ *  It reads the User's change feed the same way a poll does, through the RecentFeedCache, a page at a time. The
+ *  resources named by each page are read in one batch, as they are for embed=true on GET /notifications, & each
+ *  resource is added once however many times it changed. The sync token is the sequence of the last feed entry the
+ *  reply covers.
+ *
+ *  The resources added to one reply are bounded by sync.maxBytes. Like notifications.embed.maxBytes it is counted with
+ *  the estimate embedding uses, the characters of each resource's text plus an allowance for its field names, rather
+ *  than the encoded reply, so it bounds the reply roughly but not to the byte. A reply cut short by it has more set &
+ *  its token covers only the changes it carries, the client syncs again straight away with it.
+ *
+ *  NOTE: Like a poll, a sync can only return what is still held in the feed (notifications.feed.maxLength). A client that
+ *  falls further behind than that misses the oldest changes & should re-read the resources it holds.
+ */
+@Service
+public class SyncService {
+
+    private final DatabaseManager databaseManager;
+    private final RecentFeedCache recentFeedCache;
+    private final MessagingService messagingService;
+    private static Logger log = Logger.getLogger(SyncService.class);
+
+    //The feed entries read per page & the most (estimated) bytes of resources in one reply, a client may ask for less
+    private final int pageSize;
+    private final int maxBytes;
+
+    @Autowired
+    public SyncService(DatabaseManager databaseManager, RecentFeedCache recentFeedCache,
+                       MessagingService messagingService,
+                       @Value("${notifications.poll.maxEntries:100}") int pageSize,
+                       @Value("${sync.maxBytes:262144}") int maxBytes) {
+        this.databaseManager = databaseManager;
+        this.recentFeedCache = recentFeedCache;
+        this.messagingService = messagingService;
+        this.pageSize = pageSize;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the ChatRooms, ChatMessages & Users a User can see that were created or modified since the sync token,
+     * each as it is stored now, oldest change first. At least one resource is returned if any changed, whatever its size.
+     *
+     * @param       userID - The User syncing
+     * @param       since - The nextToken of the client's last sync, null or empty for everything still in the feed
+     * @param       requestedBytes - The most (estimated) bytes of resources the client wants in the reply, 0 for
+     *                                  sync.maxBytes
+     * @return      <code>SyncResult</code> The changes & the token to pass as since on the next sync
+     */
+    public SyncResult syncChanges(String userID, String since, int requestedBytes){
+        log.info("Entering syncChanges: " + userID + " since " + since);
+
+        long lastSequence = parseToken(since);
+        SyncResult syncResult = new SyncResult(String.valueOf(lastSequence));
+        if(userID == null){
+            log.info("No User specified - no feed to sync");
+            return syncResult;
+        }
+
+        int bytesLeft = requestedBytes > 0 ? Math.min(requestedBytes, maxBytes) : maxBytes;
+        Set<String> resourcesAdded = new HashSet<String>();
+        int entriesRead = 0;
+
+        List<FeedEntryDAO> feedEntryDAOs;
+        do {
+            feedEntryDAOs = recentFeedCache.getFeedEntries(userID, lastSequence, pageSize);
+            entriesRead += feedEntryDAOs.size();
+            FeedResources feedResources = retrieveResources(feedEntryDAOs, resourcesAdded);
+
+            for(int i = 0;i<feedEntryDAOs.size();i++){
+                FeedEntryDAO feedEntryDAO = feedEntryDAOs.get(i);
+                String resourceID = feedEntryDAO.getSubResourceID() != null ? feedEntryDAO.getSubResourceID()
+                        : feedEntryDAO.getParentResourceID();
+
+                //A resource already added is sent as it is now, which includes this change, & one since deleted is skipped
+                if(!resourcesAdded.contains(resourceID)){
+                    Object resource = createResource(feedEntryDAO, feedResources);
+                    if(resource != null){
+                        int size = resourceSize(resource);
+                        if(size > bytesLeft && !resourcesAdded.isEmpty()){
+                            syncResult.setMore(true);
+                            break;
+                        }
+                        addResource(syncResult, resource);
+                        resourcesAdded.add(resourceID);
+                        bytesLeft -= size;
+                    }
+                }
+                lastSequence = feedEntryDAO.getSequence();
+            }
+        } while(!syncResult.isMore() && feedEntryDAOs.size() >= pageSize);
+
+        syncResult.setNextToken(String.valueOf(lastSequence));
+        ServerMetrics.increment("sync.requests", 1);
+        ServerMetrics.increment("sync.entries", entriesRead);
+        ServerMetrics.increment("sync.resources", resourcesAdded.size());
+        return syncResult;
+    }
+
+    //The token is the sequence of the last feed entry covered, anything unreadable syncs everything still in the feed
+    private static long parseToken(String since){
+        if(since == null || since.trim().length() == 0){
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(since.trim()));
+        }
+        catch (NumberFormatException e) {
+            log.info("Ignoring invalid sync token: " + since);
+            return 0;
+        }
+    }
+
+    //Reads the resources named by a page of feed entries that are not already in the reply in one batch, then the
+    //participants of any ChatRoom read that were not read with them
+    private FeedResources retrieveResources(List<FeedEntryDAO> feedEntryDAOs, Set<String> resourcesAdded){
+        Set<String> userIDs = new HashSet<String>();
+        Set<String> chatRoomIDs = new HashSet<String>();
+        Set<String> chatMessageIDs = new HashSet<String>();
+        for(int i = 0;i<feedEntryDAOs.size();i++){
+            FeedEntryDAO feedEntryDAO = feedEntryDAOs.get(i);
+            if(feedEntryDAO.getSubResourceID() != null){
+                if(!resourcesAdded.contains(feedEntryDAO.getSubResourceID())){
+                    chatMessageIDs.add(feedEntryDAO.getSubResourceID());
+                }
+            }
+            else if(!resourcesAdded.contains(feedEntryDAO.getParentResourceID())){
+                if("USER".equals(feedEntryDAO.getNotificationType())){
+                    userIDs.add(feedEntryDAO.getParentResourceID());
+                }
+                else if("CHATROOM".equals(feedEntryDAO.getNotificationType())){
+                    chatRoomIDs.add(feedEntryDAO.getParentResourceID());
+                }
+            }
+        }
+        if(userIDs.isEmpty() && chatRoomIDs.isEmpty() && chatMessageIDs.isEmpty()){
+            return null;
+        }
+
+        FeedResources feedResources = databaseManager.retrieveFeedResources(userIDs, chatRoomIDs, chatMessageIDs);
+
+        Set<String> participantIDs = new HashSet<String>();
+        for(ChatRoomDAO chatRoomDAO : feedResources.getChatRoomDAOs().values()){
+            participantIDs.add(chatRoomDAO.getChatRoomCreatorUserID());
+            participantIDs.add(chatRoomDAO.getChatRoomParticipantID());
+        }
+        participantIDs.remove(null);
+        participantIDs.removeAll(feedResources.getUsers().keySet());
+        if(!participantIDs.isEmpty()){
+            List<String> noIDs = Collections.emptyList();
+            feedResources.getUsers().putAll(
+                    databaseManager.retrieveFeedResources(participantIDs, noIDs, noIDs).getUsers());
+        }
+        return feedResources;
+    }
+
+    //The representation of the resource changed by a feed entry, null if it no longer exists
+    private Object createResource(FeedEntryDAO feedEntryDAO, FeedResources feedResources){
+        if(feedResources == null){
+            return null;
+        }
+        if(feedEntryDAO.getSubResourceID() != null){
+            ChatMessageDAO chatMessageDAO = feedResources.getChatMessageDAOs().get(feedEntryDAO.getSubResourceID());
+            return chatMessageDAO != null ? messagingService.createMessageFromDAO(chatMessageDAO) : null;
+        }
+        if("USER".equals(feedEntryDAO.getNotificationType())){
+            return feedResources.getUsers().get(feedEntryDAO.getParentResourceID());
+        }
+
+        ChatRoomDAO chatRoomDAO = feedResources.getChatRoomDAOs().get(feedEntryDAO.getParentResourceID());
+        if(chatRoomDAO == null){
+            return null;
+        }
+        List<User> participants = new ArrayList<User>();
+        participants.add(feedResources.getUsers().get(chatRoomDAO.getChatRoomCreatorUserID()));
+        participants.add(feedResources.getUsers().get(chatRoomDAO.getChatRoomParticipantID()));
+        return new ChatRoom(chatRoomDAO.getChatRoomID(), chatRoomDAO.getTopic(), participants, null);
+    }
+
+    //Approximate size of a resource in the reply, estimated from its text as the resources embedded in Notifications are
+    private static int resourceSize(Object resource){
+        if(resource instanceof ChatRoom){
+            ChatRoom chatRoom = (ChatRoom) resource;
+            int size = NotificationService.embeddedSize(chatRoom.getChatRoomID(), chatRoom.getTopic());
+            for(User participant : chatRoom.getParticipants()){
+                if(participant != null){
+                    size += resourceSize(participant);
+                }
+            }
+            return size;
+        }
+        else if(resource instanceof User){
+            User user = (User) resource;
+            return NotificationService.embeddedSize(user.getUserID(), user.getFirstName(), user.getLastName(),
+                    user.getNickname());
+        }
+        ChatMessage chatMessage = (ChatMessage) resource;
+        return NotificationService.embeddedSize(chatMessage.getChatMessageID(), chatMessage.getChatRoomID(),
+                chatMessage.getFromParticipantID(), chatMessage.getMessage(), chatMessage.getReadReceipt());
+    }
+
+    private static void addResource(SyncResult syncResult, Object resource){
+        if(resource instanceof ChatRoom){
+            syncResult.getChatRooms().add((ChatRoom) resource);
+        }
+        else if(resource instanceof User){
+            syncResult.getUsers().add((User) resource);
+        }
+        else {
+            syncResult.getChatMessages().add((ChatMessage) resource);
+        }
+    }
+}
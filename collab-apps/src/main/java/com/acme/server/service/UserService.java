@@ -1,11 +1,15 @@
 package com.acme.server.service;
 
+import com.acme.server.dao.FeedEntryDAO;
 import com.acme.server.model.User;
 import com.acme.server.util.DatabaseManager;
-import com.google.gson.Gson;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
 
@@ -18,29 +22,39 @@ import java.util.UUID;
  *
  *  For the purposed of this prototype, they are simply used to ensure that there are real users in any given ChatRoom which
  *  could ultimately support multiple users (the demo is contained to 2).
+ *
+ *  Every User it creates or modifies is recorded with the NotificationService so the change reaches the User & everyone
+ *  they share a ChatRoom with on their next poll.
+ *
+ *  It is a stateless singleton shared by every request thread.
  */
-
+@Service
 public class UserService {
 
-    private DatabaseManager databaseManager;
+    private final DatabaseManager databaseManager;
+    private final NotificationService notificationService;
     private static Logger log = Logger.getLogger(MessagingService.class);
 
-    public UserService() {
-        databaseManager = new DatabaseManager();
+    //The number of Users read from the Database at a time for a streamed response
+    private final int streamChunkSize;
+
+    @Autowired
+    public UserService(DatabaseManager databaseManager, NotificationService notificationService,
+                       @Value("${streaming.chunkSize:100}") int streamChunkSize) {
+        this.databaseManager = databaseManager;
+        this.notificationService = notificationService;
+        this.streamChunkSize = Math.max(1, streamChunkSize);
     }
 
     /**
-     * Retrieves & Returns the List of all Users in the system
+     * Walks all Users in the system a chunk of streaming.chunkSize at a time so a response can be written as it is read
+     * & the memory held does not grow with the number of Users
      *
-     * The User resource is a subresource of the ChatRoom & ChatMessage resources for ACME Collaboration Services.
-     * The JSON object returned includes a set of Action Links that represent the next set of allowable actions.
-     * This would be locked down to a user with admin auth privs in a real world deployment for security purposes etc.
-     *
-     * @return      <code>List</code>
+     * @return      <code>Iterator</code> The chunks of Users, each read from the Database only when it is taken
      */
-    public List<User> retrieveAllUsers(){
-        log.info("Entering UserService.retrieveAllUsers()");
-        return databaseManager.getAllUsers();
+    public Iterator< List<User> > scanAllUsers(){
+        log.info("Entering UserService.scanAllUsers()");
+        return databaseManager.scanUsers(streamChunkSize);
     }
 
     /**
@@ -59,22 +73,14 @@ public class UserService {
     }
 
     /**
-     * Creates a new User from the JSON Body input by the API consumer & pushes it to the Database
+     * Creates a new User from the representation input by the API consumer & pushes it to the Database
      *
-     * @param       json - The JSON Body passed in from the API Consumer
+     * @param       user - The User bound from the JSON Body passed in from the API Consumer
      * @return      user -  The User object that is getting returned to the API Consumer
      */
 
-    public User createUserFromJSON(String json ){
-        log.info("Entering createUserFromJSON: " + json);
-
-        //Create empty User object to send to Redis using combination of JSON input & ACME business constraints
-        User user = new User();
-        Gson gsonFromJSON = new Gson();
-
-        //Populate the User object directly using data from the JSON representation
-        user = gsonFromJSON.fromJson(json, user.getClass());
-        log.info("User object constructed from JSON representation");
+    public User createUser(User user){
+        log.info("Entering createUser");
 
         //Manipulate the User object to enforce ACME business constraints
         //e.g. UUID is a system generated identified to guarantee uniqueness & therefore cannot be set by a consumer
@@ -88,6 +94,7 @@ public class UserService {
 
         //Call out to the redisManager to store the data in Redis
         databaseManager.setUser(user);
+        notificationService.recordChange("USER", user.getUserID(), null);
 
         //return the representation of the object stored (not what we think we stored incase there is inconsistency)
         return user;
@@ -98,19 +105,11 @@ public class UserService {
      * Modifies the User with the detail specified in the JSON body & stores the modification in the database
      * Only the 'NickName' of a User is modifiable after creation so all other fields input in JSON body get ignored.
      *
-     * @param       json - Contains the detail of the modification to make
+     * @param       user - The User bound from the JSON body, contains the detail of the modification to make
      * @return      <code>User</code> The Representation of the updated Resource
      */
-    public User modifyUserFromJSON(String json ){
-        log.info("Entering modifyUserFromJSON: " + json);
-
-        //Create empty User object to send to Redis using combination of JSON input & ACME business constraints
-        User user = new User();
-        Gson gsonFromJSON = new Gson();
-
-        //Populate the User object directly using data from the JSON representation
-        user = gsonFromJSON.fromJson(json, user.getClass());
-        log.info("User object constructed from JSON representation");
+    public User modifyUser(User user){
+        log.info("Entering modifyUser");
 
         //Log the User Object as constructed from JSON input
         log.info("User ID: " + user.getUserID());
@@ -118,21 +117,17 @@ public class UserService {
         log.info("User LastName: " + user.getLastName());
         log.info("User NickName: " + user.getNickname());
 
-        //Retrieve the existing resource representation from Redis (validate the UserID input is valid before doing anything else)
-        User existingUser = databaseManager.getUser(user.getUserID());
-
-        //NOTE: Redis is optimised for insertions & deletions, not updates - may be better to delete the existing
-        //entry & create a new one rather than trying to update an existing one.
-
-        //Overwrite the current nickname with the one from the JSON body
-        existingUser.setNickname(user.getNickname());
-
-        //Call out to the redisManager to update the data in Redis using the same value
-        //will have the same key as one that already exists
-        databaseManager.setUser(existingUser);
+        //Overwrite the current nickname with the one from the JSON body, only if the UserID input is valid. The update
+        //returns the representation of the object as stored (not what we think we stored) in the same call.
+        User modifiedUser = databaseManager.updateUserNickname(user.getUserID(), user.getNickname());
+        if(modifiedUser == null){
+            log.info("User ID " + user.getUserID() + " does not exist - nothing modified");
+        }
+        else{
+            notificationService.recordChange("USER", modifiedUser.getUserID(), null);
+        }
 
-        //return the representation of the object as stored (not what we think we stored)
-        return databaseManager.getUser(user.getUserID());
+        return modifiedUser;
     }
 
 
@@ -143,14 +138,21 @@ public class UserService {
      * @return      listOfTestUsers - The list of new users created
      */
     public List<User> createTestUsers(int numTestUsers){
-        List listOfTestUsers = new ArrayList();
+        List<User> listOfTestUsers = new ArrayList<User>();
         for (int i= 0;i<numTestUsers;i++){
             User testUser = new User("Test User First Name" + i, "Test User Last Name" + i, "Test User NickName" + i);
-
-            databaseManager.setUser(testUser);
             listOfTestUsers.add(testUser);
         }
 
+        //Push all test Users to the Database in bulk
+        databaseManager.createUsers(listOfTestUsers);
+
+        List<FeedEntryDAO> feedEntryDAOs = new ArrayList<FeedEntryDAO>();
+        for (int i= 0;i<listOfTestUsers.size();i++){
+            feedEntryDAOs.add(new FeedEntryDAO("USER", listOfTestUsers.get(i).getUserID(), null));
+        }
+        notificationService.recordChanges(feedEntryDAOs);
+
         return listOfTestUsers;
     }
 
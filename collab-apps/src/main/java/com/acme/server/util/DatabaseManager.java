@@ -1,281 +1,248 @@
 package com.acme.server.util;
 
-import com.acme.server.dao.ChatRoomDAO;
-import com.acme.server.model.ChatMessage;
-import org.apache.log4j.Logger;
-import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.serializer.GenericToStringSerializer;
-import org.springframework.data.redis.serializer.StringRedisSerializer;
-
-import redis.clients.jedis.JedisShardInfo;
-
-import com.acme.server.model.ChatRoom;
 import com.acme.server.dao.ChatMessageDAO;
+import com.acme.server.dao.ChatRoomAggregate;
+import com.acme.server.dao.ChatRoomDAO;
+import com.acme.server.dao.FeedEntryDAO;
+import com.acme.server.dao.FeedResources;
 import com.acme.server.model.User;
 
-
-
-import java.util.*;
-
-@Configuration
-public class DatabaseManager {
-
-    private static Logger log = Logger.getLogger(DatabaseManager.class);
-    public RedisTemplate< String, Object > template;
-
-    public DatabaseManager() {
-        log.info("Entering RedisManager constructor");
-        template = redisTemplate();
-    }
-
-    JedisConnectionFactory jedisConnectionFactory() {
-        log.info("Entering AppConfig.jedisConnectionFactory");
-
-        JedisConnectionFactory jedisConnectionFactory = new JedisConnectionFactory();
-        JedisShardInfo shardInfo = new JedisShardInfo("127.0.0.1", 6379, 5000);
-        jedisConnectionFactory.setShardInfo(shardInfo);
-
-        log.info("Created Jedis Connection factory from App Config OK");
-        return jedisConnectionFactory;
-    }
-
-    RedisTemplate< String, Object > redisTemplate() {
-        log.info("Entering AppConfig.redisTemplate");
-
-        final RedisTemplate< String, Object > template =  new RedisTemplate< String, Object >();
-        template.setConnectionFactory( jedisConnectionFactory() );
-        template.setKeySerializer( new StringRedisSerializer() );
-        template.setHashKeySerializer( new StringRedisSerializer() );
-        template.setHashValueSerializer( new GenericToStringSerializer< Object >( Object.class ) );
-        template.setValueSerializer( new GenericToStringSerializer< Object >( Object.class ) );
-
-        log.info("Template created " + template.toString());
-        return template;
-    }
-
-    public void setUser(final User user) {
-        log.info("Entering DatabaseManager.setUser");
-
-        final String key = user.getUserID();
-        log.info("Redis Key for new User entry: " + key);
-
-        final Map< String, Object > properties = new HashMap< String, Object >();
-
-        properties.put("userid",user.getUserID());
-        properties.put("firstname", user.getFirstName());
-        properties.put("lastname", user.getLastName());
-        properties.put("nickname", user.getNickname());
-
-        //What is the success or failure return parameter?
-        log.info("Pushing new User to Redis");
-        template.opsForHash().putAll(key, properties);
-    }
-
-
-    public User getUser(String id) {
-        log.info("Entering DatabaseManager.getUser" + id);
-
-        final String key = id;
-
-        final String userID = (String )template.opsForHash().get( key, "userid" );
-        final String firstName = (String )template.opsForHash().get( key, "firstname" );
-        final String lastName = (String) template.opsForHash().get( key, "lastname" );
-        final String nickName = (String) template.opsForHash().get( key, "nickname" );
-
-        log.info("Retrieved UserID: " + userID);
-        log.info("Retrieved FirstName: " + firstName);
-        log.info("Retrieved LastName: " +  lastName);
-        log.info("Retrieved NickName: " +  nickName);
-
-        return new User(firstName,lastName,nickName,userID);
-    }
-
-
-    public void createChatRoomFromDAO(ChatRoomDAO chatRoomDAO) {
-        log.info("Entering DatabaseManager.createChatRoom");
-
-        final String key = chatRoomDAO.getChatRoomID();
-        log.info("Redis Key for new ChatRoom entry: " + key);
-
-        final Map< String, Object > properties = new HashMap< String, Object >();
-
-        properties.put("chatroomid",chatRoomDAO.getChatRoomID());
-        properties.put("topic", chatRoomDAO.getTopic());
-        log.info("Set topic to: " + chatRoomDAO.getTopic());
-
-        properties.put("chatroomcreatoruserid", chatRoomDAO.getChatRoomCreatorUserID());
-        properties.put("chatroomparticipantid", chatRoomDAO.getChatRoomParticipantID());
-
-        log.info("Pushing new Chatroom to Redis");
-        template.opsForHash().putAll(key, properties);
-
-    }
-
-
-    public ChatRoomDAO retrieveChatRoomDAO(String chatRoomID ) {
-        log.info("Entering DatabaseManager.getChatRoom");
-
-        final String key = chatRoomID;
-        ChatRoomDAO chatRoomDAO = new ChatRoomDAO();
-        log.info("Entering RedisManager.getChatRoom with ChatRoom ID" + key);
-
-        final String chatRoomIDRetrieved = (String) template.opsForHash().get( key, "chatroomid" );
-        final String topic = ( String )template.opsForHash().get( key, "topic" );
-        final String chatRoomCreatorUserID = (String) template.opsForHash().get( key, "chatroomcreatoruserid" );
-        final String chatRoomParticipantID = (String) template.opsForHash().get( key, "chatroomparticipantid" );
-
-        log.info("Retrieved ChatRoomID: " + chatRoomIDRetrieved);
-        chatRoomDAO.setChatRoomID(chatRoomIDRetrieved);
-
-        log.info("Retrieved Topic: " + topic);
-        chatRoomDAO.setTopic(topic);
-
-        log.info("Retrieved CreatorID: " + chatRoomCreatorUserID);
-        chatRoomDAO.setChatRoomCreatorUserID(chatRoomCreatorUserID);
-
-        log.info("Retrieved ParticipantID: " + chatRoomParticipantID);
-        chatRoomDAO.setChatRoomParticipantID(chatRoomParticipantID);
-
-         return chatRoomDAO;
-    }
-
-    //PUT exception firing here:
-    public void createChatMessageFromDAO(ChatMessageDAO chatMessageDAO) {
-        log.info("Entering DatabaseManager.createChatMessageFromDAO");
-
-        final String key = chatMessageDAO.getChatMessageID();
-        log.info(" Key for new ChatMessage entry: " + key);
-
-        final Map< String, Object > properties = new HashMap< String, Object >();
-
-        properties.put("chatmessageid",chatMessageDAO.getChatMessageID());
-        log.info("Pushing chatmessageid: " + chatMessageDAO.getChatMessageID());
-
-        properties.put("chatroomid", chatMessageDAO.getChatRoomID());
-        log.info("Pushing chatroomid: " + chatMessageDAO.getChatRoomID());
-
-        properties.put("fromParticipantID", chatMessageDAO.getFromParticipantID());
-        log.info("Pushing fromParticipantID: " + chatMessageDAO.getFromParticipantID());
-
-        properties.put("message", chatMessageDAO.getMessage());
-        log.info("Pushing Message: " + chatMessageDAO.getMessage());
-
-        properties.put("lastmodified", chatMessageDAO.getLastModified());
-        log.info("Pushing lastmodified: " + chatMessageDAO.getLastModified());
-
-        //TODO control this so that you can only set the readreceipt from false --> true, not vice versa
-        properties.put("readreceipt", chatMessageDAO.getReadReceipt());
-        log.info("Pushing new ChatMessage to Database - readReceipt: " + chatMessageDAO.getReadReceipt());
-
-        template.opsForHash().putAll(key, properties);
-
-    }
-
-    //bringing back a null participant ID...why...?
-    public ChatMessageDAO retrieveChatMessageDAO(String chatMessageID) {
-        log.info("Entering DatabaseManager.retrieveChatMessageDAO: " + chatMessageID);
-
-        final String key = chatMessageID;
-        ChatMessageDAO chatMessageDAO = new ChatMessageDAO();
-
-        final String chatMessageIDRetrieved = (String) template.opsForHash().get( key, "chatmessageid" );
-        final String chatRoomIDRetrieved = (String) template.opsForHash().get( key, "chatroomid" );
-        final String fromParticipantID = ( String )template.opsForHash().get( key, "fromParticipantID" );
-        final String message = (String) template.opsForHash().get( key, "message" );
-        final String readReceipt = (String) template.opsForHash().get(key, "readreceipt");
-       // final String lastmodified = (String) template.opsForHash().get( key, "lastmodified" );
-
-        log.info("Retrieved ChatMessage ID: " + chatMessageIDRetrieved);
-        chatMessageDAO.setChatMessageID(chatMessageIDRetrieved);
-
-        log.info("Retrieved ChatRoom ID: " + chatRoomIDRetrieved);
-        chatMessageDAO.setChatRoomID(chatRoomIDRetrieved);
-
-        log.info("Retrieved Participant ID: " + fromParticipantID);
-        chatMessageDAO.setFromParticipantID(fromParticipantID);
-
-        log.info("Retrieved message: " + message);
-        chatMessageDAO.setMessage(message);
-
-        log.info("Retrieved read receipt: " + readReceipt);
-        chatMessageDAO.setReadReceipt(readReceipt);
-
-        //log.info("Retrieved lastmodified: " + lastmodified);
-        //chatMessageDAO.setLastModified((Long)lastmodified);
-
-        return chatMessageDAO;
-    }
-
-
-    //TODO Modify to insert DAO layer & follow the same pattern as ChatMessage & ChatRoom to future proof & guarantee
-    //consistency of design. There is no benefit to doing this in the case of a User that does not contact other subresouces
-    //that get reconstructed at the Service layer but there may be a reason in the future.
-    public List<User> getAllUsers() {
-        log.info("Entering DatabaseManager.getAllUser");
-
-        List<User> allUsers = new ArrayList<User>();
-
-        Set<String> keys = template.keys("USER:*");
-        log.info("Print keys: " + keys);
-
-        Iterator<String> iterator = keys.iterator();
-        while(iterator.hasNext()) {
-            String nextElement = iterator.next();
-
-            User nextUser = getUser(nextElement);
-            allUsers.add(nextUser);
-        }
-
-        return allUsers;
-    }
-
-    public List<ChatRoomDAO> getAllChatRoomDAOs(String userID) {
-        log.info("Entering DatabaseManager.getAllChatRooms with userID " + userID);
-
-        List<ChatRoomDAO> allChatRoomDAOs = new ArrayList<ChatRoomDAO>();
-
-        //TODO: ChatRoom ID's need reference to the users if we are to easily find ChatRooms for a user
-        Set<String> keys = template.keys("CHATROOM:*");
-        log.info("Print keys: " + keys);
-
-        Iterator<String> iterator = keys.iterator();
-       while(iterator.hasNext()) {
-            String nextElement = iterator.next();
-
-            ChatRoomDAO nextChatRoomDAO = retrieveChatRoomDAO(nextElement);
-            allChatRoomDAOs.add(nextChatRoomDAO);
-
-        }
-
-        return allChatRoomDAOs;
-    }
-
-    public List<ChatMessageDAO> getAllChatMessageDAOs(String chatRoomID) {
-        log.info("Entering DatabaseManager.getAllChatMessageDAOs: " + chatRoomID);
-
-        List<ChatMessageDAO> allChatMessageDAOs = new ArrayList<ChatMessageDAO>();
-
-        //TODO use this to get all the keys needed.
-        Set<String> keys = template.keys("MESSAGE:" + chatRoomID + "*");
-        log.info("Print keys: " + keys);
-
-        Iterator<String> iterator = keys.iterator();
-        while(iterator.hasNext()) {
-            String nextElement = iterator.next();
-
-            ChatMessageDAO nextMessageRoomDAO = retrieveChatMessageDAO(nextElement);
-            allChatMessageDAOs.add(nextMessageRoomDAO);
-        }
-
-        return allChatMessageDAOs;
-    }
-
-    //Invoked by the persist methods on the ChatRoomDAO & ChatMessageDAO
-    public void setStringObjectHash(String key, Map< String, Object > properties){
-        log.info("Entering DatabaseManager.setStringObjectHash");
-        template.opsForHash().putAll(key, properties);
-    }
-
-}
\ No newline at end of file
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *  The DatabaseManager is the storage interface used by the service layer to store & retrieve Users, ChatRooms &
+ *  ChatMessages, to query the indexes kept of the ChatMessages in each ChatRoom & the ChatRooms of each User & to keep
+ *  the change feed of each User read by the NotificationService.
+ *
+ *  The backend is selected with the storage.backend property:
+ *
+ *  redis  - RedisDatabaseManager, the default
+ *  memory - InMemoryDatabaseManager, keeps everything in the memory of this server & needs no Redis instance
+ *
+ *  Every implementation follows the same contract:
+ *
+ *  A retrieve for a key that does not exist returns an object with all fields null rather than null
+ *  An update of an entity that does not exist writes nothing & returns null
+ *  ChatMessages are returned oldest first, ordered by their lastModified timestamp, except pages of ChatMessages which
+ *  are returned newest first
+ *  Objects returned are copies, changing them has no effect on what is stored until they are written back
+ *  Feed entries are numbered from a single increasing sequence & a poll never sees an entry before the earlier entries
+ *  of the same feed
+ *  FeedListeners are told of the feeds written by every server sharing the store, including this one, after the
+ *  entries can be read
+ *  A scan reads the next chunk only when the one before has been taken, so it holds a single chunk however many
+ *  entities it walks. It returns every entity stored for its whole length, one added or removed during the scan may or
+ *  may not be returned & an entity may be returned more than once.
+ */
+public interface DatabaseManager {
+
+    //******************************** USERS **********************************************
+
+    void setUser(User user);
+
+    /**
+     * Stores a batch of new Users
+     *
+     * @param       users - The Users to store
+     */
+    void createUsers(List<User> users);
+
+    /**
+     * Sets the nickname of an existing User & returns the User as stored after the update
+     *
+     * @param       userID - The key of the User
+     * @param       nickname - The new nickname
+     * @return      User - null if the User does not exist
+     */
+    User updateUserNickname(String userID, String nickname);
+
+    User getUser(String id);
+
+    /**
+     * Retrieves the Users with the keys specified
+     *
+     * @param       ids - The User keys to retrieve
+     * @return      <code>List</code> The Users in the same order as the keys
+     */
+    List<User> getUsers(Collection<String> ids);
+
+    /**
+     * Walks every User in the system a chunk at a time
+     *
+     * @param       chunkSize - The number of Users wanted in each chunk, a hint the backend may not keep to exactly
+     * @return      <code>Iterator</code> The chunks of Users, none of them empty
+     */
+    Iterator< List<User> > scanUsers(int chunkSize);
+
+    //******************************** CHATROOMS **********************************************
+
+    /**
+     * Stores a ChatRoom & adds it to the ChatRooms of both its creator & participant
+     *
+     * @param       chatRoomDAO - The ChatRoom to store
+     */
+    void createChatRoomFromDAO(ChatRoomDAO chatRoomDAO);
+
+    /**
+     * Sets the topic of an existing ChatRoom & returns the ChatRoom as stored after the update
+     *
+     * @param       chatRoomID - The key of the ChatRoom
+     * @param       topic - The new topic
+     * @return      ChatRoomDAO - null if the ChatRoom does not exist
+     */
+    ChatRoomDAO updateChatRoomTopic(String chatRoomID, String topic);
+
+    ChatRoomDAO retrieveChatRoomDAO(String chatRoomID);
+
+    /**
+     * Retrieves the ChatRooms with the keys specified
+     *
+     * @param       chatRoomIDs - The ChatRoom keys to retrieve
+     * @return      <code>List</code> The ChatRoomDAOs in the same order as the keys
+     */
+    List<ChatRoomDAO> retrieveChatRoomDAOs(Collection<String> chatRoomIDs);
+
+    /**
+     * Retrieves a ChatRoom, optionally its creator & participant & the latest ChatMessages posted to it
+     *
+     * @param       chatRoomID - The key of the ChatRoom
+     * @param       withParticipants - true to read the creator & participant, otherwise they are null in the aggregate
+     * @param       maxChatMessages - The maximum number of the latest ChatMessages to return, 0 for none
+     * @return      ChatRoomAggregate - null if the ChatRoom does not exist
+     */
+    ChatRoomAggregate retrieveChatRoomAggregate(String chatRoomID, boolean withParticipants, int maxChatMessages);
+
+    /**
+     * Walks the ChatRooms a User is a participant of a chunk at a time
+     *
+     * @param       userID - The User whose ChatRooms are walked, if null every ChatRoom in the system is walked
+     * @param       chunkSize - The number of ChatRooms wanted in each chunk, a hint the backend may not keep to exactly
+     * @return      <code>Iterator</code> The chunks of ChatRoomDAOs, none of them empty
+     */
+    Iterator< List<ChatRoomDAO> > scanChatRoomDAOs(String userID, int chunkSize);
+
+    //******************************** CHATMESSAGES **********************************************
+
+    /**
+     * Stores a ChatMessage & adds it to the index of its ChatRoom. A ChatMessage without a timestamp is stamped with the
+     * current time, an existing ChatMessage written back keeps its position in the ChatRoom.
+     *
+     * @param       chatMessageDAO - The ChatMessage to store
+     */
+    void createChatMessageFromDAO(ChatMessageDAO chatMessageDAO);
+
+    /**
+     * Stores a batch of new ChatMessages & adds each one to the index of its ChatRoom
+     *
+     * @param       chatMessageDAOs - The ChatMessages to store, any without a timestamp are stamped with the current time
+     */
+    void createChatMessagesFromDAOs(List<ChatMessageDAO> chatMessageDAOs);
+
+    /**
+     * Sets the read receipt of an existing ChatMessage & returns the ChatMessage as stored after the update
+     *
+     * @param       chatMessageID - The key of the ChatMessage
+     * @param       readReceipt - The new read receipt
+     * @return      ChatMessageDAO - null if the ChatMessage does not exist
+     */
+    ChatMessageDAO updateChatMessageReadReceipt(String chatMessageID, String readReceipt);
+
+    ChatMessageDAO retrieveChatMessageDAO(String chatMessageID);
+
+    /**
+     * Retrieves the ChatMessages with the keys specified
+     *
+     * @param       chatMessageIDs - The ChatMessage keys to retrieve
+     * @return      <code>List</code> The ChatMessageDAOs in the same order as the keys
+     */
+    List<ChatMessageDAO> retrieveChatMessageDAOs(Collection<String> chatMessageIDs);
+
+    /**
+     * Retrieves every ChatMessage posted to a ChatRoom
+     *
+     * @param       chatRoomID - The ChatRoom whose messages are retrieved
+     * @return      <code>List</code> The ChatMessageDAOs, oldest message first
+     */
+    List<ChatMessageDAO> getAllChatMessageDAOs(String chatRoomID);
+
+    /**
+     * Retrieves the latest ChatMessages posted to each of several ChatRooms
+     *
+     * @param       chatRoomIDs - The ChatRooms whose messages are retrieved
+     * @param       maxChatMessages - The maximum number of the latest ChatMessages to return for each ChatRoom
+     * @return      <code>Map</code> The ChatMessageDAOs of each ChatRoom, oldest message first
+     */
+    Map< String, List<ChatMessageDAO> > getLatestChatMessageDAOs(Collection<String> chatRoomIDs, int maxChatMessages);
+
+    /**
+     * Retrieves one page of the ChatMessages posted to a ChatRoom, walking the ChatRoom's index from a cursor so only the
+     * ChatMessages on the page are read. The order is that of the index, so it is stable across pages even for
+     * ChatMessages posted in the same millisecond.
+     *
+     * @param       chatRoomID - The ChatRoom whose messages are retrieved
+     * @param       beforeChatMessageID - Optional, the page is the ChatMessages posted just before this one
+     * @param       afterChatMessageID - Optional, the page is the ChatMessages posted just after this one. Ignored when
+     *                                   beforeChatMessageID is set. With neither the page is the latest ChatMessages.
+     * @param       maxChatMessages - The maximum number of ChatMessages on the page
+     * @return      <code>List</code> The ChatMessageDAOs, newest message first, empty if the cursor is not in the ChatRoom
+     */
+    List<ChatMessageDAO> getChatMessageDAOPage(String chatRoomID, String beforeChatMessageID, String afterChatMessageID,
+                                               int maxChatMessages);
+
+    //******************************** FEEDS **********************************************
+
+    /**
+     * Appends a batch of entries to the change feed of every User affected by them & sets the sequence number assigned
+     * to each entry. A CHATROOM or CHATMESSAGE entry goes to the creator & participant of its ChatRoom, a USER entry to
+     * the User & everyone taking part in one of their ChatRooms. Each feed keeps only its newest entries.
+     *
+     * @param       feedEntryDAOs - The entries to append, in the order they happened
+     * @return      <code>Set</code> The IDs of the Users whose feeds were written
+     */
+    Set<String> appendFeedEntries(List<FeedEntryDAO> feedEntryDAOs);
+
+    /**
+     * Retrieves the entries of a User's change feed with a sequence number after the one given, found by a range query
+     * on the feed so the cost depends only on the number of entries returned
+     *
+     * @param       userID - The User whose feed is read
+     * @param       afterSequence - The sequence number of the last entry the client has seen, 0 to read from the start
+     * @param       maxEntries - The maximum number of entries to return
+     * @return      <code>List</code> The FeedEntryDAOs, oldest entry first
+     */
+    List<FeedEntryDAO> getFeedEntries(String userID, long afterSequence, int maxEntries);
+
+    /**
+     * Retrieves the ChatMessages of a ChatRoom created or modified after the feed sequence given, each once however
+     * many times it changed. Only changes still held within the feed length are found.
+     *
+     * @param       chatRoomID - The ChatRoom whose ChatMessages are read
+     * @param       afterSequence - The feed sequence the client has seen the ChatRoom up to
+     * @return      <code>List</code> The ChatMessageDAOs in the order of their latest change
+     */
+    List<ChatMessageDAO> getChangedChatMessageDAOs(String chatRoomID, long afterSequence);
+
+    /**
+     * Retrieves the Users, ChatRooms & ChatMessages named by a page of feed entries in a single batch, so embedding
+     * them in the Notifications of a poll costs one read however many kinds of resource changed
+     *
+     * @param       userIDs - The Users to read
+     * @param       chatRoomIDs - The ChatRooms to read
+     * @param       chatMessageIDs - The ChatMessages to read
+     * @return      <code>FeedResources</code> The resources read, keyed by ID. Resources that do not exist are left out.
+     */
+    FeedResources retrieveFeedResources(Collection<String> userIDs, Collection<String> chatRoomIDs,
+                                        Collection<String> chatMessageIDs);
+
+    /**
+     * Registers a listener to be told of the Users whose feeds have new entries, whichever server appended them, so
+     * clients connected to this server can be sent the changes made through any other
+     *
+     * @param       feedListener - The listener to add
+     */
+    void addFeedListener(FeedListener feedListener);
+}
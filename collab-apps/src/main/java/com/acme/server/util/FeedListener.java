@@ -0,0 +1,16 @@
+package com.acme.server.util;
+
+import java.util.Set;
+
+/**
+ *  A FeedListener is told each time changes are recorded in the feeds of a set of Users, on whichever server recorded
+ *  them, so it can push the new Notifications to any client connected to this server for them. It is called on a thread
+ *  shared by every listener & should hand any real work to a thread of its own.
+ */
+public interface FeedListener {
+
+    /**
+     * @param       userIDs - The Users whose feeds have new entries
+     */
+    void feedsChanged(Set<String> userIDs);
+}
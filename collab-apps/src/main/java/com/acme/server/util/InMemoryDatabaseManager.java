@@ -0,0 +1,644 @@
+package com.acme.server.util;
+
+import com.acme.server.dao.ChatMessageDAO;
+import com.acme.server.dao.ChatRoomAggregate;
+import com.acme.server.dao.ChatRoomDAO;
+import com.acme.server.dao.FeedEntryDAO;
+import com.acme.server.dao.FeedResources;
+import com.acme.server.model.User;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ *  The InMemoryDatabaseManager keeps the Users, ChatRooms & ChatMessages in the memory of this server so the service
+ *  layer can be run & benchmarked without a Redis instance. It is used when storage.backend is memory, nothing is kept
+ *  across a restart.
+ *
+ *  Entities are held in concurrent maps keyed by their IDs & are copied on the way in & out so callers can never change
+ *  what is stored. Reads take no locks. A write to an entity takes the lock of the stripe its key hashes to, so an
+ *  update & the read of the result are atomic & writes to different entities rarely contend.
+ *
+ *  The ChatMessages of each ChatRoom are indexed in a concurrent skip list ordered by timestamp then key, the same
+ *  order Redis keeps in a sorted set.
+ *
+ *  The change feed of each User is a concurrent skip list keyed by sequence number. Appends take a single lock so the
+ *  sequence is assigned & every feed written before the next batch is numbered, polls read the feeds without locking.
+ *  FeedListeners are called directly once a batch is appended, there is no other server to tell.
+ */
+@Component
+@ConditionalOnExpression("'${storage.backend:redis}' == 'memory'")
+public class InMemoryDatabaseManager implements DatabaseManager {
+
+    private static Logger log = Logger.getLogger(InMemoryDatabaseManager.class);
+
+    private final ConcurrentMap<String, User> users = new ConcurrentHashMap<String, User>();
+    private final ConcurrentMap<String, ChatRoomDAO> chatRooms = new ConcurrentHashMap<String, ChatRoomDAO>();
+    private final ConcurrentMap<String, ChatMessageDAO> chatMessages = new ConcurrentHashMap<String, ChatMessageDAO>();
+
+    //The ChatMessages of each ChatRoom ordered oldest first & the ChatRooms of each User
+    private final ConcurrentMap<String, ConcurrentSkipListSet<IndexEntry>> chatMessageIndex =
+            new ConcurrentHashMap<String, ConcurrentSkipListSet<IndexEntry>>();
+    private final ConcurrentMap<String, Set<String>> chatRoomMembership = new ConcurrentHashMap<String, Set<String>>();
+
+    //The change feed of each User keyed by sequence number. The sequence & the number of entries in each feed are only
+    //changed while holding feedLock.
+    private final ConcurrentMap<String, ConcurrentSkipListMap<Long, FeedEntryDAO>> feeds =
+            new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, FeedEntryDAO>>();
+    private final Map<String, Integer> feedLengths = new HashMap<String, Integer>();
+    private final Object feedLock = new Object();
+    private long feedSequence;
+    private final int feedMaxLength;
+    private final List<FeedListener> feedListeners = new CopyOnWriteArrayList<FeedListener>();
+
+    //The ChatMessages changed in each ChatRoom keyed by the sequence of their latest change, with that sequence kept
+    //for each ChatMessage so its earlier change is dropped when it changes again. Only changed while holding feedLock.
+    private final ConcurrentMap<String, ConcurrentSkipListMap<Long, String>> chatMessageChanges =
+            new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, String>>();
+    private final Map<String, Long> latestChatMessageChanges = new HashMap<String, Long>();
+    private final Map<String, Integer> chatMessageChangeLengths = new HashMap<String, Integer>();
+
+    private final Object[] locks;
+
+    @Autowired
+    public InMemoryDatabaseManager(@Value("${storage.memory.lockStripes:64}") int lockStripes,
+                                   @Value("${notifications.feed.maxLength:1000}") int feedMaxLength) {
+        log.info("Entering InMemoryDatabaseManager constructor, lock stripes: " + lockStripes);
+        this.feedMaxLength = feedMaxLength;
+
+        locks = new Object[lockStripes];
+        for(int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    //Returns the lock guarding writes to the entity with the key given
+    private Object lockFor(String key) {
+        return locks[(key.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    //******************************** USERS **********************************************
+
+    public void setUser(User user) {
+        log.info("Entering InMemoryDatabaseManager.setUser: " + user.getUserID());
+        users.put(user.getUserID(), copyOf(user));
+    }
+
+    public void createUsers(List<User> usersToCreate) {
+        log.info("Entering InMemoryDatabaseManager.createUsers: " + usersToCreate.size());
+        for(User user : usersToCreate) {
+            users.put(user.getUserID(), copyOf(user));
+        }
+    }
+
+    public User updateUserNickname(String userID, String nickname) {
+        log.info("Entering InMemoryDatabaseManager.updateUserNickname: " + userID);
+        if(userID == null) {
+            return null;
+        }
+
+        synchronized (lockFor(userID)) {
+            User existingUser = users.get(userID);
+            if(existingUser == null) {
+                return null;
+            }
+
+            User modifiedUser = copyOf(existingUser);
+            if(nickname != null) {
+                modifiedUser.setNickname(nickname);
+            }
+            users.put(userID, modifiedUser);
+            return copyOf(modifiedUser);
+        }
+    }
+
+    public User getUser(String id) {
+        User user = id != null ? users.get(id) : null;
+        return user != null ? copyOf(user) : new User(null, null, null, null);
+    }
+
+    public List<User> getUsers(Collection<String> ids) {
+        List<User> usersFound = new ArrayList<User>();
+        for(String id : ids) {
+            usersFound.add(getUser(id));
+        }
+        return usersFound;
+    }
+
+    public Iterator< List<User> > scanUsers(int chunkSize) {
+        return new KeyChunks< User >(users.keySet().iterator(), chunkSize) {
+            protected List<User> read(List<String> keys) {
+                return getUsers(keys);
+            }
+        };
+    }
+
+    private User copyOf(User user) {
+        return new User(user.getFirstName(), user.getLastName(), user.getNickname(), user.getUserID());
+    }
+
+    //******************************** CHATROOMS **********************************************
+
+    public void createChatRoomFromDAO(ChatRoomDAO chatRoomDAO) {
+        log.info("Entering InMemoryDatabaseManager.createChatRoomFromDAO: " + chatRoomDAO.getChatRoomID());
+
+        chatRooms.put(chatRoomDAO.getChatRoomID(), copyOf(chatRoomDAO));
+        addChatRoomMember(chatRoomDAO.getChatRoomCreatorUserID(), chatRoomDAO.getChatRoomID());
+        addChatRoomMember(chatRoomDAO.getChatRoomParticipantID(), chatRoomDAO.getChatRoomID());
+    }
+
+    private void addChatRoomMember(String userID, String chatRoomID) {
+        if(userID == null) {
+            return;
+        }
+
+        Set<String> userChatRooms = chatRoomMembership.get(userID);
+        if(userChatRooms == null) {
+            Set<String> newUserChatRooms = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            userChatRooms = chatRoomMembership.putIfAbsent(userID, newUserChatRooms);
+            if(userChatRooms == null) {
+                userChatRooms = newUserChatRooms;
+            }
+        }
+        userChatRooms.add(chatRoomID);
+    }
+
+    public ChatRoomDAO updateChatRoomTopic(String chatRoomID, String topic) {
+        log.info("Entering InMemoryDatabaseManager.updateChatRoomTopic: " + chatRoomID);
+        if(chatRoomID == null) {
+            return null;
+        }
+
+        synchronized (lockFor(chatRoomID)) {
+            ChatRoomDAO existingChatRoom = chatRooms.get(chatRoomID);
+            if(existingChatRoom == null) {
+                return null;
+            }
+
+            ChatRoomDAO modifiedChatRoom = copyOf(existingChatRoom);
+            if(topic != null) {
+                modifiedChatRoom.setTopic(topic);
+            }
+            chatRooms.put(chatRoomID, modifiedChatRoom);
+            return copyOf(modifiedChatRoom);
+        }
+    }
+
+    public ChatRoomDAO retrieveChatRoomDAO(String chatRoomID) {
+        ChatRoomDAO chatRoomDAO = chatRoomID != null ? chatRooms.get(chatRoomID) : null;
+        return chatRoomDAO != null ? copyOf(chatRoomDAO) : new ChatRoomDAO();
+    }
+
+    public List<ChatRoomDAO> retrieveChatRoomDAOs(Collection<String> chatRoomIDs) {
+        List<ChatRoomDAO> chatRoomDAOs = new ArrayList<ChatRoomDAO>();
+        for(String chatRoomID : chatRoomIDs) {
+            chatRoomDAOs.add(retrieveChatRoomDAO(chatRoomID));
+        }
+        return chatRoomDAOs;
+    }
+
+    public ChatRoomAggregate retrieveChatRoomAggregate(String chatRoomID, boolean withParticipants,
+                                                       int maxChatMessages) {
+        log.info("Entering InMemoryDatabaseManager.retrieveChatRoomAggregate: " + chatRoomID);
+
+        ChatRoomDAO chatRoomDAO = chatRoomID != null ? chatRooms.get(chatRoomID) : null;
+        if(chatRoomDAO == null) {
+            return null;
+        }
+
+        //Walk back from the newest message & return the page oldest first
+        LinkedList<ChatMessageDAO> latestChatMessages = new LinkedList<ChatMessageDAO>();
+        ConcurrentSkipListSet<IndexEntry> index = chatMessageIndex.get(chatRoomID);
+        if(index != null) {
+            Iterator<IndexEntry> newestFirst = index.descendingIterator();
+            while(newestFirst.hasNext() && latestChatMessages.size() < maxChatMessages) {
+                latestChatMessages.addFirst(retrieveChatMessageDAO(newestFirst.next().key));
+            }
+        }
+
+        User chatRoomCreator = withParticipants ? getUser(chatRoomDAO.getChatRoomCreatorUserID()) : null;
+        User chatRoomParticipant = withParticipants ? getUser(chatRoomDAO.getChatRoomParticipantID()) : null;
+        return new ChatRoomAggregate(copyOf(chatRoomDAO), chatRoomCreator, chatRoomParticipant,
+                new ArrayList<ChatMessageDAO>(latestChatMessages));
+    }
+
+    public Iterator< List<ChatRoomDAO> > scanChatRoomDAOs(String userID, int chunkSize) {
+        Collection<String> chatRoomIDs;
+        if(userID != null) {
+            Set<String> userChatRooms = chatRoomMembership.get(userID);
+            chatRoomIDs = userChatRooms != null ? userChatRooms : Collections.<String>emptySet();
+        }
+        else {
+            chatRoomIDs = chatRooms.keySet();
+        }
+        return new KeyChunks< ChatRoomDAO >(chatRoomIDs.iterator(), chunkSize) {
+            protected List<ChatRoomDAO> read(List<String> keys) {
+                return retrieveChatRoomDAOs(keys);
+            }
+        };
+    }
+
+    private ChatRoomDAO copyOf(ChatRoomDAO chatRoomDAO) {
+        ChatRoomDAO copy = new ChatRoomDAO();
+        copy.setChatRoomID(chatRoomDAO.getChatRoomID());
+        copy.setTopic(chatRoomDAO.getTopic());
+        copy.setChatRoomCreatorUserID(chatRoomDAO.getChatRoomCreatorUserID());
+        copy.setChatRoomParticipantID(chatRoomDAO.getChatRoomParticipantID());
+        return copy;
+    }
+
+    //******************************** CHATMESSAGES **********************************************
+
+    public void createChatMessageFromDAO(ChatMessageDAO chatMessageDAO) {
+        log.info("Entering InMemoryDatabaseManager.createChatMessageFromDAO: " + chatMessageDAO.getChatMessageID());
+
+        //New messages built from the DAO constructors have no timestamp yet, modifications keep the original one
+        //so the position of the message in the ChatRoom index does not move when the read receipt is set
+        if(chatMessageDAO.getLastModified() == 0) {
+            chatMessageDAO.setLastModified(new Date().getTime());
+        }
+
+        final String key = chatMessageDAO.getChatMessageID();
+        synchronized (lockFor(key)) {
+            ChatMessageDAO previous = chatMessages.put(key, copyOf(chatMessageDAO));
+
+            //A message written back with a different timestamp moves in the index, as a sorted set member would
+            if(previous != null && previous.getChatRoomID() != null) {
+                ConcurrentSkipListSet<IndexEntry> previousIndex = chatMessageIndex.get(previous.getChatRoomID());
+                if(previousIndex != null) {
+                    previousIndex.remove(new IndexEntry(previous.getLastModified(), key));
+                }
+            }
+            if(chatMessageDAO.getChatRoomID() != null) {
+                indexFor(chatMessageDAO.getChatRoomID()).add(new IndexEntry(chatMessageDAO.getLastModified(), key));
+            }
+        }
+    }
+
+    public void createChatMessagesFromDAOs(List<ChatMessageDAO> chatMessageDAOs) {
+        log.info("Entering InMemoryDatabaseManager.createChatMessagesFromDAOs: " + chatMessageDAOs.size());
+        for(ChatMessageDAO chatMessageDAO : chatMessageDAOs) {
+            createChatMessageFromDAO(chatMessageDAO);
+        }
+    }
+
+    public ChatMessageDAO updateChatMessageReadReceipt(String chatMessageID, String readReceipt) {
+        log.info("Entering InMemoryDatabaseManager.updateChatMessageReadReceipt: " + chatMessageID);
+        if(chatMessageID == null) {
+            return null;
+        }
+
+        synchronized (lockFor(chatMessageID)) {
+            ChatMessageDAO existingChatMessage = chatMessages.get(chatMessageID);
+            if(existingChatMessage == null) {
+                return null;
+            }
+
+            //The timestamp is unchanged so the message keeps its position in the index
+            ChatMessageDAO modifiedChatMessage = copyOf(existingChatMessage);
+            if(readReceipt != null) {
+                modifiedChatMessage.setReadReceipt(readReceipt);
+            }
+            chatMessages.put(chatMessageID, modifiedChatMessage);
+            return copyOf(modifiedChatMessage);
+        }
+    }
+
+    public ChatMessageDAO retrieveChatMessageDAO(String chatMessageID) {
+        ChatMessageDAO chatMessageDAO = chatMessageID != null ? chatMessages.get(chatMessageID) : null;
+        return chatMessageDAO != null ? copyOf(chatMessageDAO) : new ChatMessageDAO();
+    }
+
+    public List<ChatMessageDAO> retrieveChatMessageDAOs(Collection<String> chatMessageIDs) {
+        List<ChatMessageDAO> chatMessageDAOs = new ArrayList<ChatMessageDAO>();
+        for(String chatMessageID : chatMessageIDs) {
+            chatMessageDAOs.add(retrieveChatMessageDAO(chatMessageID));
+        }
+        return chatMessageDAOs;
+    }
+
+    public List<ChatMessageDAO> getAllChatMessageDAOs(String chatRoomID) {
+        List<ChatMessageDAO> chatMessageDAOs = new ArrayList<ChatMessageDAO>();
+        ConcurrentSkipListSet<IndexEntry> index = chatMessageIndex.get(chatRoomID);
+        if(index != null) {
+            for(IndexEntry entry : index) {
+                chatMessageDAOs.add(retrieveChatMessageDAO(entry.key));
+            }
+        }
+        return chatMessageDAOs;
+    }
+
+    public Map< String, List<ChatMessageDAO> > getLatestChatMessageDAOs(Collection<String> chatRoomIDs,
+                                                                        int maxChatMessages) {
+        Map< String, List<ChatMessageDAO> > chatMessageDAOsByChatRoom = new LinkedHashMap< String, List<ChatMessageDAO> >();
+        for(String chatRoomID : chatRoomIDs) {
+            List<ChatMessageDAO> latestChatMessages = getChatMessageDAOPage(chatRoomID, null, null, maxChatMessages);
+            Collections.reverse(latestChatMessages);
+            chatMessageDAOsByChatRoom.put(chatRoomID, latestChatMessages);
+        }
+        return chatMessageDAOsByChatRoom;
+    }
+
+    public List<ChatMessageDAO> getChatMessageDAOPage(String chatRoomID, String beforeChatMessageID,
+                                                      String afterChatMessageID, int maxChatMessages) {
+        List<ChatMessageDAO> chatMessageDAOs = new ArrayList<ChatMessageDAO>();
+        ConcurrentSkipListSet<IndexEntry> index = chatRoomID != null ? chatMessageIndex.get(chatRoomID) : null;
+        if(index == null || maxChatMessages <= 0) {
+            return chatMessageDAOs;
+        }
+
+        //The cursor is found by its position in the index, which is its timestamp then its key as in a sorted set
+        String cursorID = beforeChatMessageID != null ? beforeChatMessageID : afterChatMessageID;
+        IndexEntry cursor = null;
+        if(cursorID != null) {
+            ChatMessageDAO cursorChatMessage = chatMessages.get(cursorID);
+            if(cursorChatMessage == null || !chatRoomID.equals(cursorChatMessage.getChatRoomID())) {
+                return chatMessageDAOs;
+            }
+            cursor = new IndexEntry(cursorChatMessage.getLastModified(), cursorID);
+        }
+
+        if(cursor == null || beforeChatMessageID != null) {
+            Iterator<IndexEntry> newestFirst = cursor == null ? index.descendingIterator()
+                    : index.headSet(cursor, false).descendingIterator();
+            while(newestFirst.hasNext() && chatMessageDAOs.size() < maxChatMessages) {
+                chatMessageDAOs.add(retrieveChatMessageDAO(newestFirst.next().key));
+            }
+        }
+        else {
+            //The ChatMessages just after the cursor are read oldest first, then put newest first like every page
+            Iterator<IndexEntry> oldestFirst = index.tailSet(cursor, false).iterator();
+            while(oldestFirst.hasNext() && chatMessageDAOs.size() < maxChatMessages) {
+                chatMessageDAOs.add(retrieveChatMessageDAO(oldestFirst.next().key));
+            }
+            Collections.reverse(chatMessageDAOs);
+        }
+        return chatMessageDAOs;
+    }
+
+    private ConcurrentSkipListSet<IndexEntry> indexFor(String chatRoomID) {
+        ConcurrentSkipListSet<IndexEntry> index = chatMessageIndex.get(chatRoomID);
+        if(index == null) {
+            ConcurrentSkipListSet<IndexEntry> newIndex = new ConcurrentSkipListSet<IndexEntry>();
+            index = chatMessageIndex.putIfAbsent(chatRoomID, newIndex);
+            if(index == null) {
+                index = newIndex;
+            }
+        }
+        return index;
+    }
+
+    private ChatMessageDAO copyOf(ChatMessageDAO chatMessageDAO) {
+        ChatMessageDAO copy = new ChatMessageDAO();
+        copy.setChatMessageID(chatMessageDAO.getChatMessageID());
+        copy.setChatRoomID(chatMessageDAO.getChatRoomID());
+        copy.setFromParticipantID(chatMessageDAO.getFromParticipantID());
+        copy.setMessage(chatMessageDAO.getMessage());
+        copy.setLastModified(chatMessageDAO.getLastModified());
+        copy.setReadReceipt(chatMessageDAO.getReadReceipt());
+        return copy;
+    }
+
+    //******************************** FEEDS **********************************************
+
+    public Set<String> appendFeedEntries(List<FeedEntryDAO> feedEntryDAOs) {
+        log.info("Entering InMemoryDatabaseManager.appendFeedEntries: " + feedEntryDAOs.size());
+
+        Set<String> recipients = new HashSet<String>();
+        synchronized (feedLock) {
+            for(FeedEntryDAO feedEntryDAO : feedEntryDAOs) {
+                feedEntryDAO.setSequence(++feedSequence);
+                for(String userID : feedRecipients(feedEntryDAO)) {
+                    appendToFeed(userID, feedEntryDAO);
+                    recipients.add(userID);
+                }
+                if("CHATMESSAGE".equals(feedEntryDAO.getNotificationType()) && feedEntryDAO.getSubResourceID() != null) {
+                    recordChatMessageChange(feedEntryDAO);
+                }
+            }
+        }
+
+        if(!recipients.isEmpty()) {
+            for(FeedListener feedListener : feedListeners) {
+                feedListener.feedsChanged(recipients);
+            }
+        }
+        return recipients;
+    }
+
+    public FeedResources retrieveFeedResources(Collection<String> userIDs, Collection<String> chatRoomIDs,
+                                               Collection<String> chatMessageIDs) {
+        Map<String, User> usersFound = new HashMap<String, User>();
+        for(String userID : userIDs) {
+            User user = userID != null ? users.get(userID) : null;
+            if(user != null) {
+                usersFound.put(userID, copyOf(user));
+            }
+        }
+
+        Map<String, ChatRoomDAO> chatRoomDAOs = new HashMap<String, ChatRoomDAO>();
+        for(String chatRoomID : chatRoomIDs) {
+            ChatRoomDAO chatRoomDAO = chatRoomID != null ? chatRooms.get(chatRoomID) : null;
+            if(chatRoomDAO != null) {
+                chatRoomDAOs.put(chatRoomID, copyOf(chatRoomDAO));
+            }
+        }
+
+        Map<String, ChatMessageDAO> chatMessageDAOs = new HashMap<String, ChatMessageDAO>();
+        for(String chatMessageID : chatMessageIDs) {
+            ChatMessageDAO chatMessageDAO = chatMessageID != null ? chatMessages.get(chatMessageID) : null;
+            if(chatMessageDAO != null) {
+                chatMessageDAOs.put(chatMessageID, copyOf(chatMessageDAO));
+            }
+        }
+
+        return new FeedResources(usersFound, chatRoomDAOs, chatMessageDAOs);
+    }
+
+    public void addFeedListener(FeedListener feedListener) {
+        feedListeners.add(feedListener);
+    }
+
+    //The Users whose feeds an entry is appended to, mirroring the recipients chosen by the Redis feed script
+    private Set<String> feedRecipients(FeedEntryDAO feedEntryDAO) {
+        Set<String> recipients = new HashSet<String>();
+        if("USER".equals(feedEntryDAO.getNotificationType())) {
+            recipients.add(feedEntryDAO.getParentResourceID());
+            Set<String> userChatRooms = chatRoomMembership.get(feedEntryDAO.getParentResourceID());
+            if(userChatRooms != null) {
+                for(String chatRoomID : userChatRooms) {
+                    addChatRoomMembers(recipients, chatRoomID);
+                }
+            }
+        }
+        else {
+            addChatRoomMembers(recipients, feedEntryDAO.getParentResourceID());
+        }
+        return recipients;
+    }
+
+    private void addChatRoomMembers(Set<String> recipients, String chatRoomID) {
+        ChatRoomDAO chatRoomDAO = chatRoomID != null ? chatRooms.get(chatRoomID) : null;
+        if(chatRoomDAO == null) {
+            return;
+        }
+        if(chatRoomDAO.getChatRoomCreatorUserID() != null) {
+            recipients.add(chatRoomDAO.getChatRoomCreatorUserID());
+        }
+        if(chatRoomDAO.getChatRoomParticipantID() != null) {
+            recipients.add(chatRoomDAO.getChatRoomParticipantID());
+        }
+    }
+
+    //Called holding feedLock, drops the oldest entry once the feed is longer than feedMaxLength
+    private void appendToFeed(String userID, FeedEntryDAO feedEntryDAO) {
+        ConcurrentSkipListMap<Long, FeedEntryDAO> feed = feeds.get(userID);
+        if(feed == null) {
+            feed = new ConcurrentSkipListMap<Long, FeedEntryDAO>();
+            feeds.put(userID, feed);
+        }
+        feed.put(feedEntryDAO.getSequence(), copyOf(feedEntryDAO));
+
+        Integer length = feedLengths.get(userID);
+        int newLength = (length != null ? length : 0) + 1;
+        if(feedMaxLength > 0 && newLength > feedMaxLength) {
+            feed.pollFirstEntry();
+            newLength--;
+        }
+        feedLengths.put(userID, newLength);
+    }
+
+    //Called holding feedLock, moves the ChatMessage to the sequence of its latest change & drops the oldest change once
+    //the ChatRoom holds more than feedMaxLength
+    private void recordChatMessageChange(FeedEntryDAO feedEntryDAO) {
+        String chatRoomID = feedEntryDAO.getParentResourceID();
+        ConcurrentSkipListMap<Long, String> changes = chatMessageChanges.get(chatRoomID);
+        if(changes == null) {
+            changes = new ConcurrentSkipListMap<Long, String>();
+            chatMessageChanges.put(chatRoomID, changes);
+        }
+
+        Integer length = chatMessageChangeLengths.get(chatRoomID);
+        int newLength = length != null ? length : 0;
+        Long previousSequence = latestChatMessageChanges.put(feedEntryDAO.getSubResourceID(), feedEntryDAO.getSequence());
+        if(previousSequence != null && changes.remove(previousSequence) != null) {
+            newLength--;
+        }
+        changes.put(feedEntryDAO.getSequence(), feedEntryDAO.getSubResourceID());
+        newLength++;
+
+        if(feedMaxLength > 0 && newLength > feedMaxLength) {
+            latestChatMessageChanges.remove(changes.pollFirstEntry().getValue());
+            newLength--;
+        }
+        chatMessageChangeLengths.put(chatRoomID, newLength);
+    }
+
+    public List<ChatMessageDAO> getChangedChatMessageDAOs(String chatRoomID, long afterSequence) {
+        List<ChatMessageDAO> chatMessageDAOs = new ArrayList<ChatMessageDAO>();
+        ConcurrentSkipListMap<Long, String> changes = chatRoomID != null ? chatMessageChanges.get(chatRoomID) : null;
+        if(changes != null) {
+            for(String chatMessageID : changes.tailMap(afterSequence, false).values()) {
+                ChatMessageDAO chatMessageDAO = chatMessages.get(chatMessageID);
+                if(chatMessageDAO != null) {
+                    chatMessageDAOs.add(copyOf(chatMessageDAO));
+                }
+            }
+        }
+        return chatMessageDAOs;
+    }
+
+    public List<FeedEntryDAO> getFeedEntries(String userID, long afterSequence, int maxEntries) {
+        List<FeedEntryDAO> feedEntryDAOs = new ArrayList<FeedEntryDAO>();
+        ConcurrentSkipListMap<Long, FeedEntryDAO> feed = userID != null ? feeds.get(userID) : null;
+        if(feed != null) {
+            Iterator<FeedEntryDAO> entries = feed.tailMap(afterSequence, false).values().iterator();
+            while(entries.hasNext() && feedEntryDAOs.size() < maxEntries) {
+                feedEntryDAOs.add(copyOf(entries.next()));
+            }
+        }
+        return feedEntryDAOs;
+    }
+
+    private FeedEntryDAO copyOf(FeedEntryDAO feedEntryDAO) {
+        FeedEntryDAO copy = new FeedEntryDAO();
+        copy.setSequence(feedEntryDAO.getSequence());
+        copy.setNotificationType(feedEntryDAO.getNotificationType());
+        copy.setParentResourceID(feedEntryDAO.getParentResourceID());
+        copy.setSubResourceID(feedEntryDAO.getSubResourceID());
+        copy.setTimestamp(feedEntryDAO.getTimestamp());
+        return copy;
+    }
+
+    //Reads the entities named by the keys of a concurrent collection a chunk at a time. The collection's own iterator
+    //is weakly consistent, so no copy of the keys is taken.
+    private static abstract class KeyChunks< T > implements Iterator< List<T> > {
+
+        private final Iterator<String> keys;
+        private final int chunkSize;
+
+        KeyChunks(Iterator<String> keys, int chunkSize) {
+            this.keys = keys;
+            this.chunkSize = Math.max(1, chunkSize);
+        }
+
+        public boolean hasNext() {
+            return keys.hasNext();
+        }
+
+        public List<T> next() {
+            List<String> chunk = new ArrayList<String>();
+            while(keys.hasNext() && chunk.size() < chunkSize) {
+                chunk.add(keys.next());
+            }
+            if(chunk.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return read(chunk);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        protected abstract List<T> read(List<String> keys);
+    }
+
+    //An entry of a ChatRoom index, ordered by timestamp then key like a member of a Redis sorted set
+    private static class IndexEntry implements Comparable<IndexEntry> {
+
+        private final long score;
+        private final String key;
+
+        IndexEntry(long score, String key) {
+            this.score = score;
+            this.key = key;
+        }
+
+        public int compareTo(IndexEntry other) {
+            if(score != other.score) {
+                return score < other.score ? -1 : 1;
+            }
+            return key.compareTo(other.key);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof IndexEntry && compareTo((IndexEntry) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + (int) (score ^ (score >>> 32));
+        }
+    }
+}
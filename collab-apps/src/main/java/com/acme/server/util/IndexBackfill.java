@@ -0,0 +1,48 @@
+package com.acme.server.util;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ *  The IndexBackfill builds the secondary indexes for any data that was stored before the index existed:
+ *  the per ChatRoom index of ChatMessage keys & the per User index of ChatRoom keys.
+ *
+ *  It runs once on a background thread at start up so the server can take requests straight away, ChatRooms & Users
+ *  that have not yet been indexed will return partial results until it completes.
+ */
+@Component
+@ConditionalOnExpression("'${storage.backend:redis}' == 'redis'")
+public class IndexBackfill {
+
+    private static Logger log = Logger.getLogger(IndexBackfill.class);
+
+    @Autowired
+    private RedisDatabaseManager databaseManager;
+
+    @PostConstruct
+    public void start() {
+        log.info("Starting index backfill");
+
+        Thread backfillThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    int messagesIndexed = databaseManager.backfillChatMessageIndex();
+                    log.info("ChatMessage index backfill finished, messages indexed: " + messagesIndexed);
+
+                    int chatRoomsIndexed = databaseManager.backfillChatRoomMembershipIndex();
+                    log.info("ChatRoom membership index backfill finished, chatrooms indexed: " + chatRoomsIndexed);
+                }
+                catch (Exception e) {
+                    log.error("Index backfill failed, will retry on next start up", e);
+                }
+            }
+        }, "index-backfill");
+
+        backfillThread.setDaemon(true);
+        backfillThread.start();
+    }
+}
@@ -0,0 +1,56 @@
+package com.acme.server.util;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *  A JedisPool that exposes the state of the underlying object pool so the number of connections in use, idle &
+ *  waiting for a connection can be observed on GET /metrics & the pool sized against the number of request threads.
+ */
+public class InstrumentedJedisPool extends JedisPool {
+
+    public InstrumentedJedisPool(GenericObjectPoolConfig poolConfig, String host, int port, int timeout, String password,
+                                 int database) {
+        super(poolConfig, host, port, timeout, password, database);
+    }
+
+    /**
+     * Borrows a connection from the pool, recording how long the caller waited for it
+     *
+     * @return      Jedis - The connection borrowed, to be returned to the pool when the caller has finished with it
+     */
+    @Override
+    public Jedis getResource() {
+        long start = System.nanoTime();
+        try {
+            return super.getResource();
+        }
+        finally {
+            ServerMetrics.increment("redis.pool.checkouts", 1);
+            ServerMetrics.increment("redis.pool.checkoutwait.micros", (System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * Returns the current state of the pool, named in the same way as the ServerMetrics counters
+     *
+     * @return      <code>Map</code>
+     */
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+        statistics.put("redis.pool.active", (long) internalPool.getNumActive());
+        statistics.put("redis.pool.idle", (long) internalPool.getNumIdle());
+        statistics.put("redis.pool.waiters", (long) internalPool.getNumWaiters());
+        statistics.put("redis.pool.maxtotal", (long) internalPool.getMaxTotal());
+        statistics.put("redis.pool.created", internalPool.getCreatedCount());
+        statistics.put("redis.pool.destroyed", internalPool.getDestroyedCount());
+        statistics.put("redis.pool.evicted", internalPool.getDestroyedByEvictorCount());
+        statistics.put("redis.pool.checkoutwait.mean.millis", internalPool.getMeanBorrowWaitTimeMillis());
+        statistics.put("redis.pool.checkoutwait.max.millis", internalPool.getMaxBorrowWaitTimeMillis());
+        return statistics;
+    }
+}
@@ -0,0 +1,53 @@
+package com.acme.server.util;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ *  The JsonArrayWriter writes a JSON array to a response one element at a time. The elements are serialized by the same
+ *  ObjectMapper Spring uses for every other response, so a streamed array is byte for byte the List the endpoint used
+ *  to return. Given an ObjectMapper over a SmileFactory it writes the same array as Smile, binary JSON.
+ *
+ *  Elements are buffered until the writer is flushed, once per chunk read, or until the buffer fills.
+ */
+public class JsonArrayWriter implements ResourceArrayWriter {
+
+    private final JsonGenerator generator;
+    private final ObjectWriter writer;
+    private int elements;
+
+    public JsonArrayWriter(ObjectMapper objectMapper, HttpServletResponse response) throws IOException {
+        this(objectMapper, "application/json;charset=UTF-8", response);
+    }
+
+    public JsonArrayWriter(ObjectMapper objectMapper, String contentType, HttpServletResponse response) throws IOException {
+        response.setContentType(contentType);
+        this.generator = objectMapper.getFactory().createGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+        //Flushing is left to the caller, once per chunk rather than once per element
+        this.writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        generator.writeStartArray();
+    }
+
+    public void write(Object element) throws IOException {
+        writer.writeValue(generator, element);
+        elements++;
+    }
+
+    public void flush() throws IOException {
+        generator.flush();
+    }
+
+    public int close() throws IOException {
+        generator.writeEndArray();
+        generator.close();
+        ServerMetrics.increment("responses.streamed", 1);
+        ServerMetrics.increment("responses.streamed.elements", elements);
+        return elements;
+    }
+}
@@ -0,0 +1,92 @@
+package com.acme.server.util;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+/**
+ *  The PollIntervalAdvisor suggests how long a client should wait before its next poll of GET /notifications, so
+ *  clients poll fast only while the ChatRooms of their User are busy & back off while they are quiet.
+ *
+ *  The interval grows with the time since the User's feed last changed: it is that time divided by
+ *  notifications.pollHint.idleRatio, kept between notifications.pollHint.minSeconds & maxSeconds. A User whose feed
+ *  changed a few seconds ago is told to poll again straight away, one whose feed has been quiet for minutes is told to
+ *  wait up to the maximum. A User whose feed this server has not read recently is told to poll at the minimum.
+ *
+ *  While the system load per processor is above notifications.pollHint.busyLoad every interval is stretched in
+ *  proportion, still capped at the maximum, so a loaded server sheds poll traffic first from the quietest clients.
+ */
+@Component
+public class PollIntervalAdvisor {
+
+    private static Logger log = Logger.getLogger(PollIntervalAdvisor.class);
+
+    private static final long LOAD_SAMPLE_MILLIS = 1000;
+
+    private final RecentFeedCache recentFeedCache;
+    private final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+
+    private final int minSeconds;
+    private final int maxSeconds;
+    private final int idleRatio;
+    private final double busyLoad;
+
+    //The load per processor, read at most once every LOAD_SAMPLE_MILLIS as reading it is a system call
+    private volatile double loadPerProcessor;
+    private volatile long loadSampledAt;
+
+    @Autowired
+    public PollIntervalAdvisor(RecentFeedCache recentFeedCache,
+                               @Value("${notifications.pollHint.minSeconds:1}") int minSeconds,
+                               @Value("${notifications.pollHint.maxSeconds:60}") int maxSeconds,
+                               @Value("${notifications.pollHint.idleRatio:10}") int idleRatio,
+                               @Value("${notifications.pollHint.busyLoad:1.0}") double busyLoad) {
+        log.info("Entering PollIntervalAdvisor constructor, between " + minSeconds + "s & " + maxSeconds + "s");
+        this.recentFeedCache = recentFeedCache;
+        this.minSeconds = minSeconds;
+        this.maxSeconds = Math.max(minSeconds, maxSeconds);
+        this.idleRatio = Math.max(1, idleRatio);
+        this.busyLoad = busyLoad;
+    }
+
+    /**
+     * Suggests how long the client of a User should wait before polling again. Cheap enough to call on every poll, it
+     * reads only what this server already holds in memory.
+     *
+     * @param       userID - The User polling
+     * @return      The number of seconds to wait before the next poll
+     */
+    public int nextPollSeconds(String userID) {
+        long lastChange = recentFeedCache.lastChangeMillis(userID);
+        double seconds = minSeconds;
+        if(lastChange > 0) {
+            long idleMillis = Math.max(0, System.currentTimeMillis() - lastChange);
+            seconds = Math.max(minSeconds, idleMillis / 1000.0 / idleRatio);
+        }
+
+        double load = currentLoad();
+        if(busyLoad > 0 && load > busyLoad) {
+            seconds = seconds * load / busyLoad;
+        }
+
+        int nextPollSeconds = (int) Math.min(maxSeconds, Math.ceil(seconds));
+        ServerMetrics.increment("notifications.pollHint.seconds", nextPollSeconds);
+        ServerMetrics.increment("notifications.pollHint.count", 1);
+        return nextPollSeconds;
+    }
+
+    //The system load average per processor, 0 where the platform does not report one
+    private double currentLoad() {
+        long now = System.currentTimeMillis();
+        if(now - loadSampledAt >= LOAD_SAMPLE_MILLIS) {
+            double systemLoad = operatingSystem.getSystemLoadAverage();
+            loadPerProcessor = systemLoad > 0 ? systemLoad / operatingSystem.getAvailableProcessors() : 0;
+            loadSampledAt = now;
+        }
+        return loadPerProcessor;
+    }
+}
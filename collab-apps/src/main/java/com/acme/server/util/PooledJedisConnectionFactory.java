@@ -0,0 +1,59 @@
+package com.acme.server.util;
+
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.jedis.JedisConnection;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ *  A JedisConnectionFactory that hands out connections from an <code>InstrumentedJedisPool</code> rather than the pool
+ *  the Spring Data factory builds internally, which cannot be inspected. Connections are returned to the pool when
+ *  the RedisTemplate closes them.
+ */
+public class PooledJedisConnectionFactory extends JedisConnectionFactory {
+
+    private InstrumentedJedisPool pool;
+
+    public PooledJedisConnectionFactory(JedisPoolConfig poolConfig) {
+        super(poolConfig);
+        //The pool is created & owned by this factory, stop the parent creating a second one
+        setUsePool(false);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        pool = new InstrumentedJedisPool(getPoolConfig(), getHostName(), getPort(), getTimeout(), getPassword(),
+                getDatabase());
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (pool != null) {
+            pool.destroy();
+        }
+    }
+
+    @Override
+    public JedisConnection getConnection() {
+        Jedis jedis;
+        try {
+            jedis = pool.getResource();
+        }
+        catch (JedisConnectionException e) {
+            throw new RedisConnectionFailureException("Cannot get Jedis connection from the pool", e);
+        }
+
+        //The database is already selected by the pool when the connection is created
+        JedisConnection connection = new JedisConnection(jedis, pool, 0);
+        connection.setConvertPipelineAndTxResults(getConvertPipelineAndTxResults());
+        return postProcessConnection(connection);
+    }
+
+    public InstrumentedJedisPool getPool() {
+        return pool;
+    }
+}
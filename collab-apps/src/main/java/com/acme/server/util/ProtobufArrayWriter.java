@@ -0,0 +1,43 @@
+package com.acme.server.util;
+
+import com.google.protobuf.CodedOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ *  The ProtobufArrayWriter writes an array as the ResourceList message of proto/acme.proto, one element at a time. A
+ *  protobuf message has no start or end marker, each element is an entry of the repeated field for its type, so the
+ *  elements streamed make up the same message ProtobufCodec writes for the whole List.
+ */
+public class ProtobufArrayWriter implements ResourceArrayWriter {
+
+    private final OutputStream output;
+    private final CodedOutputStream out;
+    private int elements;
+
+    public ProtobufArrayWriter(HttpServletResponse response) throws IOException {
+        response.setContentType(ResourceEncodings.APPLICATION_PROTOBUF.toString());
+        this.output = response.getOutputStream();
+        this.out = CodedOutputStream.newInstance(output);
+    }
+
+    public void write(Object element) throws IOException {
+        ProtobufCodec.writeListElement(out, element);
+        elements++;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+        output.flush();
+    }
+
+    public int close() throws IOException {
+        out.flush();
+        output.close();
+        ServerMetrics.increment("responses.streamed", 1);
+        ServerMetrics.increment("responses.streamed.elements", elements);
+        return elements;
+    }
+}
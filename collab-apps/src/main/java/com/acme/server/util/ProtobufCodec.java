@@ -0,0 +1,353 @@
+package com.acme.server.util;
+
+import com.acme.server.model.ChatMessage;
+import com.acme.server.model.ChatRoom;
+import com.acme.server.model.Notification;
+import com.acme.server.model.SyncResult;
+import com.acme.server.model.User;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  The ProtobufCodec writes the User, ChatRoom, ChatMessage, Notification & SyncResult resources in the Protocol Buffers
+ *  wire format described by proto/acme.proto, for clients that send Accept: application/x-protobuf.
+ *
+ *  The encoding is written by hand against the schema rather than generated, so the model classes stay the single
+ *  representation of each resource & the JSON, Smile & protobuf bodies are built from the same objects. A field number
+ *  changed here must be changed in the schema.
+ *
+ *  A nested message is written after its length, so as generated protobuf classes do the lengths are counted first from
+ *  the same field list, see Fields, & the message is then written straight to the stream rather than to a buffer.
+ *  Each length is counted once & kept for the write, rather than counted again at every level it is nested in.
+ *
+ *  A List is written as a ResourceList, each element as one entry of the field for its type, so an array can be written
+ *  an element at a time with writeListElement.
+ */
+public final class ProtobufCodec {
+
+    //The fields of ResourceList holding each element type
+    private static final int LIST_USERS = 1;
+    private static final int LIST_CHATROOMS = 2;
+    private static final int LIST_CHATMESSAGES = 3;
+    private static final int LIST_NOTIFICATIONS = 4;
+
+    private ProtobufCodec() {
+    }
+
+    /**
+     * Tells whether a resource of a type can be written, a List is assumed to hold resources that can
+     *
+     * @param       type - The class of the resource
+     * @return      true if the schema has a message for it
+     */
+    public static boolean canEncode(Class<?> type) {
+        return User.class.isAssignableFrom(type) || ChatRoom.class.isAssignableFrom(type)
+                || ChatMessage.class.isAssignableFrom(type) || Notification.class.isAssignableFrom(type)
+                || SyncResult.class.isAssignableFrom(type) || List.class.isAssignableFrom(type);
+    }
+
+    /**
+     * Writes a resource, or a List of them as a ResourceList
+     *
+     * @param       resource - The resource to write
+     * @param       output - The stream written to, flushed but not closed
+     */
+    public static void encode(Object resource, OutputStream output) throws IOException {
+        CodedOutputStream out = CodedOutputStream.newInstance(output);
+        if(resource instanceof List) {
+            for(Object element : (List<?>) resource) {
+                writeListElement(out, element);
+            }
+        }
+        else {
+            Sizer sizer = new Sizer();
+            writeFields(sizer, resource);
+            writeFields(new Writer(out, sizer), resource);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes one element of a ResourceList
+     *
+     * @param       out - The stream the list is written to
+     * @param       element - The element, a User, ChatRoom, ChatMessage or Notification
+     */
+    public static void writeListElement(CodedOutputStream out, Object element) throws IOException {
+        int field;
+        if(element instanceof User) {
+            field = LIST_USERS;
+        }
+        else if(element instanceof ChatRoom) {
+            field = LIST_CHATROOMS;
+        }
+        else if(element instanceof ChatMessage) {
+            field = LIST_CHATMESSAGES;
+        }
+        else if(element instanceof Notification) {
+            field = LIST_NOTIFICATIONS;
+        }
+        else {
+            throw new IllegalArgumentException("No protobuf list field for " + element);
+        }
+        Sizer sizer = new Sizer();
+        sizer.message(field, element);
+        new Writer(out, sizer).message(field, element);
+    }
+
+    /**
+     * Writes the attributes Spring Boot gives an error response as an Error message
+     *
+     * @param       errorAttributes - The timestamp, status, error, exception, message & path of the error
+     * @return      <code>byte[]</code>
+     */
+    public static byte[] encodeError(Map<String, Object> errorAttributes) throws IOException {
+        Sizer sizer = new Sizer();
+        writeError(sizer, errorAttributes);
+        byte[] bytes = new byte[sizer.size];
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        writeError(new Writer(out, sizer), errorAttributes);
+        out.checkNoSpaceLeft();
+        return bytes;
+    }
+
+    private static void writeError(Fields fields, Map<String, Object> errorAttributes) throws IOException {
+        Object timestamp = errorAttributes.get("timestamp");
+        if(timestamp instanceof Date) {
+            fields.int64(1, ((Date) timestamp).getTime());
+        }
+        Object status = errorAttributes.get("status");
+        if(status instanceof Integer) {
+            fields.int32(2, (Integer) status);
+        }
+        fields.string(3, toString(errorAttributes.get("error")));
+        fields.string(4, toString(errorAttributes.get("exception")));
+        fields.string(5, toString(errorAttributes.get("message")));
+        fields.string(6, toString(errorAttributes.get("path")));
+    }
+
+    private static String toString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static void writeFields(Fields fields, Object resource) throws IOException {
+        if(resource == null) {
+            return;
+        }
+        if(resource instanceof User) {
+            writeUser(fields, (User) resource);
+        }
+        else if(resource instanceof ChatRoom) {
+            writeChatRoom(fields, (ChatRoom) resource);
+        }
+        else if(resource instanceof ChatMessage) {
+            writeChatMessage(fields, (ChatMessage) resource);
+        }
+        else if(resource instanceof Notification) {
+            writeNotification(fields, (Notification) resource);
+        }
+        else if(resource instanceof SyncResult) {
+            writeSyncResult(fields, (SyncResult) resource);
+        }
+        else if(resource instanceof ActionLinks) {
+            writeActionLink(fields, (ActionLinks) resource);
+        }
+        else {
+            throw new IllegalArgumentException("No protobuf message for " + resource);
+        }
+    }
+
+    private static void writeUser(Fields fields, User user) throws IOException {
+        fields.string(1, user.getUserID());
+        fields.string(2, user.getFirstName());
+        fields.string(3, user.getLastName());
+        fields.string(4, user.getNickname());
+        fields.messages(5, user.getNextActionLinks());
+    }
+
+    private static void writeChatMessage(Fields fields, ChatMessage chatMessage) throws IOException {
+        fields.string(1, chatMessage.getChatMessageID());
+        fields.string(2, chatMessage.getChatRoomID());
+        fields.string(3, chatMessage.getFromParticipantID());
+        fields.string(4, chatMessage.getMessage());
+        fields.int64(5, chatMessage.getTimestamp());
+        fields.string(6, chatMessage.getReadReceipt());
+        fields.messages(7, chatMessage.getNextActionLinks());
+    }
+
+    private static void writeChatRoom(Fields fields, ChatRoom chatRoom) throws IOException {
+        fields.string(1, chatRoom.getChatRoomID());
+        fields.string(2, chatRoom.getTopic());
+        fields.messages(3, chatRoom.getParticipants());
+        fields.messages(4, chatRoom.getChatMessages());
+        fields.messages(5, chatRoom.getNextActionLinks());
+    }
+
+    private static void writeNotification(Fields fields, Notification notification) throws IOException {
+        fields.int64(1, notification.getTimestamp());
+        fields.int64(2, notification.getSequence());
+        fields.string(3, notification.getParentResourceIDModified());
+        fields.string(4, notification.getSubResourceIDModified());
+        if(notification.getLinks() != null) {
+            for(String link : notification.getLinks()) {
+                fields.string(5, link);
+            }
+        }
+        if(notification.getCount() != null) {
+            fields.int32(6, notification.getCount());
+        }
+        if(notification.getChatMessage() != null) {
+            fields.message(7, notification.getChatMessage());
+        }
+        fields.string(8, notification.getChatRoomTopic());
+        if(notification.getUser() != null) {
+            fields.message(9, notification.getUser());
+        }
+    }
+
+    private static void writeSyncResult(Fields fields, SyncResult syncResult) throws IOException {
+        fields.messages(1, syncResult.getChatRooms());
+        fields.messages(2, syncResult.getChatMessages());
+        fields.messages(3, syncResult.getUsers());
+        fields.string(4, syncResult.getNextToken());
+        fields.bool(5, syncResult.isMore());
+    }
+
+    private static void writeActionLink(Fields fields, ActionLinks actionLink) throws IOException {
+        fields.string(1, actionLink.getHref());
+        fields.string(2, actionLink.getRel());
+        fields.string(3, actionLink.getMethod());
+    }
+
+    //The length of a string in UTF-8 as String.getBytes encodes it, an unpaired surrogate is replaced by a one byte '?'
+    private static int utf8Length(String value) {
+        int length = 0;
+        for(int i = 0;i<value.length();i++){
+            char c = value.charAt(i);
+            if(c < 0x80) {
+                length += 1;
+            }
+            else if(c < 0x800) {
+                length += 2;
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                length += 1;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    //The fields of a message, written to the stream or only counted. A null string is left out, as it is from the JSON
+    private static abstract class Fields {
+
+        abstract void string(int field, String value) throws IOException;
+
+        abstract void int64(int field, long value) throws IOException;
+
+        abstract void int32(int field, int value) throws IOException;
+
+        abstract void bool(int field, boolean value) throws IOException;
+
+        abstract void message(int field, Object message) throws IOException;
+
+        void messages(int field, List<?> messages) throws IOException {
+            if(messages == null) {
+                return;
+            }
+            //A missing participant is kept as an empty message so the others keep their positions
+            for(Object message : messages) {
+                message(field, message);
+            }
+        }
+    }
+
+    //Counts the length of a message & of every message nested in it, kept in the order the Writer will need them
+    private static class Sizer extends Fields {
+
+        int size;
+        int[] lengths = new int[16];
+        int messages;
+
+        void string(int field, String value) {
+            if(value != null) {
+                int length = utf8Length(value);
+                size += CodedOutputStream.computeTagSize(field) + CodedOutputStream.computeRawVarint32Size(length) + length;
+            }
+        }
+
+        void int64(int field, long value) {
+            size += CodedOutputStream.computeInt64Size(field, value);
+        }
+
+        void int32(int field, int value) {
+            size += CodedOutputStream.computeInt32Size(field, value);
+        }
+
+        void bool(int field, boolean value) {
+            size += CodedOutputStream.computeBoolSize(field, value);
+        }
+
+        void message(int field, Object message) throws IOException {
+            if(messages == lengths.length) {
+                lengths = Arrays.copyOf(lengths, messages * 2);
+            }
+            int index = messages++;
+            int outer = size;
+            size = 0;
+            writeFields(this, message);
+            int length = size;
+            lengths[index] = length;
+            size = outer + CodedOutputStream.computeTagSize(field) + CodedOutputStream.computeRawVarint32Size(length) + length;
+        }
+    }
+
+    private static class Writer extends Fields {
+
+        private final CodedOutputStream out;
+        private final int[] lengths;
+        private int messages;
+
+        Writer(CodedOutputStream out, Sizer sizer) {
+            this.out = out;
+            this.lengths = sizer.lengths;
+        }
+
+        void string(int field, String value) throws IOException {
+            if(value != null) {
+                out.writeString(field, value);
+            }
+        }
+
+        void int64(int field, long value) throws IOException {
+            out.writeInt64(field, value);
+        }
+
+        void int32(int field, int value) throws IOException {
+            out.writeInt32(field, value);
+        }
+
+        void bool(int field, boolean value) throws IOException {
+            out.writeBool(field, value);
+        }
+
+        void message(int field, Object message) throws IOException {
+            out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeRawVarint32(lengths[messages++]);
+            writeFields(this, message);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.acme.server.util;
+
+import org.springframework.boot.autoconfigure.web.BasicErrorController;
+import org.springframework.boot.autoconfigure.web.ErrorAttributes;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ *  Spring Boot's error controller with an error body for clients that only accept protobuf. Without it the error
+ *  attributes, a Map with no protobuf message, could not be written & every error e.g. 404 Not Found or 413 Request
+ *  Entity Too Large would reach such a client as 406 Not Acceptable. The status is kept & the body is the Error message
+ *  of proto/acme.proto.
+ */
+public class ProtobufErrorController extends BasicErrorController {
+
+    public ProtobufErrorController(ErrorAttributes errorAttributes) {
+        super(errorAttributes);
+    }
+
+    @RequestMapping(value = "${error.path:/error}", produces = "application/x-protobuf")
+    public ResponseEntity<byte[]> errorProtobuf(HttpServletRequest request) throws IOException {
+        ResponseEntity<Map<String, Object>> error = error(request);
+        return new ResponseEntity<byte[]>(ProtobufCodec.encodeError(error.getBody()), error.getStatusCode());
+    }
+}
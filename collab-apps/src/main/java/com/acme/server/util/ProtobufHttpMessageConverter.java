@@ -0,0 +1,43 @@
+package com.acme.server.util;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+
+/**
+ *  Writes the resources returned by the controllers as Protocol Buffers, with the ProtobufCodec, when the client
+ *  sends Accept: application/x-protobuf. A response with no protobuf message in proto/acme.proto, e.g. GET /metrics, is
+ *  left to the other converters & answered 406 Not Acceptable if the client accepts nothing else.
+ *
+ *  Request bodies are bound from JSON by the RequestBodyParser, so this converter only writes.
+ */
+public class ProtobufHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+    public ProtobufHttpMessageConverter() {
+        super(ResourceEncodings.APPLICATION_PROTOBUF);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return ProtobufCodec.canEncode(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        throw new HttpMessageNotReadableException("Request bodies are read from JSON only");
+    }
+
+    @Override
+    protected void writeInternal(Object resource, HttpOutputMessage outputMessage) throws IOException {
+        ProtobufCodec.encode(resource, outputMessage.getBody());
+    }
+}
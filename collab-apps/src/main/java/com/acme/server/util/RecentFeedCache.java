@@ -0,0 +1,339 @@
+package com.acme.server.util;
+
+import com.acme.server.dao.FeedEntryDAO;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *  The RecentFeedCache keeps the newest entries of the feeds of the Users polling this server in memory, so the polls,
+ *  streams & sockets that only ask about the last few seconds of activity are answered without a read of the data store.
+ *
+ *  Each User's cache is a bounded window of the newest entries of their feed, complete for every sequence after the
+ *  one it covers from. A read whose cursor is inside the window is answered from it while the window is current. The
+ *  window stops being current when a change to the User's feed is reported to feedsChanged, by this or any other
+ *  server, or when it has not been refreshed for notifications.recentFeed.maxAgeMillis, which bounds how stale a read
+ *  can be if a change event is ever lost. The next read then fetches only the entries after the newest one held.
+ *
+ *  A window is never changed in place. A refreshed copy is swapped in with a compare & set, so reads take no locks &
+ *  never see a half written window. Only one thread refreshes a User's window at a time, the others read the data
+ *  store directly meanwhile.
+ *
+ *  Windows not read for notifications.recentFeed.idleSeconds are evicted, as are the least recently read windows
+ *  whenever the entries held add up to more than notifications.recentFeed.maxEntries. Hits, refreshes & misses are
+ *  counted on GET /metrics.
+ */
+@Component
+public class RecentFeedCache {
+
+    private static Logger log = Logger.getLogger(RecentFeedCache.class);
+
+    private final DatabaseManager databaseManager;
+
+    //The cache of each User read recently
+    private final ConcurrentMap<String, UserFeed> userFeeds = new ConcurrentHashMap<String, UserFeed>();
+
+    private final int entriesPerUser;
+    private final int maxEntries;
+    private final long maxAgeMillis;
+    private final long idleMillis;
+
+    //Evicts idle windows & keeps the entries held within maxEntries
+    private final ScheduledExecutorService evictionExecutor;
+    private long reportedUsers;
+    private long reportedEntries;
+
+    @Autowired
+    public RecentFeedCache(DatabaseManager databaseManager,
+                           @Value("${notifications.recentFeed.entriesPerUser:64}") int entriesPerUser,
+                           @Value("${notifications.recentFeed.maxEntries:200000}") int maxEntries,
+                           @Value("${notifications.recentFeed.maxAgeMillis:5000}") long maxAgeMillis,
+                           @Value("${notifications.recentFeed.idleSeconds:120}") int idleSeconds) {
+        log.info("Entering RecentFeedCache constructor, entries per User: " + entriesPerUser);
+        this.databaseManager = databaseManager;
+        this.entriesPerUser = entriesPerUser;
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+        this.idleMillis = idleSeconds * 1000L;
+
+        this.evictionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "recent-feed-eviction");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        if(entriesPerUser > 0) {
+            evictionExecutor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        evict();
+                    }
+                    catch (RuntimeException e) {
+                        log.error("Recent feed eviction failed", e);
+                    }
+                }
+            }, 5, 5, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        evictionExecutor.shutdownNow();
+    }
+
+    /**
+     * Retrieves the entries of a User's feed after the sequence given, from the cache when the cursor is inside the
+     * User's window & the window is current, otherwise from the data store
+     *
+     * @param       userID - The User whose feed is read
+     * @param       afterSequence - The sequence number of the last entry the client has seen, 0 to read from the start
+     * @param       maxEntries - The maximum number of entries to return
+     * @return      <code>List</code> The FeedEntryDAOs, oldest entry first
+     */
+    public List<FeedEntryDAO> getFeedEntries(String userID, long afterSequence, int maxEntries) {
+        if(entriesPerUser <= 0 || userID == null) {
+            return databaseManager.getFeedEntries(userID, afterSequence, maxEntries);
+        }
+
+        //Taken before anything is read so a change reported during the read leaves the window installed stale
+        UserFeed userFeed = userFeedFor(userID);
+        userFeed.lastRead = System.currentTimeMillis();
+        long changes = userFeed.changes.get();
+        FeedWindow window = userFeed.window.get();
+
+        if(window != null && afterSequence >= window.coveredAfter) {
+            if(isCurrent(window, changes)) {
+                ServerMetrics.increment("notifications.recentFeed.hits", 1);
+                return window.entriesAfter(afterSequence, maxEntries);
+            }
+
+            FeedWindow refreshed = refresh(userID, userFeed, window, changes);
+            if(refreshed != null) {
+                ServerMetrics.increment("notifications.recentFeed.refreshes", 1);
+                return refreshed.entriesAfter(afterSequence, maxEntries);
+            }
+        }
+
+        ServerMetrics.increment("notifications.recentFeed.misses", 1);
+        List<FeedEntryDAO> feedEntryDAOs = databaseManager.getFeedEntries(userID, afterSequence, maxEntries);
+
+        //A short read holds everything after the cursor, so it can start a window if there is none to extend
+        if(feedEntryDAOs.size() < maxEntries && (window == null || afterSequence < window.coveredAfter)) {
+            FeedWindow seeded = new FeedWindow(afterSequence, new FeedEntryDAO[0], changes).append(feedEntryDAOs,
+                    entriesPerUser, changes);
+            userFeed.window.compareAndSet(window, seeded);
+        }
+        return feedEntryDAOs;
+    }
+
+    /**
+     * Marks the windows of the Users given as no longer current. Must be called before the clients of those Users are
+     * woken, so the reads they make see the change.
+     *
+     * @param       userIDs - The Users whose feeds have new entries
+     */
+    public void feedsChanged(Set<String> userIDs) {
+        for(String userID : userIDs) {
+            UserFeed userFeed = userFeeds.get(userID);
+            if(userFeed != null) {
+                userFeed.changes.incrementAndGet();
+                userFeed.lastChanged = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Returns when the feed of a User last changed as far as this server knows: the latest change reported to
+     * feedsChanged or the newest entry held in the User's window, whichever is later. A User with neither is taken to
+     * have been quiet since this server started caching their feed.
+     *
+     * @param       userID - The User whose feed is checked
+     * @return      The time of the last change in milliseconds, 0 if the User's feed was not read recently
+     */
+    public long lastChangeMillis(String userID) {
+        UserFeed userFeed = userID != null ? userFeeds.get(userID) : null;
+        if(userFeed == null) {
+            return 0;
+        }
+        FeedWindow window = userFeed.window.get();
+        long newestEntry = window != null && window.entries.length > 0
+                ? window.entries[window.entries.length - 1].getTimestamp() : 0;
+        return Math.max(Math.max(userFeed.lastChanged, newestEntry), userFeed.cachedSince);
+    }
+
+    private boolean isCurrent(FeedWindow window, long changes) {
+        return window.changes == changes && System.currentTimeMillis() - window.refreshedAt < maxAgeMillis;
+    }
+
+    //Reads the entries after the newest one held & swaps in the extended window, null if another thread is already
+    //refreshing or more entries arrived than fit in the window
+    private FeedWindow refresh(String userID, UserFeed userFeed, FeedWindow window, long changes) {
+        if(!userFeed.refreshing.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            List<FeedEntryDAO> newEntries = databaseManager.getFeedEntries(userID, window.newestSequence(),
+                    entriesPerUser);
+            if(newEntries.size() >= entriesPerUser) {
+                userFeed.window.compareAndSet(window, null);
+                return null;
+            }
+
+            FeedWindow refreshed = window.append(newEntries, entriesPerUser, changes);
+            return userFeed.window.compareAndSet(window, refreshed) ? refreshed : null;
+        }
+        finally {
+            userFeed.refreshing.set(false);
+        }
+    }
+
+    private UserFeed userFeedFor(String userID) {
+        UserFeed userFeed = userFeeds.get(userID);
+        if(userFeed == null) {
+            UserFeed newUserFeed = new UserFeed();
+            userFeed = userFeeds.putIfAbsent(userID, newUserFeed);
+            if(userFeed == null) {
+                userFeed = newUserFeed;
+            }
+        }
+        return userFeed;
+    }
+
+    //Drops the windows not read within idleMillis, then the least recently read until the entries held fit maxEntries
+    private void evict() {
+        long idleBefore = System.currentTimeMillis() - idleMillis;
+        List<Map.Entry<String, UserFeed>> remaining = new ArrayList<Map.Entry<String, UserFeed>>();
+        long entriesHeld = 0;
+        for(Map.Entry<String, UserFeed> userFeed : userFeeds.entrySet()) {
+            if(userFeed.getValue().lastRead < idleBefore) {
+                userFeeds.remove(userFeed.getKey(), userFeed.getValue());
+            }
+            else {
+                remaining.add(userFeed);
+                entriesHeld += userFeed.getValue().size();
+            }
+        }
+
+        if(entriesHeld > maxEntries) {
+            Collections.sort(remaining, new Comparator<Map.Entry<String, UserFeed>>() {
+                public int compare(Map.Entry<String, UserFeed> a, Map.Entry<String, UserFeed> b) {
+                    long difference = a.getValue().lastRead - b.getValue().lastRead;
+                    return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+                }
+            });
+            for(int i = 0;i<remaining.size() && entriesHeld > maxEntries;i++){
+                entriesHeld -= remaining.get(i).getValue().size();
+                userFeeds.remove(remaining.get(i).getKey(), remaining.get(i).getValue());
+            }
+        }
+
+        //Reported as gauges by incrementing the counters by the change since the last run
+        long users = userFeeds.size();
+        ServerMetrics.increment("notifications.recentFeed.users", users - reportedUsers);
+        ServerMetrics.increment("notifications.recentFeed.entries", entriesHeld - reportedEntries);
+        reportedUsers = users;
+        reportedEntries = entriesHeld;
+    }
+
+    private static FeedEntryDAO copyOf(FeedEntryDAO feedEntryDAO) {
+        FeedEntryDAO copy = new FeedEntryDAO();
+        copy.setSequence(feedEntryDAO.getSequence());
+        copy.setNotificationType(feedEntryDAO.getNotificationType());
+        copy.setParentResourceID(feedEntryDAO.getParentResourceID());
+        copy.setSubResourceID(feedEntryDAO.getSubResourceID());
+        copy.setTimestamp(feedEntryDAO.getTimestamp());
+        return copy;
+    }
+
+    //The cache of one User: the current window, the number of changes reported for the User, when it was last read,
+    //when the last change was reported & when it was first read
+    private static class UserFeed {
+
+        private final AtomicReference<FeedWindow> window = new AtomicReference<FeedWindow>();
+        private final AtomicLong changes = new AtomicLong();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile long lastRead;
+        private volatile long lastChanged;
+        private final long cachedSince = System.currentTimeMillis();
+
+        int size() {
+            FeedWindow current = window.get();
+            return current != null ? current.entries.length : 0;
+        }
+    }
+
+    //The newest entries of a User's feed, oldest first, holding every entry with a sequence after coveredAfter as of
+    //the number of changes given. Never changed once built.
+    private static class FeedWindow {
+
+        private final long coveredAfter;
+        private final FeedEntryDAO[] entries;
+        private final long changes;
+        private final long refreshedAt;
+
+        FeedWindow(long coveredAfter, FeedEntryDAO[] entries, long changes) {
+            this.coveredAfter = coveredAfter;
+            this.entries = entries;
+            this.changes = changes;
+            this.refreshedAt = System.currentTimeMillis();
+        }
+
+        long newestSequence() {
+            return entries.length > 0 ? entries[entries.length - 1].getSequence() : coveredAfter;
+        }
+
+        //A copy with the new entries added as of the number of changes given, keeping the newest capacity entries &
+        //moving coveredAfter past those dropped
+        FeedWindow append(List<FeedEntryDAO> newEntries, int capacity, long changesNow) {
+            int total = entries.length + newEntries.size();
+            int dropped = Math.max(0, total - capacity);
+            FeedEntryDAO[] kept = new FeedEntryDAO[total - dropped];
+
+            long newCoveredAfter = coveredAfter;
+            for(int i = 0;i<total;i++){
+                FeedEntryDAO entry = i < entries.length ? entries[i] : copyOf(newEntries.get(i - entries.length));
+                if(i < dropped) {
+                    newCoveredAfter = entry.getSequence();
+                }
+                else {
+                    kept[i - dropped] = entry;
+                }
+            }
+            return new FeedWindow(newCoveredAfter, kept, changesNow);
+        }
+
+        List<FeedEntryDAO> entriesAfter(long afterSequence, int maxEntries) {
+            List<FeedEntryDAO> found = new ArrayList<FeedEntryDAO>();
+            for(int i = 0;i<entries.length && found.size() < maxEntries;i++){
+                if(entries[i].getSequence() > afterSequence) {
+                    found.add(copyOf(entries[i]));
+                }
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.acme.server.util;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ *  Creates the single Redis connection pool & RedisTemplate shared by the whole server. The pool is configured from
+ *  the redis.* properties in application.properties, see that file for the defaults.
+ *
+ *  The pool should be sized against the number of request handling threads, a request thread that finds every
+ *  connection in use waits up to redis.pool.maxWaitMillis for one to be returned. The checkout wait & the number of
+ *  active, idle & waiting connections are reported on GET /metrics.
+ *
+ *  One connection is held for the life of the server by the subscription to the feed change channels, so it is counted
+ *  as active in the pool. Events are handed to the FeedListeners on the subscription thread itself, the listeners only
+ *  queue work for their own threads.
+ */
+@Configuration
+@ConditionalOnExpression("'${storage.backend:redis}' == 'redis'")
+public class RedisConfiguration {
+
+    private static Logger log = Logger.getLogger(RedisConfiguration.class);
+
+    @Value("${redis.host:127.0.0.1}")
+    private String host;
+
+    @Value("${redis.port:6379}")
+    private int port;
+
+    @Value("${redis.timeout:5000}")
+    private int timeout;
+
+    @Value("${redis.pool.maxTotal:64}")
+    private int maxTotal;
+
+    @Value("${redis.pool.maxIdle:16}")
+    private int maxIdle;
+
+    @Value("${redis.pool.minIdle:4}")
+    private int minIdle;
+
+    @Value("${redis.pool.maxWaitMillis:2000}")
+    private long maxWaitMillis;
+
+    @Value("${redis.pool.timeBetweenEvictionRunsMillis:30000}")
+    private long timeBetweenEvictionRunsMillis;
+
+    @Value("${redis.pool.minEvictableIdleTimeMillis:60000}")
+    private long minEvictableIdleTimeMillis;
+
+    @Value("${redis.pool.testWhileIdle:true}")
+    private boolean testWhileIdle;
+
+    @Bean
+    public JedisPoolConfig jedisPoolConfig() {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(maxTotal);
+        poolConfig.setMaxIdle(maxIdle);
+        poolConfig.setMinIdle(minIdle);
+        poolConfig.setMaxWaitMillis(maxWaitMillis);
+        poolConfig.setBlockWhenExhausted(true);
+        poolConfig.setTimeBetweenEvictionRunsMillis(timeBetweenEvictionRunsMillis);
+        poolConfig.setMinEvictableIdleTimeMillis(minEvictableIdleTimeMillis);
+        poolConfig.setTestWhileIdle(testWhileIdle);
+        return poolConfig;
+    }
+
+    @Bean
+    public PooledJedisConnectionFactory jedisConnectionFactory() {
+        log.info("Creating Redis connection pool for " + host + ":" + port + " maxTotal: " + maxTotal);
+
+        PooledJedisConnectionFactory jedisConnectionFactory = new PooledJedisConnectionFactory(jedisPoolConfig());
+        jedisConnectionFactory.setHostName(host);
+        jedisConnectionFactory.setPort(port);
+        jedisConnectionFactory.setTimeout(timeout);
+        return jedisConnectionFactory;
+    }
+
+    @Bean
+    public RedisMessageListenerContainer feedChangeListenerContainer() {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(jedisConnectionFactory());
+
+        //The subscription blocks its thread for good, events are then dispatched on that same thread
+        SimpleAsyncTaskExecutor subscriptionExecutor = new SimpleAsyncTaskExecutor("feed-subscription-");
+        subscriptionExecutor.setDaemon(true);
+        container.setSubscriptionExecutor(subscriptionExecutor);
+        container.setTaskExecutor(new SyncTaskExecutor());
+        return container;
+    }
+
+    @Bean
+    public RedisTemplate< String, Object > redisTemplate() {
+        final RedisTemplate< String, Object > template =  new RedisTemplate< String, Object >();
+        template.setConnectionFactory( jedisConnectionFactory() );
+        template.setKeySerializer( new StringRedisSerializer() );
+        template.setHashKeySerializer( new StringRedisSerializer() );
+        template.setHashValueSerializer( new GenericToStringSerializer< Object >( Object.class ) );
+        template.setValueSerializer( new GenericToStringSerializer< Object >( Object.class ) );
+        template.afterPropertiesSet();
+
+        log.info("Template created " + template.toString());
+        return template;
+    }
+}
@@ -0,0 +1,1105 @@
+package com.acme.server.util;
+
+import com.acme.server.dao.ChatRoomAggregate;
+import com.acme.server.dao.ChatRoomDAO;
+import com.acme.server.dao.FeedEntryDAO;
+import com.acme.server.dao.FeedResources;
+import com.acme.server.model.ChatMessage;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import com.acme.server.model.ChatRoom;
+import com.acme.server.dao.ChatMessageDAO;
+import com.acme.server.model.User;
+
+
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ *  The RedisDatabaseManager stores the Users, ChatRooms & ChatMessages as Redis hashes keyed by their IDs with sorted
+ *  set & set indexes of the ChatMessages in each ChatRoom & the ChatRooms of each User. The change feed of each User is
+ *  a sorted set scored by sequence number. It is the default storage backend & is used when storage.backend is redis
+ *  or not set.
+ *
+ *  Every feed append publishes the Users written to on their change channels. This server holds a single pattern
+ *  subscription to all of those channels, shared by every client connected to it, & hands each event to the
+ *  FeedListeners, so a change made through any server reaches the long polls, streams & sockets held by this one.
+ */
+@Component
+@ConditionalOnExpression("'${storage.backend:redis}' == 'redis'")
+public class RedisDatabaseManager implements DatabaseManager {
+
+    private static Logger log = Logger.getLogger(RedisDatabaseManager.class);
+    private final RedisTemplate< String, Object > template;
+
+    //Every ChatRoom keeps a sorted set of the keys of its ChatMessages, scored by the time each message was created.
+    //Room history is read back in order from this index rather than running KEYS against the whole keyspace.
+    private static final String CHATMESSAGE_INDEX_PREFIX = "MESSAGEINDEX:";
+
+    //Set once the background backfill has indexed all ChatMessages that were stored before the index existed
+    private static final String CHATMESSAGE_INDEX_BACKFILL_KEY = "MESSAGEINDEX:BACKFILLED";
+
+    //Every User keeps a set of the ChatRoom keys they are a participant of so a User's ChatRooms can be listed
+    //without loading every ChatRoom in the system
+    private static final String CHATROOM_MEMBERSHIP_PREFIX = "USERCHATROOMS:";
+
+    //Set once the background backfill has indexed the participants of ChatRooms stored before the index existed
+    private static final String CHATROOM_MEMBERSHIP_BACKFILL_KEY = "USERCHATROOMS:BACKFILLED";
+
+    //The COUNT hint of each SCAN the backfills send, enough keys per round trip without blocking Redis for long
+    private static final int BACKFILL_SCAN_COUNT = 1000;
+
+    //Every User keeps a sorted set of the changes made to the resources they can see, scored by a sequence number taken
+    //from a single counter so a client can poll for everything after the last entry it has seen
+    private static final String FEED_PREFIX = "FEED:";
+    private static final String FEED_SEQUENCE_KEY = "FEED:SEQUENCE";
+
+    //Every ChatRoom keeps a sorted set of the ChatMessages changed in it, scored by the sequence of their latest change
+    private static final String CHATMESSAGE_CHANGES_PREFIX = "MESSAGECHANGES:";
+
+    //Each feed append publishes the highest sequence written to a User's feed on the channel of that User
+    private static final String FEED_CHANNEL_PREFIX = "FEEDCHANGED:";
+
+    //The result type of the server side scripts, each replies with a list. There is no class literal of a List<Object>,
+    //so List.class is cast once here
+    @SuppressWarnings("unchecked")
+    private static final Class< List<Object> > SCRIPT_LIST_RESULT = (Class< List<Object> >) (Class<?>) List.class;
+
+    //Server side script returning a ChatRoom, its Users & latest ChatMessages in one reply. It is sent by its SHA1 digest
+    //& only sent in full the first time it is used on a Redis instance.
+    private final DefaultRedisScript< List<Object> > chatRoomScript;
+
+    //Server side script returning one page of a ChatRoom's ChatMessages, found from a cursor in the index, in one reply
+    private final DefaultRedisScript< List<Object> > chatMessagePageScript;
+
+    //Server side script that sets fields of an existing hash & returns the hash after the update in one reply
+    private final DefaultRedisScript< List<Object> > hashUpdateScript;
+
+    //Server side script that numbers a batch of feed entries & appends them to the feeds of the Users affected
+    private final DefaultRedisScript< List<Object> > feedAppendScript;
+
+    //The number of entities written per pipeline flush by the bulk create methods
+    private final int bulkWriteChunkSize;
+
+    //The number of the newest entries kept in each User's feed
+    private final int feedMaxLength;
+
+    //Told of every feed change event received by the subscription of this server
+    private final List<FeedListener> feedListeners = new CopyOnWriteArrayList<FeedListener>();
+
+    @Autowired
+    public RedisDatabaseManager(RedisTemplate< String, Object > template,
+                           RedisMessageListenerContainer feedChangeListenerContainer,
+                           @Value("${redis.bulkWrite.chunkSize:1000}") int bulkWriteChunkSize,
+                           @Value("${notifications.feed.maxLength:1000}") int feedMaxLength) {
+        log.info("Entering RedisManager constructor");
+        this.template = template;
+        this.bulkWriteChunkSize = bulkWriteChunkSize;
+        this.feedMaxLength = feedMaxLength;
+
+        feedChangeListenerContainer.addMessageListener(new FeedChangeSubscriber(),
+                new PatternTopic(FEED_CHANNEL_PREFIX + "*"));
+
+        chatRoomScript = new DefaultRedisScript< List<Object> >();
+        chatRoomScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/chatroom.lua")));
+        chatRoomScript.setResultType(SCRIPT_LIST_RESULT);
+
+        chatMessagePageScript = new DefaultRedisScript< List<Object> >();
+        chatMessagePageScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/chatmessage_page.lua")));
+        chatMessagePageScript.setResultType(SCRIPT_LIST_RESULT);
+
+        hashUpdateScript = new DefaultRedisScript< List<Object> >();
+        hashUpdateScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/hash_update.lua")));
+        hashUpdateScript.setResultType(SCRIPT_LIST_RESULT);
+
+        feedAppendScript = new DefaultRedisScript< List<Object> >();
+        feedAppendScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/feed_append.lua")));
+        feedAppendScript.setResultType(SCRIPT_LIST_RESULT);
+    }
+
+    public void setUser(final User user) {
+        log.info("Entering DatabaseManager.setUser");
+
+        final String key = user.getUserID();
+        log.info("Redis Key for new User entry: " + key);
+
+        //What is the success or failure return parameter?
+        log.info("Pushing new User to Redis");
+        template.opsForHash().putAll(key, userProperties(user));
+        ServerMetrics.recordRoundTrip();
+    }
+
+    /**
+     * Sets the nickname of an existing User & returns the User as stored after the update in a single round trip
+     *
+     * @param       userID - The key of the User
+     * @param       nickname - The new nickname
+     * @return      User - null if the User does not exist
+     */
+    public User updateUserNickname(String userID, String nickname) {
+        log.info("Entering DatabaseManager.updateUserNickname: " + userID);
+
+        Map< Object, Object > properties = updateHashIfExists(userID, "nickname", nickname);
+        return properties != null ? userFromHash(properties) : null;
+    }
+
+    /**
+     * Stores a batch of new Users, pipelining the writes so each chunk of Users costs a single round trip
+     *
+     * @param       users - The Users to store
+     */
+    @SuppressWarnings("unchecked")
+    public void createUsers(List<User> users) {
+        log.info("Entering DatabaseManager.createUsers: " + users.size());
+
+        for(int start = 0; start < users.size(); start += bulkWriteChunkSize) {
+            final List<User> chunk = users.subList(start, Math.min(start + bulkWriteChunkSize, users.size()));
+
+            template.executePipelined(new SessionCallback<Object>() {
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    for(User user : chunk) {
+                        operations.opsForHash().putAll((K) user.getUserID(), userProperties(user));
+                    }
+                    return null;
+                }
+            });
+            ServerMetrics.recordRoundTrip();
+        }
+    }
+
+    private Map< String, Object > userProperties(User user) {
+        final Map< String, Object > properties = new HashMap< String, Object >();
+
+        properties.put("userid",user.getUserID());
+        properties.put("firstname", user.getFirstName());
+        properties.put("lastname", user.getLastName());
+        properties.put("nickname", user.getNickname());
+        return properties;
+    }
+
+
+    public User getUser(String id) {
+        log.info("Entering DatabaseManager.getUser" + id);
+
+        //All fields of the User are read in a single HGETALL
+        final Map< Object, Object > properties = template.opsForHash().entries( id );
+        ServerMetrics.recordRoundTrip();
+
+        return userFromHash(properties);
+    }
+
+    /**
+     * Retrieves the Users with the keys specified in a single pipelined round trip
+     *
+     * @param       ids - The User keys to retrieve
+     * @return      <code>List</code> The Users in the same order as the keys
+     */
+    public List<User> getUsers(Collection<String> ids) {
+        log.info("Entering DatabaseManager.getUsers: " + ids.size());
+
+        List<User> users = new ArrayList<User>();
+        for(Map< Object, Object > properties : retrieveHashes(ids)) {
+            users.add(userFromHash(properties));
+        }
+
+        return users;
+    }
+
+    //Builds a User from the fields of a User hash, a User that does not exist is returned with all fields null
+    private User userFromHash(Map< Object, Object > properties) {
+        final String userID = (String) properties.get( "userid" );
+        final String firstName = (String) properties.get( "firstname" );
+        final String lastName = (String) properties.get( "lastname" );
+        final String nickName = (String) properties.get( "nickname" );
+
+        log.info("Retrieved UserID: " + userID);
+        log.info("Retrieved FirstName: " + firstName);
+        log.info("Retrieved LastName: " +  lastName);
+        log.info("Retrieved NickName: " +  nickName);
+
+        return new User(firstName,lastName,nickName,userID);
+    }
+
+
+    public void createChatRoomFromDAO(ChatRoomDAO chatRoomDAO) {
+        log.info("Entering DatabaseManager.createChatRoom");
+
+        final String key = chatRoomDAO.getChatRoomID();
+        log.info("Redis Key for new ChatRoom entry: " + key);
+
+        final Map< String, Object > properties = new HashMap< String, Object >();
+
+        properties.put("chatroomid",chatRoomDAO.getChatRoomID());
+        properties.put("topic", chatRoomDAO.getTopic());
+        log.info("Set topic to: " + chatRoomDAO.getTopic());
+
+        properties.put("chatroomcreatoruserid", chatRoomDAO.getChatRoomCreatorUserID());
+        properties.put("chatroomparticipantid", chatRoomDAO.getChatRoomParticipantID());
+
+        log.info("Pushing new Chatroom to Redis");
+        template.opsForHash().putAll(key, properties);
+        ServerMetrics.recordRoundTrip();
+        indexChatRoomMembership(chatRoomDAO);
+
+    }
+
+    /**
+     * Sets the topic of an existing ChatRoom & returns the ChatRoom as stored after the update in a single round trip
+     *
+     * @param       chatRoomID - The key of the ChatRoom
+     * @param       topic - The new topic
+     * @return      ChatRoomDAO - null if the ChatRoom does not exist
+     */
+    public ChatRoomDAO updateChatRoomTopic(String chatRoomID, String topic) {
+        log.info("Entering DatabaseManager.updateChatRoomTopic: " + chatRoomID);
+
+        Map< Object, Object > properties = updateHashIfExists(chatRoomID, "topic", topic);
+        return properties != null ? chatRoomDAOFromHash(properties) : null;
+    }
+
+    /**
+     * Adds the ChatRoom key to the membership index of both the creator & the participant of the ChatRoom.
+     * Adding a ChatRoom to a User's index more than once has no effect.
+     *
+     * @param       chatRoomDAO - The ChatRoom whose participants are indexed
+     */
+    private void indexChatRoomMembership(ChatRoomDAO chatRoomDAO) {
+        log.info("Indexing participants of ChatRoom " + chatRoomDAO.getChatRoomID());
+
+        if(chatRoomDAO.getChatRoomID() == null) {
+            log.info("ChatRoom has no ChatRoomID - not indexed");
+            return;
+        }
+
+        if(chatRoomDAO.getChatRoomCreatorUserID() != null) {
+            template.opsForSet().add(CHATROOM_MEMBERSHIP_PREFIX + chatRoomDAO.getChatRoomCreatorUserID(), chatRoomDAO.getChatRoomID());
+            ServerMetrics.recordRoundTrip();
+        }
+
+        if(chatRoomDAO.getChatRoomParticipantID() != null) {
+            template.opsForSet().add(CHATROOM_MEMBERSHIP_PREFIX + chatRoomDAO.getChatRoomParticipantID(), chatRoomDAO.getChatRoomID());
+            ServerMetrics.recordRoundTrip();
+        }
+    }
+
+
+    public ChatRoomDAO retrieveChatRoomDAO(String chatRoomID ) {
+        log.info("Entering DatabaseManager.getChatRoom");
+
+        final String key = chatRoomID;
+        log.info("Entering RedisManager.getChatRoom with ChatRoom ID" + key);
+
+        //All fields of the ChatRoom are read in a single HGETALL
+        final Map< Object, Object > properties = template.opsForHash().entries( key );
+        ServerMetrics.recordRoundTrip();
+
+        return chatRoomDAOFromHash(properties);
+    }
+
+    /**
+     * Retrieves the ChatRooms with the keys specified in a single pipelined round trip
+     *
+     * @param       chatRoomIDs - The ChatRoom keys to retrieve
+     * @return      <code>List</code> The ChatRoomDAOs in the same order as the keys
+     */
+    public List<ChatRoomDAO> retrieveChatRoomDAOs(Collection<String> chatRoomIDs) {
+        log.info("Entering DatabaseManager.retrieveChatRoomDAOs: " + chatRoomIDs.size());
+
+        List<ChatRoomDAO> chatRoomDAOs = new ArrayList<ChatRoomDAO>();
+        for(Map< Object, Object > properties : retrieveHashes(chatRoomIDs)) {
+            chatRoomDAOs.add(chatRoomDAOFromHash(properties));
+        }
+
+        return chatRoomDAOs;
+    }
+
+    /**
+     * Retrieves a ChatRoom, optionally its creator & participant & the latest ChatMessages posted to it in a single
+     * round trip using a server side script, which reads only what is asked for.
+     *
+     * @param       chatRoomID - The key of the ChatRoom
+     * @param       withParticipants - true to read the creator & participant
+     * @param       maxChatMessages - The maximum number of the latest ChatMessages to return
+     * @return      ChatRoomAggregate - null if the ChatRoom does not exist
+     */
+    @SuppressWarnings("unchecked")
+    public ChatRoomAggregate retrieveChatRoomAggregate(String chatRoomID, boolean withParticipants,
+                                                       int maxChatMessages) {
+        log.info("Entering DatabaseManager.retrieveChatRoomAggregate: " + chatRoomID);
+
+        List<Object> reply = template.execute(chatRoomScript, Collections.singletonList(chatRoomID),
+                CHATMESSAGE_INDEX_PREFIX, maxChatMessages, withParticipants ? "1" : "0");
+        ServerMetrics.recordRoundTrip();
+
+        if(reply == null || reply.isEmpty()) {
+            log.info("ChatRoom " + chatRoomID + " does not exist");
+            return null;
+        }
+
+        ChatRoomDAO chatRoomDAO = chatRoomDAOFromHash(hashFromList((List<Object>) reply.get(0)));
+        User chatRoomCreator = withParticipants ? userFromHash(hashFromList((List<Object>) reply.get(1))) : null;
+        User chatRoomParticipant = withParticipants ? userFromHash(hashFromList((List<Object>) reply.get(2))) : null;
+
+        List<ChatMessageDAO> chatMessageDAOs = new ArrayList<ChatMessageDAO>();
+        for(int i = 3; i < reply.size(); i++) {
+            chatMessageDAOs.add(chatMessageDAOFromHash(hashFromList((List<Object>) reply.get(i))));
+        }
+
+        return new ChatRoomAggregate(chatRoomDAO, chatRoomCreator, chatRoomParticipant, chatMessageDAOs);
+    }
+
+    //Converts the flat field / value list returned for HGETALL inside a script to the Map returned by opsForHash
+    private Map< Object, Object > hashFromList(List<Object> fieldsAndValues) {
+        final Map< Object, Object > properties = new HashMap< Object, Object >();
+        for(int i = 0; i + 1 < fieldsAndValues.size(); i += 2) {
+            properties.put(fieldsAndValues.get(i), fieldsAndValues.get(i + 1));
+        }
+        return properties;
+    }
+
+    //Builds a ChatRoomDAO from the fields of a ChatRoom hash, a ChatRoom that does not exist is returned with all fields null
+    private ChatRoomDAO chatRoomDAOFromHash(Map< Object, Object > properties) {
+        ChatRoomDAO chatRoomDAO = new ChatRoomDAO();
+
+        final String chatRoomIDRetrieved = (String) properties.get( "chatroomid" );
+        final String topic = ( String ) properties.get( "topic" );
+        final String chatRoomCreatorUserID = (String) properties.get( "chatroomcreatoruserid" );
+        final String chatRoomParticipantID = (String) properties.get( "chatroomparticipantid" );
+
+        log.info("Retrieved ChatRoomID: " + chatRoomIDRetrieved);
+        chatRoomDAO.setChatRoomID(chatRoomIDRetrieved);
+
+        log.info("Retrieved Topic: " + topic);
+        chatRoomDAO.setTopic(topic);
+
+        log.info("Retrieved CreatorID: " + chatRoomCreatorUserID);
+        chatRoomDAO.setChatRoomCreatorUserID(chatRoomCreatorUserID);
+
+        log.info("Retrieved ParticipantID: " + chatRoomParticipantID);
+        chatRoomDAO.setChatRoomParticipantID(chatRoomParticipantID);
+
+        return chatRoomDAO;
+    }
+
+    //PUT exception firing here:
+    public void createChatMessageFromDAO(ChatMessageDAO chatMessageDAO) {
+        log.info("Entering DatabaseManager.createChatMessageFromDAO");
+
+        final String key = chatMessageDAO.getChatMessageID();
+        log.info(" Key for new ChatMessage entry: " + key);
+
+        final Map< String, Object > properties = chatMessageProperties(chatMessageDAO);
+        log.info("Pushing new ChatMessage to Database: " + properties);
+
+        template.opsForHash().putAll(key, properties);
+        ServerMetrics.recordRoundTrip();
+        indexChatMessage(chatMessageDAO.getChatRoomID(), key, chatMessageDAO.getLastModified());
+
+    }
+
+    /**
+     * Sets the read receipt of an existing ChatMessage & returns the ChatMessage as stored after the update in a single
+     * round trip. The timestamp & so the position of the message in its ChatRoom index is unchanged.
+     *
+     * @param       chatMessageID - The key of the ChatMessage
+     * @param       readReceipt - The new read receipt
+     * @return      ChatMessageDAO - null if the ChatMessage does not exist
+     */
+    public ChatMessageDAO updateChatMessageReadReceipt(String chatMessageID, String readReceipt) {
+        log.info("Entering DatabaseManager.updateChatMessageReadReceipt: " + chatMessageID);
+
+        //TODO control this so that you can only set the readreceipt from false --> true, not vice versa
+        Map< Object, Object > properties = updateHashIfExists(chatMessageID, "readreceipt", readReceipt);
+        return properties != null ? chatMessageDAOFromHash(properties) : null;
+    }
+
+    /**
+     * Sets a field of an existing hash & reads the whole hash back in the same server side script call. A null key
+     * matches no hash & a null value leaves the field unchanged.
+     *
+     * @param       key - The key of the hash
+     * @param       field - The field to set
+     * @param       value - The value to set
+     * @return      <code>Map</code> The fields of the hash after the update, null if the hash does not exist
+     */
+    @SuppressWarnings("unchecked")
+    private Map< Object, Object > updateHashIfExists(String key, String field, Object value) {
+        if(key == null) {
+            return null;
+        }
+
+        Object[] fieldsAndValues = value != null ? new Object[] { field, value } : new Object[0];
+        List<Object> reply = template.execute(hashUpdateScript, Collections.singletonList(key), fieldsAndValues);
+        ServerMetrics.recordRoundTrip();
+
+        if(reply == null || reply.isEmpty()) {
+            log.info("No hash exists with key " + key + " - nothing updated");
+            return null;
+        }
+        return hashFromList(reply);
+    }
+
+    /**
+     * Stores a batch of new ChatMessages & adds each one to the index of its ChatRoom. The writes are pipelined so each
+     * chunk of ChatMessages costs a single round trip, nothing is read back.
+     *
+     * @param       chatMessageDAOs - The ChatMessages to store, any without a timestamp are stamped with the current time
+     */
+    @SuppressWarnings("unchecked")
+    public void createChatMessagesFromDAOs(List<ChatMessageDAO> chatMessageDAOs) {
+        log.info("Entering DatabaseManager.createChatMessagesFromDAOs: " + chatMessageDAOs.size());
+
+        for(int start = 0; start < chatMessageDAOs.size(); start += bulkWriteChunkSize) {
+            final List<ChatMessageDAO> chunk = chatMessageDAOs.subList(start,
+                    Math.min(start + bulkWriteChunkSize, chatMessageDAOs.size()));
+
+            template.executePipelined(new SessionCallback<Object>() {
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    for(ChatMessageDAO chatMessageDAO : chunk) {
+                        final String key = chatMessageDAO.getChatMessageID();
+                        operations.opsForHash().putAll((K) key, chatMessageProperties(chatMessageDAO));
+                        if(chatMessageDAO.getChatRoomID() != null) {
+                            operations.opsForZSet().add((K) (CHATMESSAGE_INDEX_PREFIX + chatMessageDAO.getChatRoomID()),
+                                    (V) key, chatMessageDAO.getLastModified());
+                        }
+                    }
+                    return null;
+                }
+            });
+            ServerMetrics.recordRoundTrip();
+        }
+    }
+
+    private Map< String, Object > chatMessageProperties(ChatMessageDAO chatMessageDAO) {
+        final Map< String, Object > properties = new HashMap< String, Object >();
+
+        properties.put("chatmessageid",chatMessageDAO.getChatMessageID());
+        properties.put("chatroomid", chatMessageDAO.getChatRoomID());
+        properties.put("fromParticipantID", chatMessageDAO.getFromParticipantID());
+        properties.put("message", chatMessageDAO.getMessage());
+
+        //New messages built from the DAO constructors have no timestamp yet, modifications keep the original one
+        //so the position of the message in the ChatRoom index does not move when the read receipt is set
+        if(chatMessageDAO.getLastModified() == 0) {
+            chatMessageDAO.setLastModified(new Date().getTime());
+        }
+        properties.put("lastmodified", chatMessageDAO.getLastModified());
+
+        //TODO control this so that you can only set the readreceipt from false --> true, not vice versa
+        properties.put("readreceipt", chatMessageDAO.getReadReceipt());
+        return properties;
+    }
+
+    /**
+     * Adds a ChatMessage key to the time ordered index held for its ChatRoom.
+     * Re-indexing an existing ChatMessage with the same timestamp leaves the index unchanged.
+     *
+     * @param       chatRoomID - The ChatRoom the message was posted to
+     * @param       chatMessageID - The key of the ChatMessage hash
+     * @param       lastModified - Server generated timestamp used to order the messages in the ChatRoom
+     */
+    private void indexChatMessage(String chatRoomID, String chatMessageID, long lastModified) {
+        log.info("Indexing ChatMessage " + chatMessageID + " for ChatRoom " + chatRoomID);
+
+        if(chatRoomID == null || chatMessageID == null) {
+            log.info("ChatMessage has no ChatRoomID or ChatMessageID - not indexed");
+            return;
+        }
+
+        template.opsForZSet().add(CHATMESSAGE_INDEX_PREFIX + chatRoomID, chatMessageID, lastModified);
+        ServerMetrics.recordRoundTrip();
+    }
+
+    public ChatMessageDAO retrieveChatMessageDAO(String chatMessageID) {
+        log.info("Entering DatabaseManager.retrieveChatMessageDAO: " + chatMessageID);
+
+        //All fields of the ChatMessage are read in a single HGETALL
+        final Map< Object, Object > properties = template.opsForHash().entries( chatMessageID );
+        ServerMetrics.recordRoundTrip();
+
+        return chatMessageDAOFromHash(properties);
+    }
+
+    /**
+     * Retrieves the ChatMessages with the keys specified in a single pipelined round trip
+     *
+     * @param       chatMessageIDs - The ChatMessage keys to retrieve
+     * @return      <code>List</code> The ChatMessageDAOs in the same order as the keys
+     */
+    public List<ChatMessageDAO> retrieveChatMessageDAOs(Collection<String> chatMessageIDs) {
+        log.info("Entering DatabaseManager.retrieveChatMessageDAOs: " + chatMessageIDs.size());
+
+        List<ChatMessageDAO> chatMessageDAOs = new ArrayList<ChatMessageDAO>();
+        for(Map< Object, Object > properties : retrieveHashes(chatMessageIDs)) {
+            chatMessageDAOs.add(chatMessageDAOFromHash(properties));
+        }
+
+        return chatMessageDAOs;
+    }
+
+    /**
+     * Fetches every hash in one pipeline & a single flush so the cost of a batch is one round trip however many keys
+     * it holds. A null key has no hash & is returned as an empty Map to keep the results in the same order as the keys.
+     *
+     * @param       keys - The keys of the hashes to fetch
+     * @return      <code>List</code> The fields of each hash in the same order as the keys
+     */
+    @SuppressWarnings("unchecked")
+    private List< Map< Object, Object > > retrieveHashes(Collection<String> keys) {
+        final List<String> keysToFetch = new ArrayList<String>();
+        for(String key : keys) {
+            if(key != null) {
+                keysToFetch.add(key);
+            }
+        }
+
+        List<Object> results = new ArrayList<Object>();
+        if(!keysToFetch.isEmpty()) {
+            results = template.executePipelined(new SessionCallback<Object>() {
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    for(String key : keysToFetch) {
+                        operations.opsForHash().entries((K) key);
+                    }
+                    return null;
+                }
+            });
+            ServerMetrics.recordRoundTrip();
+        }
+
+        List< Map< Object, Object > > hashes = new ArrayList< Map< Object, Object > >();
+        Iterator<Object> iterator = results.iterator();
+        for(String key : keys) {
+            if(key != null) {
+                hashes.add((Map< Object, Object >) iterator.next());
+            }
+            else {
+                hashes.add(new HashMap< Object, Object >());
+            }
+        }
+
+        return hashes;
+    }
+
+    //Builds a ChatMessageDAO from the fields of a ChatMessage hash, a ChatMessage that does not exist is returned with
+    //all fields null
+    private ChatMessageDAO chatMessageDAOFromHash(Map< Object, Object > properties) {
+        ChatMessageDAO chatMessageDAO = new ChatMessageDAO();
+
+        final String chatMessageIDRetrieved = (String) properties.get( "chatmessageid" );
+        final String chatRoomIDRetrieved = (String) properties.get( "chatroomid" );
+        final String fromParticipantID = ( String ) properties.get( "fromParticipantID" );
+        final String message = (String) properties.get( "message" );
+        final String readReceipt = (String) properties.get( "readreceipt" );
+        final Object lastModified = properties.get( "lastmodified" );
+
+        log.info("Retrieved ChatMessage ID: " + chatMessageIDRetrieved);
+        chatMessageDAO.setChatMessageID(chatMessageIDRetrieved);
+
+        log.info("Retrieved ChatRoom ID: " + chatRoomIDRetrieved);
+        chatMessageDAO.setChatRoomID(chatRoomIDRetrieved);
+
+        log.info("Retrieved Participant ID: " + fromParticipantID);
+        chatMessageDAO.setFromParticipantID(fromParticipantID);
+
+        log.info("Retrieved message: " + message);
+        chatMessageDAO.setMessage(message);
+
+        log.info("Retrieved read receipt: " + readReceipt);
+        chatMessageDAO.setReadReceipt(readReceipt);
+
+        log.info("Retrieved lastmodified: " + lastModified);
+        chatMessageDAO.setLastModified(parseTimestamp(lastModified));
+
+        return chatMessageDAO;
+    }
+
+    /**
+     * Walks every User with SCAN rather than KEYS, each chunk costing one round trip for the keys & one pipelined round
+     * trip for the User hashes, so neither Redis nor this server ever holds the whole keyspace at once
+     *
+     * @param       chunkSize - The COUNT hint given to each SCAN
+     * @return      <code>Iterator</code> The chunks of Users
+     */
+    public Iterator< List<User> > scanUsers(int chunkSize) {
+        log.info("Entering DatabaseManager.scanUsers, chunk size " + chunkSize);
+
+        return new KeyScan< User >(null, "USER:*", chunkSize) {
+            protected List<User> read(List<String> keys) {
+                return getUsers(keys);
+            }
+        };
+    }
+
+    /**
+     * Walks a User's ChatRooms with SSCAN of their membership index, or every ChatRoom with SCAN when no User is given,
+     * each chunk costing one round trip for the keys & one pipelined round trip for the ChatRoom hashes
+     *
+     * @param       userID - The User whose ChatRooms are walked, null for every ChatRoom
+     * @param       chunkSize - The COUNT hint given to each SCAN
+     * @return      <code>Iterator</code> The chunks of ChatRoomDAOs
+     */
+    public Iterator< List<ChatRoomDAO> > scanChatRoomDAOs(String userID, int chunkSize) {
+        log.info("Entering DatabaseManager.scanChatRoomDAOs with userID " + userID + ", chunk size " + chunkSize);
+
+        String setKey = userID != null ? CHATROOM_MEMBERSHIP_PREFIX + userID : null;
+        return new KeyScan< ChatRoomDAO >(setKey, userID != null ? null : "CHATROOM:*", chunkSize) {
+            protected List<ChatRoomDAO> read(List<String> keys) {
+                return retrieveChatRoomDAOs(keys);
+            }
+        };
+    }
+
+    /**
+     * Walks the keys matching a pattern with SCAN, or the members of a set with SSCAN, & reads the entities they name a
+     * chunk at a time. The next SCAN is only sent once the chunk before has been taken, cursors that return no keys are
+     * followed straight on so no chunk is empty.
+     */
+    private abstract class KeyScan< T > implements Iterator< List<T> > {
+
+        //The set whose members are walked, null to walk the keyspace
+        private final String setKey;
+        private final ScanParams scanParams = new ScanParams();
+
+        private String cursor = ScanParams.SCAN_POINTER_START;
+        private boolean finished;
+        private List<String> nextKeys;
+
+        KeyScan(String setKey, String pattern, int chunkSize) {
+            this.setKey = setKey;
+            if(pattern != null) {
+                scanParams.match(pattern);
+            }
+            scanParams.count(Math.max(1, chunkSize));
+        }
+
+        public boolean hasNext() {
+            while(nextKeys == null && !finished) {
+                ScanResult<String> result = template.execute(new RedisCallback< ScanResult<String> >() {
+                    public ScanResult<String> doInRedis(RedisConnection connection) {
+                        Jedis jedis = (Jedis) connection.getNativeConnection();
+                        return setKey != null ? jedis.sscan(setKey, cursor, scanParams)
+                                : jedis.scan(cursor, scanParams);
+                    }
+                });
+                ServerMetrics.recordRoundTrip();
+
+                cursor = result.getStringCursor();
+                finished = ScanParams.SCAN_POINTER_START.equals(cursor);
+                if(!result.getResult().isEmpty()) {
+                    nextKeys = result.getResult();
+                }
+            }
+            return nextKeys != null;
+        }
+
+        public List<T> next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<String> keys = nextKeys;
+            nextKeys = null;
+            return read(keys);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        //Reads the entities named by a chunk of keys
+        protected abstract List<T> read(List<String> keys);
+    }
+
+    public List<ChatMessageDAO> getAllChatMessageDAOs(String chatRoomID) {
+        log.info("Entering DatabaseManager.getAllChatMessageDAOs: " + chatRoomID);
+
+        //Walk the ChatRoom's own index (oldest message first) instead of scanning every key in the store
+        Set<Object> members = template.opsForZSet().range(CHATMESSAGE_INDEX_PREFIX + chatRoomID, 0, -1);
+        ServerMetrics.recordRoundTrip();
+        log.info("Print keys: " + members);
+
+        List<String> keys = new ArrayList<String>();
+        for(Object member : members) {
+            keys.add((String) member);
+        }
+
+        return retrieveChatMessageDAOs(keys);
+    }
+
+    /**
+     * Retrieves the latest ChatMessages of several ChatRooms in two pipelined round trips, one to read the tail of every
+     * ChatRoom's index & one to read every ChatMessage found in them.
+     *
+     * @param       chatRoomIDs - The ChatRooms whose messages are retrieved
+     * @param       maxChatMessages - The maximum number of the latest ChatMessages to return for each ChatRoom
+     * @return      <code>Map</code> The ChatMessageDAOs of each ChatRoom, oldest message first
+     */
+    @SuppressWarnings("unchecked")
+    public Map< String, List<ChatMessageDAO> > getLatestChatMessageDAOs(Collection<String> chatRoomIDs,
+                                                                        final int maxChatMessages) {
+        log.info("Entering DatabaseManager.getLatestChatMessageDAOs for ChatRooms: " + chatRoomIDs.size());
+
+        final List<String> chatRoomIDsToFetch = new ArrayList<String>(new LinkedHashSet<String>(chatRoomIDs));
+        Map< String, List<ChatMessageDAO> > chatMessageDAOsByChatRoom = new LinkedHashMap< String, List<ChatMessageDAO> >();
+        if(chatRoomIDsToFetch.isEmpty() || maxChatMessages <= 0) {
+            return chatMessageDAOsByChatRoom;
+        }
+
+        List<Object> indexes = template.executePipelined(new SessionCallback<Object>() {
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                for(String chatRoomID : chatRoomIDsToFetch) {
+                    operations.opsForZSet().range((K) (CHATMESSAGE_INDEX_PREFIX + chatRoomID), -maxChatMessages, -1);
+                }
+                return null;
+            }
+        });
+        ServerMetrics.recordRoundTrip();
+
+        List<String> keys = new ArrayList<String>();
+        List<Integer> messagesPerChatRoom = new ArrayList<Integer>();
+        for(Object index : indexes) {
+            Set<Object> members = (Set<Object>) index;
+            for(Object member : members) {
+                keys.add((String) member);
+            }
+            messagesPerChatRoom.add(members.size());
+        }
+
+        Iterator<ChatMessageDAO> chatMessageDAOs = retrieveChatMessageDAOs(keys).iterator();
+        for(int i = 0; i < chatRoomIDsToFetch.size(); i++) {
+            List<ChatMessageDAO> chatRoomMessages = new ArrayList<ChatMessageDAO>();
+            for(int j = 0; j < messagesPerChatRoom.get(i); j++) {
+                chatRoomMessages.add(chatMessageDAOs.next());
+            }
+            chatMessageDAOsByChatRoom.put(chatRoomIDsToFetch.get(i), chatRoomMessages);
+        }
+
+        return chatMessageDAOsByChatRoom;
+    }
+
+    /**
+     * Retrieves one page of the ChatMessages of a ChatRoom in a single round trip using a server side script, which
+     * finds the cursor by its rank in the ChatRoom's index & reads only the ChatMessages on the page.
+     *
+     * @param       chatRoomID - The ChatRoom whose messages are retrieved
+     * @param       beforeChatMessageID - Optional, the page is the ChatMessages posted just before this one
+     * @param       afterChatMessageID - Optional, the page is the ChatMessages posted just after this one
+     * @param       maxChatMessages - The maximum number of ChatMessages on the page
+     * @return      <code>List</code> The ChatMessageDAOs, newest message first
+     */
+    @SuppressWarnings("unchecked")
+    public List<ChatMessageDAO> getChatMessageDAOPage(String chatRoomID, String beforeChatMessageID,
+                                                      String afterChatMessageID, int maxChatMessages) {
+        log.info("Entering DatabaseManager.getChatMessageDAOPage: " + chatRoomID + " before " + beforeChatMessageID
+                + " after " + afterChatMessageID);
+
+        List<ChatMessageDAO> chatMessageDAOs = new ArrayList<ChatMessageDAO>();
+        if(chatRoomID == null || maxChatMessages <= 0) {
+            return chatMessageDAOs;
+        }
+
+        String direction = "latest";
+        String cursor = "";
+        if(beforeChatMessageID != null) {
+            direction = "before";
+            cursor = beforeChatMessageID;
+        }
+        else if(afterChatMessageID != null) {
+            direction = "after";
+            cursor = afterChatMessageID;
+        }
+
+        List<Object> reply = template.execute(chatMessagePageScript,
+                Collections.singletonList(CHATMESSAGE_INDEX_PREFIX + chatRoomID), direction, cursor, maxChatMessages);
+        ServerMetrics.recordRoundTrip();
+
+        if(reply != null) {
+            for(Object hash : reply) {
+                chatMessageDAOs.add(chatMessageDAOFromHash(hashFromList((List<Object>) hash)));
+            }
+        }
+        return chatMessageDAOs;
+    }
+
+    /**
+     * Appends a batch of entries to the feeds of the Users affected by them. Each chunk of entries is numbered & written
+     * to every feed, & the Users written to are published on their change channels, by a server side script in a single
+     * round trip. The FeedListeners of this server are told when the published events come back on its subscription.
+     *
+     * @param       feedEntryDAOs - The entries to append, in the order they happened
+     * @return      <code>Set</code> The IDs of the Users whose feeds were written
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> appendFeedEntries(List<FeedEntryDAO> feedEntryDAOs) {
+        log.info("Entering DatabaseManager.appendFeedEntries: " + feedEntryDAOs.size());
+
+        Set<String> recipients = new HashSet<String>();
+        for(int start = 0; start < feedEntryDAOs.size(); start += bulkWriteChunkSize) {
+            List<FeedEntryDAO> chunk = feedEntryDAOs.subList(start, Math.min(start + bulkWriteChunkSize, feedEntryDAOs.size()));
+
+            List<Object> args = new ArrayList<Object>();
+            args.add(FEED_PREFIX);
+            args.add(CHATROOM_MEMBERSHIP_PREFIX);
+            args.add(feedMaxLength);
+            args.add(FEED_CHANNEL_PREFIX);
+            args.add(CHATMESSAGE_CHANGES_PREFIX);
+            for(FeedEntryDAO feedEntryDAO : chunk) {
+                args.add(feedEntryDAO.getNotificationType());
+                args.add(feedEntryDAO.getParentResourceID());
+                args.add(feedEntryDAO.getSubResourceID() != null ? feedEntryDAO.getSubResourceID() : "");
+                args.add(feedEntryDAO.getTimestamp());
+            }
+
+            List<Object> reply = template.execute(feedAppendScript, Collections.singletonList(FEED_SEQUENCE_KEY),
+                    args.toArray());
+            ServerMetrics.recordRoundTrip();
+
+            List<Object> sequences = (List<Object>) reply.get(0);
+            for(int i = 0; i < chunk.size(); i++) {
+                chunk.get(i).setSequence(((Number) sequences.get(i)).longValue());
+            }
+            for(Object recipient : (List<Object>) reply.get(1)) {
+                recipients.add((String) recipient);
+            }
+        }
+
+        return recipients;
+    }
+
+    /**
+     * Retrieves the entries of a User's feed after the sequence number given with a single ZRANGEBYSCORE
+     *
+     * @param       userID - The User whose feed is read
+     * @param       afterSequence - The sequence number of the last entry the client has seen, 0 to read from the start
+     * @param       maxEntries - The maximum number of entries to return
+     * @return      <code>List</code> The FeedEntryDAOs, oldest entry first
+     */
+    public List<FeedEntryDAO> getFeedEntries(String userID, long afterSequence, int maxEntries) {
+        log.info("Entering DatabaseManager.getFeedEntries: " + userID + " after " + afterSequence);
+
+        Set<Object> members = template.opsForZSet().rangeByScore(FEED_PREFIX + userID, afterSequence + 1,
+                Double.MAX_VALUE, 0, maxEntries);
+        ServerMetrics.recordRoundTrip();
+
+        List<FeedEntryDAO> feedEntryDAOs = new ArrayList<FeedEntryDAO>();
+        for(Object member : members) {
+            feedEntryDAOs.add(feedEntryDAOFromMember((String) member));
+        }
+        return feedEntryDAOs;
+    }
+
+    /**
+     * Retrieves the ChatMessages of a ChatRoom changed after the sequence given with a ZRANGEBYSCORE on the index of
+     * changed ChatMessages kept by the feed append script, then reads them in one pipeline
+     *
+     * @param       chatRoomID - The ChatRoom whose ChatMessages are read
+     * @param       afterSequence - The feed sequence the client has seen the ChatRoom up to
+     * @return      <code>List</code> The ChatMessageDAOs in the order of their latest change
+     */
+    public List<ChatMessageDAO> getChangedChatMessageDAOs(String chatRoomID, long afterSequence) {
+        log.info("Entering DatabaseManager.getChangedChatMessageDAOs: " + chatRoomID + " after " + afterSequence);
+
+        Set<Object> members = template.opsForZSet().rangeByScore(CHATMESSAGE_CHANGES_PREFIX + chatRoomID,
+                afterSequence + 1, Double.MAX_VALUE);
+        ServerMetrics.recordRoundTrip();
+
+        List<String> chatMessageIDs = new ArrayList<String>();
+        for(Object member : members) {
+            chatMessageIDs.add((String) member);
+        }
+
+        List<ChatMessageDAO> chatMessageDAOs = new ArrayList<ChatMessageDAO>();
+        for(ChatMessageDAO chatMessageDAO : retrieveChatMessageDAOs(chatMessageIDs)) {
+            if(chatMessageDAO.getChatMessageID() != null) {
+                chatMessageDAOs.add(chatMessageDAO);
+            }
+        }
+        return chatMessageDAOs;
+    }
+
+    /**
+     * Retrieves the Users, ChatRooms & ChatMessages named by a page of feed entries. They are all hashes, so every one
+     * is fetched by a single pipeline in one round trip.
+     *
+     * @param       userIDs - The Users to read
+     * @param       chatRoomIDs - The ChatRooms to read
+     * @param       chatMessageIDs - The ChatMessages to read
+     * @return      <code>FeedResources</code> The resources read, keyed by ID
+     */
+    public FeedResources retrieveFeedResources(Collection<String> userIDs, Collection<String> chatRoomIDs,
+                                               Collection<String> chatMessageIDs) {
+        log.info("Entering DatabaseManager.retrieveFeedResources: " + userIDs.size() + " Users, " + chatRoomIDs.size()
+                + " ChatRooms, " + chatMessageIDs.size() + " ChatMessages");
+
+        List<String> keys = new ArrayList<String>();
+        keys.addAll(userIDs);
+        keys.addAll(chatRoomIDs);
+        keys.addAll(chatMessageIDs);
+        List< Map< Object, Object > > hashes = retrieveHashes(keys);
+
+        Map<String, User> users = new HashMap<String, User>();
+        Map<String, ChatRoomDAO> chatRoomDAOs = new HashMap<String, ChatRoomDAO>();
+        Map<String, ChatMessageDAO> chatMessageDAOs = new HashMap<String, ChatMessageDAO>();
+        for(int i = 0; i < hashes.size(); i++) {
+            if(hashes.get(i).isEmpty()) {
+                continue;
+            }
+            if(i < userIDs.size()) {
+                users.put(keys.get(i), userFromHash(hashes.get(i)));
+            }
+            else if(i < userIDs.size() + chatRoomIDs.size()) {
+                chatRoomDAOs.put(keys.get(i), chatRoomDAOFromHash(hashes.get(i)));
+            }
+            else {
+                chatMessageDAOs.put(keys.get(i), chatMessageDAOFromHash(hashes.get(i)));
+            }
+        }
+
+        return new FeedResources(users, chatRoomDAOs, chatMessageDAOs);
+    }
+
+    public void addFeedListener(FeedListener feedListener) {
+        feedListeners.add(feedListener);
+    }
+
+    //Receives the feed change events of every server on the one subscription held by this server. The channel names the
+    //User whose feed was written & the message is the highest sequence appended to it.
+    private class FeedChangeSubscriber implements MessageListener {
+
+        public void onMessage(Message message, byte[] pattern) {
+            String channel = template.getStringSerializer().deserialize(message.getChannel());
+            Set<String> userIDs = Collections.singleton(channel.substring(FEED_CHANNEL_PREFIX.length()));
+            ServerMetrics.increment("notifications.pubsub.received", 1);
+
+            for(FeedListener feedListener : feedListeners) {
+                feedListener.feedsChanged(userIDs);
+            }
+        }
+    }
+
+    //Builds a FeedEntryDAO from a feed member, stored as sequence|type|parent resource ID|sub resource ID|timestamp
+    private FeedEntryDAO feedEntryDAOFromMember(String member) {
+        String[] fields = member.split("\\|", -1);
+
+        FeedEntryDAO feedEntryDAO = new FeedEntryDAO();
+        feedEntryDAO.setSequence(Long.parseLong(fields[0]));
+        feedEntryDAO.setNotificationType(fields[1]);
+        feedEntryDAO.setParentResourceID(fields[2]);
+        feedEntryDAO.setSubResourceID(fields[3].length() > 0 ? fields[3] : null);
+        feedEntryDAO.setTimestamp(parseTimestamp(fields[4]));
+        return feedEntryDAO;
+    }
+
+    /**
+     * Indexes every ChatMessage that was stored before the ChatRoom message indexes existed.
+     * This is a one off walk of the keyspace with SCAN, run in the background at start up & skipped once it has
+     * completed. SCAN may return a key more than once, indexing it again is harmless.
+     *
+     * @return      The number of ChatMessages indexed, 0 if the backfill already ran
+     */
+    public int backfillChatMessageIndex() {
+        log.info("Entering DatabaseManager.backfillChatMessageIndex");
+
+        ServerMetrics.recordRoundTrip();
+        if(template.hasKey(CHATMESSAGE_INDEX_BACKFILL_KEY)) {
+            log.info("ChatMessage index backfill already completed");
+            return 0;
+        }
+
+        int indexed = 0;
+        List<Object> fields = new ArrayList<Object>();
+        fields.add("chatroomid");
+        fields.add("lastmodified");
+
+        Iterator< List<String> > keyChunks = scanKeys("MESSAGE:*");
+        while(keyChunks.hasNext()) {
+            for(String nextElement : keyChunks.next()) {
+                List<Object> values = new ArrayList<Object>(template.opsForHash().multiGet(nextElement, fields));
+                ServerMetrics.recordRoundTrip();
+                indexChatMessage((String) values.get(0), nextElement, parseTimestamp(values.get(1)));
+                indexed++;
+            }
+        }
+
+        template.opsForValue().set(CHATMESSAGE_INDEX_BACKFILL_KEY, new Date().getTime());
+        ServerMetrics.recordRoundTrip();
+        log.info("ChatMessage index backfill completed, indexed: " + indexed);
+        return indexed;
+    }
+
+    /**
+     * Indexes the participants of every ChatRoom that was stored before the User membership indexes existed.
+     * This is a one off walk of the keyspace with SCAN, run in the background at start up & skipped once it has
+     * completed. SCAN may return a key more than once, indexing it again is harmless.
+     *
+     * @return      The number of ChatRooms indexed, 0 if the backfill already ran
+     */
+    public int backfillChatRoomMembershipIndex() {
+        log.info("Entering DatabaseManager.backfillChatRoomMembershipIndex");
+
+        ServerMetrics.recordRoundTrip();
+        if(template.hasKey(CHATROOM_MEMBERSHIP_BACKFILL_KEY)) {
+            log.info("ChatRoom membership index backfill already completed");
+            return 0;
+        }
+
+        int indexed = 0;
+        Iterator< List<String> > keyChunks = scanKeys("CHATROOM:*");
+        while(keyChunks.hasNext()) {
+            for(String nextElement : keyChunks.next()) {
+                indexChatRoomMembership(retrieveChatRoomDAO(nextElement));
+                indexed++;
+            }
+        }
+
+        template.opsForValue().set(CHATROOM_MEMBERSHIP_BACKFILL_KEY, new Date().getTime());
+        ServerMetrics.recordRoundTrip();
+        log.info("ChatRoom membership index backfill completed, indexed: " + indexed);
+        return indexed;
+    }
+
+    //Walks the keys matching a pattern a chunk at a time without reading the entities they name
+    private Iterator< List<String> > scanKeys(String pattern) {
+        return new KeyScan< String >(null, pattern, BACKFILL_SCAN_COUNT) {
+            protected List<String> read(List<String> keys) {
+                return keys;
+            }
+        };
+    }
+
+    //Timestamps are written as Longs & come back from the store as Strings, messages stored before the timestamp was
+    //recorded have no value at all
+    private long parseTimestamp(Object timestamp) {
+        if(timestamp == null) {
+            return 0;
+        }
+
+        try {
+            return Long.parseLong(timestamp.toString());
+        }
+        catch (NumberFormatException e) {
+            log.info("Invalid timestamp stored: " + timestamp);
+            return 0;
+        }
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,160 @@
+package com.acme.server.util;
+
+import com.acme.server.model.ChatMessage;
+import com.acme.server.model.ChatRoom;
+import com.acme.server.model.User;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ *  The RequestBodyParser binds the JSON body of a POST or PUT straight from the request InputStream into a User,
+ *  ChatRoom or ChatMessage. The body is never copied into a String first: the Gson streaming reader pulls it through a
+ *  small buffer & the fields are set on the model object as they are read.
+ *
+ *  One Gson instance is shared by every request thread & the reflective TypeAdapter of each model class is looked up
+ *  from it once, at start up, rather than a new Gson being created & the class inspected again on every request.
+ *
+ *  A body longer than request.maxBodyBytes is rejected with a <code>RequestBodyTooLargeException</code> as soon as the
+ *  limit is passed, so a client cannot make the server read an unbounded body.
+ */
+@Component
+public class RequestBodyParser {
+
+    private static Logger log = Logger.getLogger(RequestBodyParser.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int maxBodyBytes;
+
+    private final TypeAdapter<User> userAdapter;
+    private final TypeAdapter<ChatRoom> chatRoomAdapter;
+    private final TypeAdapter<ChatMessage> chatMessageAdapter;
+
+    @Autowired
+    public RequestBodyParser(@Value("${request.maxBodyBytes:65536}") int maxBodyBytes) {
+        log.info("Entering RequestBodyParser constructor, max body " + maxBodyBytes + " bytes");
+        this.maxBodyBytes = maxBodyBytes;
+
+        Gson gson = new Gson();
+        this.userAdapter = gson.getAdapter(User.class);
+        this.chatRoomAdapter = gson.getAdapter(ChatRoom.class);
+        this.chatMessageAdapter = gson.getAdapter(ChatMessage.class);
+    }
+
+    /**
+     * Reads a User from a request body
+     *
+     * @param       data - The request body
+     * @return      <code>User</code> null if the body is empty
+     */
+    public User readUser(InputStream data) throws IOException {
+        return read(data, userAdapter);
+    }
+
+    /**
+     * Reads a ChatRoom from a request body
+     *
+     * @param       data - The request body
+     * @return      <code>ChatRoom</code> null if the body is empty
+     */
+    public ChatRoom readChatRoom(InputStream data) throws IOException {
+        return read(data, chatRoomAdapter);
+    }
+
+    /**
+     * Reads a ChatMessage from a request body
+     *
+     * @param       data - The request body
+     * @return      <code>ChatMessage</code> null if the body is empty
+     */
+    public ChatMessage readChatMessage(InputStream data) throws IOException {
+        return read(data, chatMessageAdapter);
+    }
+
+    /**
+     * Reads a ChatMessage from JSON that has already been parsed e.g. part of a WebSocket frame
+     *
+     * @param       json - The ChatMessage JSON object
+     * @return      <code>ChatMessage</code>
+     */
+    public ChatMessage readChatMessage(JsonElement json) {
+        return chatMessageAdapter.fromJsonTree(json);
+    }
+
+    //Reads one value from the body with the lenient parsing Gson.fromJson uses, an empty body reads as null
+    private <T> T read(InputStream data, TypeAdapter<T> adapter) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(new LimitedInputStream(data, maxBodyBytes), UTF8));
+        reader.setLenient(true);
+        boolean empty = true;
+        try {
+            if(reader.peek() == JsonToken.END_DOCUMENT) {
+                return null;
+            }
+            empty = false;
+            return adapter.read(reader);
+        }
+        catch (EOFException e) {
+            //Only a body with nothing in it reads as null, one cut short is malformed
+            if(empty) {
+                return null;
+            }
+            throw new JsonSyntaxException(e);
+        }
+        catch (IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    //Counts the bytes read from a request body & fails once more than the maximum have been read
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final int maxBytes;
+        private long bytesRead;
+
+        LimitedInputStream(InputStream in, int maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if(n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) {
+            bytesRead += n;
+            if(bytesRead > maxBytes) {
+                ServerMetrics.increment("requests.bodyTooLarge", 1);
+                throw new RequestBodyTooLargeException(maxBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.acme.server.util;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ *  Thrown by the <code>RequestBodyParser</code> when a request body is longer than request.maxBodyBytes. The request is
+ *  answered with 413 Request Entity Too Large without reading the rest of the body.
+ */
+@ResponseStatus(HttpStatus.REQUEST_ENTITY_TOO_LARGE)
+public class RequestBodyTooLargeException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RequestBodyTooLargeException(int maxBodyBytes) {
+        super("Request body is larger than " + maxBodyBytes + " bytes");
+    }
+}
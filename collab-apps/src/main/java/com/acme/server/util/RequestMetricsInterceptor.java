@@ -0,0 +1,46 @@
+package com.acme.server.util;
+
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ *  The RequestMetricsInterceptor brackets every request handled by the controllers so the data store round trips made
+ *  while handling it are recorded in <code>ServerMetrics</code> against the request mapping that was matched.
+ *
+ *  An asynchronous request e.g. a long poll is counted once: the count is carried in a request attribute from the thread
+ *  that starts it to the thread that completes it.
+ */
+public class RequestMetricsInterceptor extends HandlerInterceptorAdapter {
+
+    private static final String SUSPENDED_COUNT_ATTRIBUTE = RequestMetricsInterceptor.class.getName() + ".SUSPENDED";
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        Object suspended = request.getAttribute(SUSPENDED_COUNT_ATTRIBUTE);
+        if (suspended != null) {
+            request.removeAttribute(SUSPENDED_COUNT_ATTRIBUTE);
+            ServerMetrics.resumeRequest(suspended);
+        }
+        else {
+            ServerMetrics.startRequest();
+        }
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        Object suspended = ServerMetrics.suspendRequest();
+        if (suspended != null) {
+            request.setAttribute(SUSPENDED_COUNT_ATTRIBUTE, suspended);
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        ServerMetrics.finishRequest(request.getMethod() + " " + (pattern != null ? pattern : request.getRequestURI()));
+    }
+}
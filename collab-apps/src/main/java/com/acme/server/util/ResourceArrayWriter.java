@@ -0,0 +1,35 @@
+package com.acme.server.util;
+
+import java.io.IOException;
+
+/**
+ *  Writes the array returned by a collection endpoint to the response one element at a time, in the encoding the client
+ *  accepts, see ResourceEncodings. The endpoint writes each chunk it reads from the Database & flushes it before reading
+ *  the next rather than build the whole List.
+ *
+ *  No Content-Length is set, so the response is sent with chunked transfer encoding. Once the first chunk is flushed
+ *  the status is committed, an error after that can only cut the array short.
+ *
+ *  A ResourceArrayWriter belongs to a single request thread.
+ */
+public interface ResourceArrayWriter {
+
+    /**
+     * Appends an element to the array
+     *
+     * @param       element - The element, encoded as it would be on its own
+     */
+    void write(Object element) throws IOException;
+
+    /**
+     * Sends the elements written so far to the client
+     */
+    void flush() throws IOException;
+
+    /**
+     * Ends the array & completes the response
+     *
+     * @return      The number of elements written
+     */
+    int close() throws IOException;
+}
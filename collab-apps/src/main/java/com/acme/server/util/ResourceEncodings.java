@@ -0,0 +1,103 @@
+package com.acme.server.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *  The encodings every resource can be returned in, chosen from the Accept header of the request:
+ *
+ *  application/json - The default, for a request with no Accept header or one accepting any type
+ *  application/x-jackson-smile - Smile, the JSON data model in a binary encoding, so the fields are the same as JSON
+ *  application/x-protobuf - Protocol Buffers as described by proto/acme.proto
+ *
+ *  A single resource is written by the HttpMessageConverter for its encoding, registered in WebConfiguration after the
+ *  JSON one. A collection endpoint streams its array through the ResourceArrayWriter opened here. A client accepting
+ *  none of the encodings is answered 406 Not Acceptable.
+ */
+@Component
+public class ResourceEncodings {
+
+    private static Logger log = Logger.getLogger(ResourceEncodings.class);
+
+    public static final MediaType APPLICATION_SMILE = new MediaType("application", "x-jackson-smile");
+    public static final MediaType APPLICATION_PROTOBUF = new MediaType("application", "x-protobuf");
+
+    private static final List<MediaType> SUPPORTED = Arrays.asList(MediaType.APPLICATION_JSON, APPLICATION_SMILE, APPLICATION_PROTOBUF);
+
+    private final ObjectMapper objectMapper;
+    private final ObjectMapper smileObjectMapper;
+
+    @Autowired
+    public ResourceEncodings(ObjectMapper objectMapper) {
+        log.info("Entering ResourceEncodings constructor");
+        this.objectMapper = objectMapper;
+        this.smileObjectMapper = new ObjectMapper(new SmileFactory());
+    }
+
+    /**
+     * The ObjectMapper writing Smile, shared by the Smile HttpMessageConverter & the streamed arrays
+     *
+     * @return      <code>ObjectMapper</code>
+     */
+    public ObjectMapper getSmileObjectMapper() {
+        return smileObjectMapper;
+    }
+
+    /**
+     * Opens a writer streaming an array to the response in the encoding the request accepts
+     *
+     * @param       request - The request, its Accept header chooses the encoding
+     * @param       response - The response written to
+     * @return      <code>ResourceArrayWriter</code>
+     */
+    public ResourceArrayWriter openArrayWriter(HttpServletRequest request, HttpServletResponse response)
+            throws IOException, HttpMediaTypeNotAcceptableException {
+        MediaType encoding = negotiate(request.getHeader("Accept"));
+        if(encoding == APPLICATION_PROTOBUF) {
+            return new ProtobufArrayWriter(response);
+        }
+        else if(encoding == APPLICATION_SMILE) {
+            return new JsonArrayWriter(smileObjectMapper, APPLICATION_SMILE.toString(), response);
+        }
+        return new JsonArrayWriter(objectMapper, response);
+    }
+
+    //The most specific, highest quality type accepted wins, JSON first where a wildcard accepts several
+    private MediaType negotiate(String accept) throws HttpMediaTypeNotAcceptableException {
+        List<MediaType> acceptedTypes;
+        try {
+            acceptedTypes = MediaType.parseMediaTypes(accept);
+        }
+        catch (InvalidMediaTypeException e) {
+            throw new HttpMediaTypeNotAcceptableException("Could not parse Accept header: " + e.getMessage());
+        }
+        if(acceptedTypes.isEmpty()) {
+            return MediaType.APPLICATION_JSON;
+        }
+
+        MediaType.sortBySpecificityAndQuality(acceptedTypes);
+        for(MediaType acceptedType : acceptedTypes) {
+            if(acceptedType.getQualityValue() == 0) {
+                continue;
+            }
+            for(MediaType encoding : SUPPORTED) {
+                if(acceptedType.includes(encoding)) {
+                    return encoding;
+                }
+            }
+        }
+        throw new HttpMediaTypeNotAcceptableException(SUPPORTED);
+    }
+}
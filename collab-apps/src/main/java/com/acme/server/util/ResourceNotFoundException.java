@@ -0,0 +1,18 @@
+package com.acme.server.util;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ *  Thrown by a controller when the resource a request modifies does not exist. The request is answered with
+ *  404 Not Found.
+ */
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class ResourceNotFoundException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ResourceNotFoundException(String resourceID) {
+        super("No resource exists with ID " + resourceID);
+    }
+}
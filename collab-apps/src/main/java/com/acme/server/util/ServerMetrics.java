@@ -0,0 +1,144 @@
+package com.acme.server.util;
+
+import org.apache.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  The ServerMetrics Util class keeps a set of named counters for the server that are exposed on GET /metrics
+ *  so the effect of changes to the data access layer can be observed under load.
+ *
+ *  It also counts the round trips made to the data store by the thread handling the current request so the cost of
+ *  every endpoint can be recorded per request mapping e.g.
+ *
+ *  "requests.GET /chatrooms/{id}.count" : 10
+ *  "requests.GET /chatrooms/{id}.roundtrips" : 60
+ *
+ *  Where the JVM can measure it, the heap allocated by the threads handling each request is recorded alongside e.g.
+ *  "requests.POST /users.allocatedBytes", so the allocation per request of an endpoint can be compared across builds by
+ *  running the same load & dividing by the count.
+ */
+public class ServerMetrics {
+
+    private static Logger log = Logger.getLogger(ServerMetrics.class);
+
+    private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    //The round trips, the bytes allocated by earlier threads & the allocation of this thread when it took the request
+    private static final ThreadLocal<long[]> requestRoundTrips = new ThreadLocal<long[]>();
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final boolean allocationMeasured = threads instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+            && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled();
+
+    /**
+     * Adds to the named counter, creating it on first use
+     *
+     * @param       name - The name of the counter
+     * @param       delta - The amount to add
+     */
+    public static void increment(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Records one network round trip to the data store against the total & the request being handled by this thread
+     */
+    public static void recordRoundTrip() {
+        increment("redis.roundtrips", 1);
+
+        long[] current = requestRoundTrips.get();
+        if (current != null) {
+            current[0]++;
+        }
+    }
+
+    /**
+     * Starts counting the data store round trips made by the current thread
+     */
+    public static void startRequest() {
+        requestRoundTrips.set(new long[] { 0, 0, allocatedBytes() });
+    }
+
+    /**
+     * Detaches the count of the request being handled by the current thread so it can be carried on by the thread that
+     * completes the request once an asynchronous request is resumed
+     *
+     * @return      The count to pass to resumeRequest, null if the thread is not counting
+     */
+    public static Object suspendRequest() {
+        long[] current = requestRoundTrips.get();
+        requestRoundTrips.remove();
+        if (current != null) {
+            current[1] += allocatedBytes() - current[2];
+        }
+        return current;
+    }
+
+    /**
+     * Carries on counting on the current thread for a request suspended by another thread
+     *
+     * @param       suspended - The value returned by suspendRequest
+     */
+    public static void resumeRequest(Object suspended) {
+        long[] current = (long[]) suspended;
+        current[2] = allocatedBytes();
+        requestRoundTrips.set(current);
+    }
+
+    /**
+     * Stops counting for the current thread & records the round trips made against the request name given
+     *
+     * @param       requestName - Typically the HTTP method & the request mapping e.g. GET /chatrooms/{id}
+     * @return      The number of round trips made while handling the request
+     */
+    public static long finishRequest(String requestName) {
+        long[] current = requestRoundTrips.get();
+        requestRoundTrips.remove();
+
+        long roundTrips = current != null ? current[0] : 0;
+        increment("requests." + requestName + ".count", 1);
+        increment("requests." + requestName + ".roundtrips", roundTrips);
+        if (current != null && allocationMeasured) {
+            increment("requests." + requestName + ".allocatedBytes", current[1] + allocatedBytes() - current[2]);
+        }
+
+        log.info(requestName + " completed with " + roundTrips + " data store round trips");
+        return roundTrips;
+    }
+
+    //The bytes allocated on the heap by the current thread since it started, 0 where the JVM does not measure it
+    private static long allocatedBytes() {
+        if (!allocationMeasured) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns a point in time copy of all counters sorted by name
+     *
+     * @return      <code>Map</code>
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            snapshot.put(counter.getKey(), counter.getValue().get());
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,92 @@
+package com.acme.server.util;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.web.BasicErrorController;
+import org.springframework.boot.autoconfigure.web.ErrorAttributes;
+import org.springframework.boot.autoconfigure.web.HttpMessageConverters;
+import org.springframework.boot.context.embedded.ConfigurableEmbeddedServletContainer;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatConnectorCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ *  Spring MVC configuration applied on top of the Spring Boot defaults
+ */
+@Configuration
+public class WebConfiguration extends WebMvcConfigurerAdapter {
+
+    //Every open notification stream & parked long poll holds a connection but no request thread, so the connector must
+    //accept many more connections than it has threads
+    @Value("${tomcat.maxConnections:30000}")
+    private int maxConnections;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new RequestMetricsInterceptor());
+    }
+
+    //For Accept: */* Spring writes a response with the first converter that can write it & Spring Boot puts any extra
+    //converter in front of its defaults, so the Smile & protobuf converters are placed straight after the JSON one to
+    //keep JSON the default. See ResourceEncodings.
+    @Bean
+    public HttpMessageConverters messageConverters(MappingJackson2HttpMessageConverter jsonConverter,
+                                                   ResourceEncodings resourceEncodings) {
+        MappingJackson2HttpMessageConverter smileConverter = new MappingJackson2HttpMessageConverter();
+        smileConverter.setObjectMapper(resourceEncodings.getSmileObjectMapper());
+        smileConverter.setSupportedMediaTypes(Collections.singletonList(ResourceEncodings.APPLICATION_SMILE));
+
+        final List<HttpMessageConverter<?>> converters = new ArrayList<HttpMessageConverter<?>>(
+                new HttpMessageConverters(jsonConverter).getConverters());
+        int json = converters.indexOf(jsonConverter);
+        converters.add(json + 1, smileConverter);
+        converters.add(json + 2, new ProtobufHttpMessageConverter());
+
+        return new HttpMessageConverters() {
+            @Override
+            public List<HttpMessageConverter<?>> getConverters() {
+                return Collections.unmodifiableList(converters);
+            }
+
+            @Override
+            public Iterator<HttpMessageConverter<?>> iterator() {
+                return getConverters().iterator();
+            }
+        };
+    }
+
+    //Replaces Spring Boot's error controller so an error keeps its status for a client accepting only protobuf
+    @Bean
+    public BasicErrorController basicErrorController(ErrorAttributes errorAttributes) {
+        return new ProtobufErrorController(errorAttributes);
+    }
+
+    @Bean
+    public EmbeddedServletContainerCustomizer connectorCustomizer() {
+        return new EmbeddedServletContainerCustomizer() {
+            public void customize(ConfigurableEmbeddedServletContainer container) {
+                if (container instanceof TomcatEmbeddedServletContainerFactory) {
+                    ((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(new TomcatConnectorCustomizer() {
+                        public void customize(Connector connector) {
+                            if (connector.getProtocolHandler() instanceof AbstractProtocol) {
+                                ((AbstractProtocol) connector.getProtocolHandler()).setMaxConnections(maxConnections);
+                            }
+                        }
+                    });
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,41 @@
+package com.acme.server.util;
+
+import com.acme.server.controller.MessagingSocketHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+
+/**
+ *  Registers the WebSocket endpoints served next to the REST controllers & sets the limits of the socket container
+ */
+@Configuration
+@EnableWebSocket
+public class WebSocketConfiguration implements WebSocketConfigurer {
+
+    @Autowired
+    private MessagingSocketHandler messagingSocketHandler;
+
+    //The largest frame a client may send & how long an idle socket is kept open
+    @Value("${messaging.socket.maxFrameBytes:65536}")
+    private int maxFrameBytes;
+
+    @Value("${messaging.socket.idleTimeoutMillis:300000}")
+    private long idleTimeoutMillis;
+
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(messagingSocketHandler, "/messaging/socket");
+    }
+
+    @Bean
+    public ServletServerContainerFactoryBean webSocketContainer() {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(maxFrameBytes);
+        container.setMaxSessionIdleTimeout(idleTimeoutMillis);
+        return container;
+    }
+}
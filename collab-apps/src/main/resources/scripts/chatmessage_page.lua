@@ -0,0 +1,44 @@
+-- Reads one page of the ChatMessages of a ChatRoom in a single call: walks the ChatRoom's ChatMessage index newest first
+-- from a cursor & returns the hash of each ChatMessage on the page, newest first, as the flat field / value list
+-- produced by HGETALL. The position of the cursor is found by its rank, so ChatMessages posted in the same millisecond
+-- are neither skipped nor repeated. An empty reply means there is nothing on the page or the cursor is not in the index.
+--
+-- KEYS[1] - the ChatMessage index of the ChatRoom
+-- ARGV[1] - latest for the newest ChatMessages, before for those posted just before the cursor, after for those posted
+--           just after it
+-- ARGV[2] - the cursor, the key of a ChatMessage in the index, ignored for latest
+-- ARGV[3] - the maximum number of ChatMessages to return
+--
+-- NOTE: the ChatMessage keys are read from the index rather than passed in KEYS, so this script assumes a single Redis
+-- instance rather than a cluster.
+
+local pageSize = tonumber(ARGV[3])
+if pageSize <= 0 then
+    return {}
+end
+
+local first = 0
+local last = pageSize - 1
+if ARGV[1] ~= 'latest' then
+    local rank = redis.call('ZREVRANK', KEYS[1], ARGV[2])
+    if not rank then
+        return {}
+    end
+    if ARGV[1] == 'before' then
+        first = rank + 1
+        last = rank + pageSize
+    else
+        if rank == 0 then
+            return {}
+        end
+        first = math.max(0, rank - pageSize)
+        last = rank - 1
+    end
+end
+
+local reply = {}
+local chatMessageKeys = redis.call('ZREVRANGE', KEYS[1], first, last)
+for i = 1, #chatMessageKeys do
+    reply[i] = redis.call('HGETALL', chatMessageKeys[i])
+end
+return reply
@@ -0,0 +1,45 @@
+-- Assembles a ChatRoom in a single call: returns the ChatRoom hash, the hashes of its creator & participant and the
+-- hashes of the latest page of its ChatMessages, oldest first. Every hash is returned as the flat field / value list
+-- produced by HGETALL. The creator & participant are returned as empty lists when they are not asked for. An empty
+-- reply means the ChatRoom does not exist.
+--
+-- KEYS[1] - the ChatRoom key
+-- ARGV[1] - the prefix of the per ChatRoom ChatMessage index
+-- ARGV[2] - the maximum number of ChatMessages to return
+-- ARGV[3] - 1 to read the creator & participant, 0 to skip them
+--
+-- NOTE: the User & ChatMessage keys are read from the ChatRoom hash & index rather than passed in KEYS, so this script
+-- assumes a single Redis instance rather than a cluster.
+
+local chatroom = redis.call('HGETALL', KEYS[1])
+if #chatroom == 0 then
+    return {}
+end
+
+local fields = {}
+for i = 1, #chatroom, 2 do
+    fields[chatroom[i]] = chatroom[i + 1]
+end
+
+local function hgetall(key)
+    if key then
+        return redis.call('HGETALL', key)
+    end
+    return {}
+end
+
+local reply = { chatroom, {}, {} }
+if ARGV[3] ~= '0' then
+    reply[2] = hgetall(fields['chatroomcreatoruserid'])
+    reply[3] = hgetall(fields['chatroomparticipantid'])
+end
+
+local pageSize = tonumber(ARGV[2])
+if pageSize > 0 then
+    local chatMessageKeys = redis.call('ZRANGE', ARGV[1] .. KEYS[1], -pageSize, -1)
+    for i = 1, #chatMessageKeys do
+        reply[#reply + 1] = redis.call('HGETALL', chatMessageKeys[i])
+    end
+end
+
+return reply
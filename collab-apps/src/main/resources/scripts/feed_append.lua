@@ -0,0 +1,88 @@
+-- Appends a batch of entries to the change feed of every User affected by them in a single call & returns the sequence
+-- number assigned to each entry & the IDs of the Users whose feeds were written. The sequence is taken & every feed
+-- written inside the script, so no poll can see an entry before the earlier entries of the same feed.
+--
+-- A CHATROOM or CHATMESSAGE entry goes to the feeds of the creator & participant of the ChatRoom. A USER entry goes to
+-- the feed of the User & of everyone taking part in one of their ChatRooms. Each feed is a sorted set scored by sequence
+-- & is trimmed to the newest entries so its size stays bounded.
+--
+-- The ChatMessages changed in each ChatRoom are kept in a sorted set of their own, scored by the sequence of their
+-- latest change, so every ChatMessage changed since a given sequence can be read back in one range query. It is
+-- trimmed like the feeds.
+--
+-- Once every feed is written the highest sequence appended to each is published on the channel of its User, so every
+-- server subscribed can push the change to the clients it holds for that User. The publish is part of the same call &
+-- costs no extra round trip.
+--
+-- KEYS[1] - the key of the sequence counter shared by every feed
+-- ARGV[1] - the prefix of the per User feed
+-- ARGV[2] - the prefix of the per User ChatRoom membership index
+-- ARGV[3] - the maximum number of entries kept in a feed, 0 keeps every entry
+-- ARGV[4] - the prefix of the per User change channel
+-- ARGV[5] - the prefix of the per ChatRoom index of changed ChatMessages
+-- ARGV[6..] - notification type, parent resource ID, sub resource ID ('' if none) & timestamp of each entry
+--
+-- NOTE: the feed, ChatRoom & membership keys are built inside the script rather than passed in KEYS, so this script
+-- assumes a single Redis instance rather than a cluster.
+
+local feedPrefix = ARGV[1]
+local membershipPrefix = ARGV[2]
+local maxLength = tonumber(ARGV[3])
+local channelPrefix = ARGV[4]
+local messageChangesPrefix = ARGV[5]
+
+local function addChatRoomMembers(recipients, chatRoomID)
+    local members = redis.call('HMGET', chatRoomID, 'chatroomcreatoruserid', 'chatroomparticipantid')
+    for i = 1, #members do
+        if members[i] then
+            recipients[members[i]] = true
+        end
+    end
+end
+
+local sequences = {}
+local setsWritten = {}
+local usersWritten = {}
+
+for i = 6, #ARGV, 4 do
+    local notificationType = ARGV[i]
+    local parentResourceID = ARGV[i + 1]
+
+    local recipients = {}
+    if notificationType == 'USER' then
+        recipients[parentResourceID] = true
+        local chatRoomIDs = redis.call('SMEMBERS', membershipPrefix .. parentResourceID)
+        for j = 1, #chatRoomIDs do
+            addChatRoomMembers(recipients, chatRoomIDs[j])
+        end
+    else
+        addChatRoomMembers(recipients, parentResourceID)
+    end
+
+    local sequence = redis.call('INCR', KEYS[1])
+    local member = sequence .. '|' .. notificationType .. '|' .. parentResourceID .. '|' .. ARGV[i + 2] .. '|' .. ARGV[i + 3]
+    for userID in pairs(recipients) do
+        redis.call('ZADD', feedPrefix .. userID, sequence, member)
+        setsWritten[feedPrefix .. userID] = true
+        usersWritten[userID] = sequence
+    end
+    if notificationType == 'CHATMESSAGE' and ARGV[i + 2] ~= '' then
+        redis.call('ZADD', messageChangesPrefix .. parentResourceID, sequence, ARGV[i + 2])
+        setsWritten[messageChangesPrefix .. parentResourceID] = true
+    end
+    sequences[#sequences + 1] = sequence
+end
+
+if maxLength > 0 then
+    for key in pairs(setsWritten) do
+        redis.call('ZREMRANGEBYRANK', key, 0, -(maxLength + 1))
+    end
+end
+
+local recipients = {}
+for userID, sequence in pairs(usersWritten) do
+    redis.call('PUBLISH', channelPrefix .. userID, sequence)
+    recipients[#recipients + 1] = userID
+end
+
+return { sequences, recipients }
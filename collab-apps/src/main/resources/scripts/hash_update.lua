@@ -0,0 +1,16 @@
+-- Updates fields of an existing hash & returns the hash as stored after the update in a single call, so a modify does
+-- not have to read the entity back. Nothing is written if the hash does not exist, which keeps a modify of an unknown
+-- entity from creating a partial one. An empty reply means the hash does not exist.
+--
+-- KEYS[1] - the key of the hash
+-- ARGV    - field / value pairs to set
+
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return {}
+end
+
+if #ARGV > 0 then
+    redis.call('HMSET', KEYS[1], unpack(ARGV))
+end
+
+return redis.call('HGETALL', KEYS[1])
@@ -0,0 +1,586 @@
+package com.acme.server.util;
+
+import com.acme.server.dao.ChatMessageDAO;
+import com.acme.server.dao.ChatRoomAggregate;
+import com.acme.server.dao.ChatRoomDAO;
+import com.acme.server.dao.FeedEntryDAO;
+import com.acme.server.dao.FeedResources;
+import com.acme.server.model.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *  The contract every DatabaseManager keeps, see the DatabaseManager interface. Each backend extends this test & supplies
+ *  a DatabaseManager to run it against.
+ *
+ *  The store may be shared with other data, e.g. a Redis instance a server is running against, so every test creates
+ *  its own Users & ChatRooms with new keys & asserts only on those.
+ */
+public abstract class DatabaseManagerContractTest {
+
+    //The feed length the DatabaseManager under test is created with, kept short so the trimming can be seen
+    protected static final int FEED_MAX_LENGTH = 5;
+
+    private static final long LISTENER_WAIT_MILLIS = 5000;
+
+    protected DatabaseManager databaseManager;
+
+    /**
+     * Creates the DatabaseManager the contract is checked against, keeping FEED_MAX_LENGTH entries in each feed
+     *
+     * @return      <code>DatabaseManager</code>
+     */
+    protected abstract DatabaseManager createDatabaseManager() throws Exception;
+
+    /**
+     * Releases whatever the DatabaseManager under test holds, called after every test
+     */
+    protected void destroyDatabaseManager() throws Exception {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseManager = createDatabaseManager();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        destroyDatabaseManager();
+    }
+
+    //******************************** USERS **********************************************
+
+    @Test
+    public void userIsStoredAndRetrieved() {
+        User user = newUser("nick");
+        databaseManager.setUser(user);
+
+        User stored = databaseManager.getUser(user.getUserID());
+        assertEquals(user.getUserID(), stored.getUserID());
+        assertEquals(user.getFirstName(), stored.getFirstName());
+        assertEquals(user.getLastName(), stored.getLastName());
+        assertEquals("nick", stored.getNickname());
+    }
+
+    @Test
+    public void missingUserIsRetrievedWithAllFieldsNull() {
+        User missing = databaseManager.getUser("USER:" + UUID.randomUUID().toString());
+        assertNotNull(missing);
+        assertNull(missing.getUserID());
+        assertNull(missing.getNickname());
+    }
+
+    @Test
+    public void usersAreRetrievedInTheOrderOfTheKeys() {
+        List<User> users = Arrays.asList(newUser("a"), newUser("b"), newUser("c"));
+        databaseManager.createUsers(users);
+
+        List<String> keys = Arrays.asList(users.get(2).getUserID(), users.get(0).getUserID(), users.get(1).getUserID());
+        assertEquals(keys, userIDs(databaseManager.getUsers(keys)));
+    }
+
+    @Test
+    public void userNicknameIsUpdatedOnlyIfTheUserExists() {
+        User user = newUser("before");
+        databaseManager.setUser(user);
+
+        User updated = databaseManager.updateUserNickname(user.getUserID(), "after");
+        assertEquals(user.getUserID(), updated.getUserID());
+        assertEquals(user.getFirstName(), updated.getFirstName());
+        assertEquals("after", updated.getNickname());
+        assertEquals("after", databaseManager.getUser(user.getUserID()).getNickname());
+
+        String missingID = "USER:" + UUID.randomUUID().toString();
+        assertNull(databaseManager.updateUserNickname(missingID, "after"));
+        assertNull(databaseManager.getUser(missingID).getUserID());
+    }
+
+    @Test
+    public void scanUsersWalksEveryUserInNonEmptyChunks() {
+        List<User> users = new ArrayList<User>();
+        for(int i = 0;i<7;i++){
+            users.add(newUser("scan" + i));
+        }
+        databaseManager.createUsers(users);
+
+        Set<String> seen = new HashSet<String>();
+        Iterator< List<User> > chunks = databaseManager.scanUsers(3);
+        while(chunks.hasNext()) {
+            List<User> chunk = chunks.next();
+            assertFalse(chunk.isEmpty());
+            seen.addAll(userIDs(chunk));
+        }
+        assertTrue(seen.containsAll(userIDs(users)));
+    }
+
+    //******************************** CHATROOMS **********************************************
+
+    @Test
+    public void chatRoomIsStoredAndRetrieved() {
+        ChatRoomDAO chatRoom = newChatRoom(newStoredUser(), newStoredUser(), "topic");
+
+        ChatRoomDAO stored = databaseManager.retrieveChatRoomDAO(chatRoom.getChatRoomID());
+        assertEquals(chatRoom.getChatRoomID(), stored.getChatRoomID());
+        assertEquals(chatRoom.getChatRoomCreatorUserID(), stored.getChatRoomCreatorUserID());
+        assertEquals(chatRoom.getChatRoomParticipantID(), stored.getChatRoomParticipantID());
+        assertEquals("topic", stored.getTopic());
+
+        ChatRoomDAO missing = databaseManager.retrieveChatRoomDAO("CHATROOM:" + UUID.randomUUID().toString());
+        assertNotNull(missing);
+        assertNull(missing.getChatRoomID());
+    }
+
+    @Test
+    public void chatRoomsAreRetrievedInTheOrderOfTheKeys() {
+        User creator = newStoredUser();
+        ChatRoomDAO first = newChatRoom(creator, newStoredUser(), "first");
+        ChatRoomDAO second = newChatRoom(creator, newStoredUser(), "second");
+
+        List<String> keys = Arrays.asList(second.getChatRoomID(), first.getChatRoomID());
+        assertEquals(keys, chatRoomIDs(databaseManager.retrieveChatRoomDAOs(keys)));
+    }
+
+    @Test
+    public void chatRoomTopicIsUpdatedOnlyIfTheChatRoomExists() {
+        ChatRoomDAO chatRoom = newChatRoom(newStoredUser(), newStoredUser(), "before");
+
+        ChatRoomDAO updated = databaseManager.updateChatRoomTopic(chatRoom.getChatRoomID(), "after");
+        assertEquals(chatRoom.getChatRoomID(), updated.getChatRoomID());
+        assertEquals(chatRoom.getChatRoomCreatorUserID(), updated.getChatRoomCreatorUserID());
+        assertEquals("after", updated.getTopic());
+        assertEquals("after", databaseManager.retrieveChatRoomDAO(chatRoom.getChatRoomID()).getTopic());
+
+        String missingID = "CHATROOM:" + UUID.randomUUID().toString();
+        assertNull(databaseManager.updateChatRoomTopic(missingID, "after"));
+        assertNull(databaseManager.retrieveChatRoomDAO(missingID).getChatRoomID());
+    }
+
+    @Test
+    public void chatRoomIsAddedToTheChatRoomsOfBothItsMembers() {
+        User creator = newStoredUser();
+        User participant = newStoredUser();
+        User other = newStoredUser();
+        ChatRoomDAO first = newChatRoom(creator, participant, "first");
+        ChatRoomDAO second = newChatRoom(creator, other, "second");
+
+        assertEquals(new HashSet<String>(Arrays.asList(first.getChatRoomID(), second.getChatRoomID())),
+                scannedChatRoomIDs(creator.getUserID(), 1));
+        assertEquals(Collections.singleton(first.getChatRoomID()), scannedChatRoomIDs(participant.getUserID(), 10));
+        assertEquals(Collections.singleton(second.getChatRoomID()), scannedChatRoomIDs(other.getUserID(), 10));
+        assertTrue(scannedChatRoomIDs(newStoredUser().getUserID(), 10).isEmpty());
+    }
+
+    @Test
+    public void scanOfEveryChatRoomIncludesEachChatRoom() {
+        User creator = newStoredUser();
+        List<String> created = new ArrayList<String>();
+        for(int i = 0;i<4;i++){
+            created.add(newChatRoom(creator, newStoredUser(), "scan" + i).getChatRoomID());
+        }
+        assertTrue(scannedChatRoomIDs(null, 2).containsAll(created));
+    }
+
+    @Test
+    public void chatRoomAggregateHoldsTheMembersAndLatestChatMessages() {
+        User creator = newStoredUser();
+        User participant = newStoredUser();
+        ChatRoomDAO chatRoom = newChatRoom(creator, participant, "topic");
+        List<ChatMessageDAO> chatMessages = newChatMessages(chatRoom, creator, 5);
+
+        ChatRoomAggregate aggregate = databaseManager.retrieveChatRoomAggregate(chatRoom.getChatRoomID(), true, 3);
+        assertEquals(chatRoom.getChatRoomID(), aggregate.getChatRoomDAO().getChatRoomID());
+        assertEquals(creator.getUserID(), aggregate.getChatRoomCreator().getUserID());
+        assertEquals(participant.getUserID(), aggregate.getChatRoomParticipant().getUserID());
+        assertEquals(chatMessageIDs(chatMessages.subList(2, 5)), chatMessageIDs(aggregate.getChatMessageDAOs()));
+
+        ChatRoomAggregate withoutParticipants = databaseManager.retrieveChatRoomAggregate(chatRoom.getChatRoomID(),
+                false, 0);
+        assertNull(withoutParticipants.getChatRoomCreator());
+        assertNull(withoutParticipants.getChatRoomParticipant());
+        assertTrue(withoutParticipants.getChatMessageDAOs().isEmpty());
+
+        assertNull(databaseManager.retrieveChatRoomAggregate("CHATROOM:" + UUID.randomUUID().toString(), true, 3));
+    }
+
+    //******************************** CHATMESSAGES **********************************************
+
+    @Test
+    public void chatMessageIsStoredAndRetrieved() {
+        User creator = newStoredUser();
+        ChatRoomDAO chatRoom = newChatRoom(creator, newStoredUser(), "topic");
+        ChatMessageDAO chatMessage = new ChatMessageDAO(chatRoom.getChatRoomID(), creator.getUserID(), "hello", "false");
+        databaseManager.createChatMessageFromDAO(chatMessage);
+
+        ChatMessageDAO stored = databaseManager.retrieveChatMessageDAO(chatMessage.getChatMessageID());
+        assertEquals(chatMessage.getChatMessageID(), stored.getChatMessageID());
+        assertEquals(chatRoom.getChatRoomID(), stored.getChatRoomID());
+        assertEquals(creator.getUserID(), stored.getFromParticipantID());
+        assertEquals("hello", stored.getMessage());
+        assertEquals("false", stored.getReadReceipt());
+        assertTrue("a ChatMessage without a timestamp is stamped", stored.getLastModified() > 0);
+
+        ChatMessageDAO missing = databaseManager.retrieveChatMessageDAO("MESSAGE:" + UUID.randomUUID().toString());
+        assertNotNull(missing);
+        assertNull(missing.getChatMessageID());
+    }
+
+    @Test
+    public void chatMessagesAreIndexedOldestFirst() {
+        User creator = newStoredUser();
+        ChatRoomDAO chatRoom = newChatRoom(creator, newStoredUser(), "topic");
+        long now = System.currentTimeMillis();
+
+        //Written out of order, each stamped, so the index alone puts them in order
+        ChatMessageDAO third = newChatMessage(chatRoom, creator, now + 2);
+        ChatMessageDAO first = newChatMessage(chatRoom, creator, now);
+        ChatMessageDAO second = newChatMessage(chatRoom, creator, now + 1);
+        databaseManager.createChatMessagesFromDAOs(Arrays.asList(third, first));
+        databaseManager.createChatMessageFromDAO(second);
+
+        List<String> expected = chatMessageIDs(Arrays.asList(first, second, third));
+        assertEquals(expected, chatMessageIDs(databaseManager.getAllChatMessageDAOs(chatRoom.getChatRoomID())));
+
+        //An existing ChatMessage written back keeps its position
+        ChatMessageDAO rewritten = databaseManager.retrieveChatMessageDAO(first.getChatMessageID());
+        rewritten.setMessage("edited");
+        databaseManager.createChatMessageFromDAO(rewritten);
+        assertEquals(expected, chatMessageIDs(databaseManager.getAllChatMessageDAOs(chatRoom.getChatRoomID())));
+        assertEquals("edited", databaseManager.retrieveChatMessageDAO(first.getChatMessageID()).getMessage());
+    }
+
+    @Test
+    public void chatMessagesAreRetrievedInTheOrderOfTheKeys() {
+        User creator = newStoredUser();
+        List<ChatMessageDAO> chatMessages = newChatMessages(newChatRoom(creator, newStoredUser(), "topic"), creator, 3);
+
+        List<String> keys = Arrays.asList(chatMessages.get(1).getChatMessageID(), chatMessages.get(2).getChatMessageID(),
+                chatMessages.get(0).getChatMessageID());
+        assertEquals(keys, chatMessageIDs(databaseManager.retrieveChatMessageDAOs(keys)));
+    }
+
+    @Test
+    public void readReceiptIsUpdatedOnlyIfTheChatMessageExists() {
+        User creator = newStoredUser();
+        ChatRoomDAO chatRoom = newChatRoom(creator, newStoredUser(), "topic");
+        List<ChatMessageDAO> chatMessages = newChatMessages(chatRoom, creator, 3);
+        ChatMessageDAO chatMessage = chatMessages.get(0);
+
+        ChatMessageDAO updated = databaseManager.updateChatMessageReadReceipt(chatMessage.getChatMessageID(), "true");
+        assertEquals(chatMessage.getChatMessageID(), updated.getChatMessageID());
+        assertEquals(chatMessage.getMessage(), updated.getMessage());
+        assertEquals("true", updated.getReadReceipt());
+        assertEquals("true", databaseManager.retrieveChatMessageDAO(chatMessage.getChatMessageID()).getReadReceipt());
+        assertEquals(chatMessageIDs(chatMessages),
+                chatMessageIDs(databaseManager.getAllChatMessageDAOs(chatRoom.getChatRoomID())));
+
+        String missingID = "MESSAGE:" + UUID.randomUUID().toString();
+        assertNull(databaseManager.updateChatMessageReadReceipt(missingID, "true"));
+        assertNull(databaseManager.retrieveChatMessageDAO(missingID).getChatMessageID());
+    }
+
+    @Test
+    public void latestChatMessagesOfEachChatRoomAreOldestFirst() {
+        User creator = newStoredUser();
+        ChatRoomDAO first = newChatRoom(creator, newStoredUser(), "first");
+        ChatRoomDAO second = newChatRoom(creator, newStoredUser(), "second");
+        List<ChatMessageDAO> firstMessages = newChatMessages(first, creator, 4);
+        List<ChatMessageDAO> secondMessages = newChatMessages(second, creator, 1);
+
+        Map< String, List<ChatMessageDAO> > latest = databaseManager.getLatestChatMessageDAOs(
+                Arrays.asList(first.getChatRoomID(), second.getChatRoomID()), 2);
+        assertEquals(chatMessageIDs(firstMessages.subList(2, 4)), chatMessageIDs(latest.get(first.getChatRoomID())));
+        assertEquals(chatMessageIDs(secondMessages), chatMessageIDs(latest.get(second.getChatRoomID())));
+    }
+
+    @Test
+    public void pagesAreNewestFirstAndWalkTheIndexFromTheCursor() {
+        User creator = newStoredUser();
+        ChatRoomDAO chatRoom = newChatRoom(creator, newStoredUser(), "topic");
+        List<ChatMessageDAO> chatMessages = newChatMessages(chatRoom, creator, 10);
+        List<String> newestFirst = chatMessageIDs(chatMessages);
+        Collections.reverse(newestFirst);
+        String chatRoomID = chatRoom.getChatRoomID();
+
+        assertEquals(newestFirst.subList(0, 4), chatMessageIDs(databaseManager.getChatMessageDAOPage(chatRoomID,
+                null, null, 4)));
+        assertEquals(newestFirst.subList(4, 8), chatMessageIDs(databaseManager.getChatMessageDAOPage(chatRoomID,
+                newestFirst.get(3), null, 4)));
+        assertEquals(newestFirst.subList(8, 10), chatMessageIDs(databaseManager.getChatMessageDAOPage(chatRoomID,
+                newestFirst.get(7), null, 4)));
+
+        //The page after a cursor is the ChatMessages just after it, still newest first
+        assertEquals(newestFirst.subList(5, 9), chatMessageIDs(databaseManager.getChatMessageDAOPage(chatRoomID,
+                null, newestFirst.get(9), 4)));
+        assertTrue(databaseManager.getChatMessageDAOPage(chatRoomID, null, newestFirst.get(0), 4).isEmpty());
+
+        //Before wins when both cursors are given
+        assertEquals(newestFirst.subList(1, 3), chatMessageIDs(databaseManager.getChatMessageDAOPage(chatRoomID,
+                newestFirst.get(0), newestFirst.get(9), 2)));
+    }
+
+    @Test
+    public void pagesOfChatMessagesPostedInTheSameMillisecondAreStable() {
+        User creator = newStoredUser();
+        ChatRoomDAO chatRoom = newChatRoom(creator, newStoredUser(), "topic");
+        long now = System.currentTimeMillis();
+        List<ChatMessageDAO> chatMessages = new ArrayList<ChatMessageDAO>();
+        for(int i = 0;i<7;i++){
+            chatMessages.add(newChatMessage(chatRoom, creator, now));
+        }
+        databaseManager.createChatMessagesFromDAOs(chatMessages);
+
+        List<String> walked = new ArrayList<String>();
+        List<ChatMessageDAO> page = databaseManager.getChatMessageDAOPage(chatRoom.getChatRoomID(), null, null, 3);
+        while(!page.isEmpty()) {
+            walked.addAll(chatMessageIDs(page));
+            String cursor = page.get(page.size() - 1).getChatMessageID();
+            page = databaseManager.getChatMessageDAOPage(chatRoom.getChatRoomID(), cursor, null, 3);
+        }
+
+        assertEquals(7, walked.size());
+        assertEquals(new HashSet<String>(chatMessageIDs(chatMessages)), new HashSet<String>(walked));
+    }
+
+    @Test
+    public void pageForACursorOutsideTheChatRoomIsEmpty() {
+        User creator = newStoredUser();
+        ChatRoomDAO chatRoom = newChatRoom(creator, newStoredUser(), "topic");
+        ChatRoomDAO otherChatRoom = newChatRoom(creator, newStoredUser(), "other");
+        newChatMessages(chatRoom, creator, 3);
+        List<ChatMessageDAO> otherMessages = newChatMessages(otherChatRoom, creator, 1);
+
+        assertTrue(databaseManager.getChatMessageDAOPage(chatRoom.getChatRoomID(),
+                otherMessages.get(0).getChatMessageID(), null, 10).isEmpty());
+        assertTrue(databaseManager.getChatMessageDAOPage(chatRoom.getChatRoomID(),
+                "MESSAGE:" + UUID.randomUUID().toString(), null, 10).isEmpty());
+        assertTrue(databaseManager.getChatMessageDAOPage("CHATROOM:" + UUID.randomUUID().toString(),
+                null, null, 10).isEmpty());
+    }
+
+    //******************************** FEEDS **********************************************
+
+    @Test
+    public void feedEntriesGoToTheMembersOfTheChatRoomInOrder() {
+        User creator = newStoredUser();
+        User participant = newStoredUser();
+        User outsider = newStoredUser();
+        ChatRoomDAO chatRoom = newChatRoom(creator, participant, "topic");
+        ChatMessageDAO chatMessage = newChatMessages(chatRoom, creator, 1).get(0);
+
+        List<FeedEntryDAO> entries = Arrays.asList(
+                new FeedEntryDAO("CHATROOM", chatRoom.getChatRoomID(), null),
+                new FeedEntryDAO("CHATMESSAGE", chatRoom.getChatRoomID(), chatMessage.getChatMessageID()));
+        Set<String> recipients = databaseManager.appendFeedEntries(entries);
+
+        assertEquals(new HashSet<String>(Arrays.asList(creator.getUserID(), participant.getUserID())), recipients);
+        assertTrue(entries.get(0).getSequence() > 0);
+        assertTrue(entries.get(1).getSequence() > entries.get(0).getSequence());
+
+        for(User member : Arrays.asList(creator, participant)) {
+            List<FeedEntryDAO> feed = databaseManager.getFeedEntries(member.getUserID(), 0, 10);
+            assertEquals(2, feed.size());
+            assertEquals(entries.get(0).getSequence(), feed.get(0).getSequence());
+            assertEquals("CHATROOM", feed.get(0).getNotificationType());
+            assertEquals(chatRoom.getChatRoomID(), feed.get(0).getParentResourceID());
+            assertEquals(entries.get(1).getSequence(), feed.get(1).getSequence());
+            assertEquals("CHATMESSAGE", feed.get(1).getNotificationType());
+            assertEquals(chatMessage.getChatMessageID(), feed.get(1).getSubResourceID());
+        }
+        assertTrue(databaseManager.getFeedEntries(outsider.getUserID(), 0, 10).isEmpty());
+
+        List<FeedEntryDAO> afterFirst = databaseManager.getFeedEntries(creator.getUserID(), entries.get(0).getSequence(), 10);
+        assertEquals(1, afterFirst.size());
+        assertEquals(entries.get(1).getSequence(), afterFirst.get(0).getSequence());
+        assertEquals(1, databaseManager.getFeedEntries(creator.getUserID(), 0, 1).size());
+    }
+
+    @Test
+    public void userFeedEntryGoesToTheUserAndEveryoneSharingAChatRoom() {
+        User user = newStoredUser();
+        User participant = newStoredUser();
+        User outsider = newStoredUser();
+        newChatRoom(user, participant, "topic");
+
+        Set<String> recipients = databaseManager.appendFeedEntries(
+                Collections.singletonList(new FeedEntryDAO("USER", user.getUserID(), null)));
+
+        assertEquals(new HashSet<String>(Arrays.asList(user.getUserID(), participant.getUserID())), recipients);
+        assertEquals(1, databaseManager.getFeedEntries(participant.getUserID(), 0, 10).size());
+        assertTrue(databaseManager.getFeedEntries(outsider.getUserID(), 0, 10).isEmpty());
+    }
+
+    @Test
+    public void feedKeepsOnlyItsNewestEntries() {
+        User creator = newStoredUser();
+        ChatRoomDAO chatRoom = newChatRoom(creator, newStoredUser(), "topic");
+
+        List<FeedEntryDAO> entries = new ArrayList<FeedEntryDAO>();
+        for(int i = 0;i<FEED_MAX_LENGTH + 3;i++){
+            entries.add(new FeedEntryDAO("CHATROOM", chatRoom.getChatRoomID(), null));
+        }
+        databaseManager.appendFeedEntries(entries);
+
+        List<FeedEntryDAO> feed = databaseManager.getFeedEntries(creator.getUserID(), 0, 100);
+        assertEquals(FEED_MAX_LENGTH, feed.size());
+        assertEquals(entries.get(3).getSequence(), feed.get(0).getSequence());
+        assertEquals(entries.get(entries.size() - 1).getSequence(), feed.get(feed.size() - 1).getSequence());
+    }
+
+    @Test
+    public void changedChatMessagesAreReturnedOnceInTheOrderOfTheirLatestChange() {
+        User creator = newStoredUser();
+        ChatRoomDAO chatRoom = newChatRoom(creator, newStoredUser(), "topic");
+        List<ChatMessageDAO> chatMessages = newChatMessages(chatRoom, creator, 3);
+        String chatRoomID = chatRoom.getChatRoomID();
+
+        FeedEntryDAO seen = new FeedEntryDAO("CHATMESSAGE", chatRoomID, chatMessages.get(0).getChatMessageID());
+        databaseManager.appendFeedEntries(Collections.singletonList(seen));
+        databaseManager.appendFeedEntries(Arrays.asList(
+                new FeedEntryDAO("CHATMESSAGE", chatRoomID, chatMessages.get(1).getChatMessageID()),
+                new FeedEntryDAO("CHATMESSAGE", chatRoomID, chatMessages.get(2).getChatMessageID()),
+                new FeedEntryDAO("CHATMESSAGE", chatRoomID, chatMessages.get(1).getChatMessageID())));
+
+        assertEquals(Arrays.asList(chatMessages.get(2).getChatMessageID(), chatMessages.get(1).getChatMessageID()),
+                chatMessageIDs(databaseManager.getChangedChatMessageDAOs(chatRoomID, seen.getSequence())));
+    }
+
+    @Test
+    public void feedResourcesAreReadByKeyLeavingOutMissingOnes() {
+        User creator = newStoredUser();
+        ChatRoomDAO chatRoom = newChatRoom(creator, newStoredUser(), "topic");
+        ChatMessageDAO chatMessage = newChatMessages(chatRoom, creator, 1).get(0);
+        String missingUserID = "USER:" + UUID.randomUUID().toString();
+        String missingChatRoomID = "CHATROOM:" + UUID.randomUUID().toString();
+        String missingChatMessageID = "MESSAGE:" + UUID.randomUUID().toString();
+
+        FeedResources resources = databaseManager.retrieveFeedResources(
+                Arrays.asList(creator.getUserID(), missingUserID),
+                Arrays.asList(chatRoom.getChatRoomID(), missingChatRoomID),
+                Arrays.asList(chatMessage.getChatMessageID(), missingChatMessageID));
+
+        assertEquals(Collections.singleton(creator.getUserID()), resources.getUsers().keySet());
+        assertEquals(creator.getNickname(), resources.getUsers().get(creator.getUserID()).getNickname());
+        assertEquals(Collections.singleton(chatRoom.getChatRoomID()), resources.getChatRoomDAOs().keySet());
+        assertEquals("topic", resources.getChatRoomDAOs().get(chatRoom.getChatRoomID()).getTopic());
+        assertEquals(Collections.singleton(chatMessage.getChatMessageID()), resources.getChatMessageDAOs().keySet());
+        assertEquals(chatMessage.getMessage(),
+                resources.getChatMessageDAOs().get(chatMessage.getChatMessageID()).getMessage());
+    }
+
+    @Test
+    public void feedListenersAreToldOfTheFeedsWritten() throws InterruptedException {
+        final Set<String> changed = new HashSet<String>();
+        databaseManager.addFeedListener(new FeedListener() {
+            public void feedsChanged(Set<String> userIDs) {
+                synchronized (changed) {
+                    changed.addAll(userIDs);
+                    changed.notifyAll();
+                }
+            }
+        });
+
+        User creator = newStoredUser();
+        User participant = newStoredUser();
+        ChatRoomDAO chatRoom = newChatRoom(creator, participant, "topic");
+        databaseManager.appendFeedEntries(
+                Collections.singletonList(new FeedEntryDAO("CHATROOM", chatRoom.getChatRoomID(), null)));
+
+        //A backend sharing its store between servers may tell the listeners on another thread
+        List<String> expected = Arrays.asList(creator.getUserID(), participant.getUserID());
+        long deadline = System.currentTimeMillis() + LISTENER_WAIT_MILLIS;
+        synchronized (changed) {
+            while(!changed.containsAll(expected) && System.currentTimeMillis() < deadline) {
+                changed.wait(100);
+            }
+        }
+        assertTrue(changed.containsAll(expected));
+    }
+
+    //******************************** HELPERS **********************************************
+
+    private User newUser(String nickname) {
+        return new User("First", "Last", nickname);
+    }
+
+    private User newStoredUser() {
+        User user = newUser("nick");
+        databaseManager.setUser(user);
+        return user;
+    }
+
+    private ChatRoomDAO newChatRoom(User creator, User participant, String topic) {
+        ChatRoomDAO chatRoom = new ChatRoomDAO(creator.getUserID(), participant.getUserID(), topic);
+        databaseManager.createChatRoomFromDAO(chatRoom);
+        return chatRoom;
+    }
+
+    private ChatMessageDAO newChatMessage(ChatRoomDAO chatRoom, User from, long lastModified) {
+        ChatMessageDAO chatMessage = new ChatMessageDAO(chatRoom.getChatRoomID(), from.getUserID(),
+                "message " + lastModified, "false");
+        chatMessage.setLastModified(lastModified);
+        return chatMessage;
+    }
+
+    //Stores ChatMessages a millisecond apart, returned oldest first
+    private List<ChatMessageDAO> newChatMessages(ChatRoomDAO chatRoom, User from, int count) {
+        long now = System.currentTimeMillis();
+        List<ChatMessageDAO> chatMessages = new ArrayList<ChatMessageDAO>();
+        for(int i = 0;i<count;i++){
+            chatMessages.add(newChatMessage(chatRoom, from, now + i));
+        }
+        databaseManager.createChatMessagesFromDAOs(chatMessages);
+        return chatMessages;
+    }
+
+    private Set<String> scannedChatRoomIDs(String userID, int chunkSize) {
+        Set<String> seen = new HashSet<String>();
+        Iterator< List<ChatRoomDAO> > chunks = databaseManager.scanChatRoomDAOs(userID, chunkSize);
+        while(chunks.hasNext()) {
+            List<ChatRoomDAO> chunk = chunks.next();
+            assertFalse(chunk.isEmpty());
+            seen.addAll(chatRoomIDs(chunk));
+        }
+        return seen;
+    }
+
+    private static List<String> userIDs(List<User> users) {
+        List<String> ids = new ArrayList<String>();
+        for(User user : users) {
+            ids.add(user.getUserID());
+        }
+        return ids;
+    }
+
+    private static List<String> chatRoomIDs(List<ChatRoomDAO> chatRoomDAOs) {
+        List<String> ids = new ArrayList<String>();
+        for(ChatRoomDAO chatRoomDAO : chatRoomDAOs) {
+            ids.add(chatRoomDAO.getChatRoomID());
+        }
+        return ids;
+    }
+
+    private static List<String> chatMessageIDs(List<ChatMessageDAO> chatMessageDAOs) {
+        List<String> ids = new ArrayList<String>();
+        for(ChatMessageDAO chatMessageDAO : chatMessageDAOs) {
+            ids.add(chatMessageDAO.getChatMessageID());
+        }
+        return ids;
+    }
+}
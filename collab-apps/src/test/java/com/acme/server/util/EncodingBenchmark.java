@@ -0,0 +1,395 @@
+package com.acme.server.util;
+
+import com.acme.server.model.ChatMessage;
+import com.acme.server.model.ChatRoom;
+import com.acme.server.model.Notification;
+import com.acme.server.model.User;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *  Compares the size & the encode & decode time of the resources in each encoding ResourceEncodings offers: JSON, Smile
+ *  & protobuf. It prints the table in the Binary Encodings section of the README. See MicroBenchmark for how to run it.
+ *
+ *  The resources carry the same ActionLinks as the live endpoints. JSON & Smile are written & read with Jackson
+ *  databind. Protobuf is written by the ProtobufCodec & read by hand with CodedInputStream against proto/acme.proto, as
+ *  a client without generated classes would read it.
+ *
+ *  Before anything is timed each resource is read back from Smile & protobuf & must give the same JSON as it was
+ *  written from, so the encodings compared carry the same data.
+ */
+public class EncodingBenchmark {
+
+    private static final int ITERATIONS = 5000;
+
+    private static final String[] MESSAGES = { "ok see you at 3",
+            "Can you send me the slides from yesterday's review before the call?", "thanks!",
+            "I pushed the fix, the build should go green in about ten minutes. Let me know if it doesn't.", "lunch?",
+            "The customer confirmed the new date, I'll update the ticket & ping the rest of the team." };
+
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+    private static final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+
+    //The fields of a Notification as a client reads them, Notification itself has no constructor for Jackson to use
+    public static class NotificationFields {
+        public long timestamp;
+        public long sequence;
+        public String parentResourceIDModified;
+        public String subResourceIDModified;
+        public List<String> links;
+        public Integer count;
+        public ChatMessage chatMessage;
+        public String chatRoomTopic;
+        public User user;
+    }
+
+    //A resource measured & the type it is read back as
+    private static class Resource {
+
+        final String name;
+        final Object resource;
+        final Class<?> type;
+        final TypeReference<?> listType;
+
+        Resource(String name, Object resource, Class<?> type, TypeReference<?> listType) {
+            this.name = name;
+            this.resource = resource;
+            this.type = type;
+            this.listType = listType;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        MicroBenchmark.silenceLogging();
+        jsonMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        smileMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+        checkUtf8();
+
+        String chatRoomID = "CHATROOM:" + UUID.randomUUID().toString();
+        List<User> participants = Arrays.asList(newUser(1), newUser(2));
+
+        List<ChatMessage> chatMessages = new ArrayList<ChatMessage>();
+        for(int i = 0;i<20;i++){
+            chatMessages.add(newChatMessage(chatRoomID, participants.get(i % 2).getUserID(), i));
+        }
+        ChatRoom chatRoom = new ChatRoom(chatRoomID, "Q4 launch planning", participants, chatMessages);
+        String chatRoomHref = "/chatrooms/" + chatRoomID;
+        chatRoom.setNextActionLinks(links(chatRoomHref, "self", "GET", chatRoomHref, "self", "PUT",
+                chatRoomHref + "/chatmessages", "postmessage", "POST"));
+
+        List<User> users = new ArrayList<User>();
+        for(int i = 0;i<100;i++){
+            users.add(newUser(i));
+        }
+
+        List<Notification> notifications = new ArrayList<Notification>();
+        for(int i = 0;i<20;i++){
+            ChatMessage chatMessage = newChatMessage(chatRoomID, participants.get(i % 2).getUserID(), i);
+            Notification notification = new Notification("CHATMESSAGE", chatRoomID, chatMessage.getChatMessageID());
+            notification.setSequence(1000 + i);
+            notification.setChatMessage(chatMessage);
+            notifications.add(notification);
+        }
+
+        List<Resource> resources = Arrays.asList(
+                new Resource("ChatMessage", chatMessages.get(1), ChatMessage.class, null),
+                new Resource("ChatRoom, 2 participants & 20 ChatMessages embedded", chatRoom, ChatRoom.class, null),
+                new Resource("100 Users (GET /users)", users, null, new TypeReference< List<User> >() {}),
+                new Resource("20 Notifications with ChatMessage embedded", notifications, null,
+                        new TypeReference< List<NotificationFields> >() {}));
+
+        //The table is markdown for the README, written as UTF-8 whatever the platform's default
+        PrintStream table = new PrintStream(System.out, true, "UTF-8");
+        MicroBenchmark.printEnvironment();
+        table.println();
+        table.println("| Resource | Encoding | Bytes | Gzipped bytes | Encode \u00b5s | Decode \u00b5s |");
+        table.println("|---|---|---:|---:|---:|---:|");
+        for(Resource resource : resources) {
+            byte[] json = jsonMapper.writeValueAsBytes(resource.resource);
+            byte[] smile = smileMapper.writeValueAsBytes(resource.resource);
+            byte[] protobuf = writeProtobuf(resource.resource);
+
+            String expected = jsonMapper.writeValueAsString(readJackson(jsonMapper, json, resource));
+            checkEqual(expected, jsonMapper.writeValueAsString(readJackson(smileMapper, smile, resource)),
+                    "Smile " + resource.name);
+            checkEqual(expected, jsonMapper.writeValueAsString(readProtobuf(protobuf, resource)),
+                    "protobuf " + resource.name);
+
+            printRow(table, resource.name, "JSON", json, timeJacksonWrite(jsonMapper, resource),
+                    timeJacksonRead(jsonMapper, json, resource));
+            printRow(table, "", "Smile", smile, timeJacksonWrite(smileMapper, resource),
+                    timeJacksonRead(smileMapper, smile, resource));
+            printRow(table, "", "protobuf", protobuf, timeProtobufWrite(resource), timeProtobufRead(protobuf, resource));
+        }
+    }
+
+    //Text outside the Basic Multilingual Plane must survive protobuf's UTF-8, an unpaired surrogate is written as '?'
+    private static void checkUtf8() throws IOException {
+        String chatRoomID = "CHATROOM:" + UUID.randomUUID().toString();
+        ChatMessage chatMessage = newChatMessage(chatRoomID, "USER:" + UUID.randomUUID().toString(), 0);
+        chatMessage.setMessage("caf\u00e9 \u20ac \ud83d\ude00 lone \ud83d x \ude00 end");
+        ChatRoom chatRoom = new ChatRoom(chatRoomID, "t\u00f6pic", new ArrayList<User>(), Arrays.asList(chatMessage));
+
+        ChatRoom readBack = readChatRoom(CodedInputStream.newInstance(writeProtobuf(chatRoom)));
+        checkEqual("caf\u00e9 \u20ac \ud83d\ude00 lone ? x ? end", readBack.getChatMessages().get(0).getMessage(),
+                "protobuf UTF-8");
+        checkEqual("t\u00f6pic", readBack.getTopic(), "protobuf UTF-8");
+    }
+
+    private static void checkEqual(String expected, String actual, String what) {
+        if(!expected.equals(actual)) {
+            throw new IllegalStateException(what + " does not read back as written\n" + expected + "\n" + actual);
+        }
+    }
+
+    private static void printRow(PrintStream table, String name, String encoding, byte[] body, double encodeMicros,
+                                 double decodeMicros) throws IOException {
+        table.println(String.format("| %s | %s | %d | %d | %.1f | %.1f |", name, encoding, body.length,
+                gzippedLength(body), encodeMicros, decodeMicros));
+    }
+
+    private static int gzippedLength(byte[] body) throws IOException {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(gzipped);
+        out.write(body);
+        out.close();
+        return gzipped.size();
+    }
+
+    //******************************** RESOURCES **********************************************
+
+    private static User newUser(int i) {
+        User user = new User("First" + i, "Lastname" + i, "nick" + i, "USER:" + UUID.randomUUID().toString());
+        String href = "/users/" + user.getUserID();
+        user.setNextActionLinks(links(href, "self", "GET", href, "self", "PUT"));
+        return user;
+    }
+
+    private static ChatMessage newChatMessage(String chatRoomID, String fromParticipantID, int i) {
+        ChatMessage chatMessage = new ChatMessage(chatRoomID, fromParticipantID, MESSAGES[i % MESSAGES.length]);
+        chatMessage.setChatMessageID("MESSAGE:" + chatRoomID + ":" + UUID.randomUUID().toString());
+        chatMessage.setTimestamp(1792190000000L + i * 7919L);
+        chatMessage.setReadReceipt(i % 3 == 0 ? "true" : "false");
+        String href = "/chatrooms/" + chatRoomID + "/chatmessages/" + chatMessage.getChatMessageID();
+        chatMessage.setNextActionLinks(links(href, "self", "GET", href, "self", "PUT",
+                "/chatrooms/" + chatRoomID + "/chatmessages", "postmessage", "POST"));
+        return chatMessage;
+    }
+
+    //The ActionLinks given as href, rel & method in turn
+    private static List<ActionLinks> links(String... fields) {
+        List<ActionLinks> links = new ArrayList<ActionLinks>();
+        for(int i = 0;i<fields.length;i+=3){
+            links.add(new ActionLinks(fields[i], fields[i + 1], fields[i + 2]));
+        }
+        return links;
+    }
+
+    //******************************** TIMING **********************************************
+
+    private static double timeJacksonWrite(ObjectMapper mapper, final Resource resource) throws Exception {
+        final ObjectWriter writer = mapper.writer();
+        return micros(new MicroBenchmark.Operation() {
+            public int run() throws Exception {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                writer.writeValue(out, resource.resource);
+                return out.size();
+            }
+        });
+    }
+
+    private static double timeJacksonRead(final ObjectMapper mapper, final byte[] body, final Resource resource)
+            throws Exception {
+        return micros(new MicroBenchmark.Operation() {
+            public int run() throws Exception {
+                return readJackson(mapper, body, resource) != null ? 1 : 0;
+            }
+        });
+    }
+
+    private static double timeProtobufWrite(final Resource resource) throws Exception {
+        return micros(new MicroBenchmark.Operation() {
+            public int run() throws Exception {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ProtobufCodec.encode(resource.resource, out);
+                return out.size();
+            }
+        });
+    }
+
+    private static double timeProtobufRead(final byte[] body, final Resource resource) throws Exception {
+        return micros(new MicroBenchmark.Operation() {
+            public int run() throws Exception {
+                return readProtobuf(body, resource) != null ? 1 : 0;
+            }
+        });
+    }
+
+    private static double micros(MicroBenchmark.Operation operation) throws Exception {
+        return MicroBenchmark.measure(ITERATIONS, operation).nanosPerCall / 1000;
+    }
+
+    private static Object readJackson(ObjectMapper mapper, byte[] body, Resource resource) throws IOException {
+        return resource.type != null ? mapper.readValue(body, resource.type) : mapper.readValue(body, resource.listType);
+    }
+
+    private static byte[] writeProtobuf(Object resource) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProtobufCodec.encode(resource, out);
+        return out.toByteArray();
+    }
+
+    //******************************** PROTOBUF READING **********************************************
+
+    //Reads a resource, or a ResourceList of Users, ChatMessages or Notifications, by the field numbers of acme.proto
+    private static Object readProtobuf(byte[] body, Resource resource) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(body);
+        if(resource.type == ChatMessage.class) {
+            return readChatMessage(in);
+        }
+        if(resource.type == ChatRoom.class) {
+            return readChatRoom(in);
+        }
+
+        List<Object> elements = new ArrayList<Object>();
+        int tag;
+        while((tag = in.readTag()) != 0) {
+            int limit = in.pushLimit(in.readRawVarint32());
+            switch(WireFormat.getTagFieldNumber(tag)) {
+                case 1: elements.add(readUser(in)); break;
+                case 3: elements.add(readChatMessage(in)); break;
+                case 4: elements.add(readNotification(in)); break;
+                default: in.skipRawBytes(in.getBytesUntilLimit());
+            }
+            in.popLimit(limit);
+        }
+        return elements;
+    }
+
+    private static ActionLinks readActionLink(CodedInputStream in) throws IOException {
+        int limit = in.pushLimit(in.readRawVarint32());
+        ActionLinks actionLink = new ActionLinks();
+        int tag;
+        while((tag = in.readTag()) != 0) {
+            switch(WireFormat.getTagFieldNumber(tag)) {
+                case 1: actionLink.setHref(in.readString()); break;
+                case 2: actionLink.setRel(in.readString()); break;
+                case 3: actionLink.setMethod(in.readString()); break;
+                default: in.skipField(tag);
+            }
+        }
+        in.popLimit(limit);
+        return actionLink;
+    }
+
+    private static User readUser(CodedInputStream in) throws IOException {
+        User user = new User();
+        List<ActionLinks> actionLinks = new ArrayList<ActionLinks>();
+        int tag;
+        while((tag = in.readTag()) != 0) {
+            switch(WireFormat.getTagFieldNumber(tag)) {
+                case 1: user.setUserID(in.readString()); break;
+                case 2: user.setFirstName(in.readString()); break;
+                case 3: user.setLastName(in.readString()); break;
+                case 4: user.setNickname(in.readString()); break;
+                case 5: actionLinks.add(readActionLink(in)); break;
+                default: in.skipField(tag);
+            }
+        }
+        user.setNextActionLinks(actionLinks);
+        return user;
+    }
+
+    private static ChatMessage readChatMessage(CodedInputStream in) throws IOException {
+        ChatMessage chatMessage = new ChatMessage();
+        List<ActionLinks> actionLinks = new ArrayList<ActionLinks>();
+        int tag;
+        while((tag = in.readTag()) != 0) {
+            switch(WireFormat.getTagFieldNumber(tag)) {
+                case 1: chatMessage.setChatMessageID(in.readString()); break;
+                case 2: chatMessage.setChatRoomID(in.readString()); break;
+                case 3: chatMessage.setFromParticipantID(in.readString()); break;
+                case 4: chatMessage.setMessage(in.readString()); break;
+                case 5: chatMessage.setTimestamp(in.readInt64()); break;
+                case 6: chatMessage.setReadReceipt(in.readString()); break;
+                case 7: actionLinks.add(readActionLink(in)); break;
+                default: in.skipField(tag);
+            }
+        }
+        chatMessage.setNextActionLinks(actionLinks);
+        return chatMessage;
+    }
+
+    private static ChatRoom readChatRoom(CodedInputStream in) throws IOException {
+        ChatRoom chatRoom = new ChatRoom();
+        List<User> participants = new ArrayList<User>();
+        List<ChatMessage> chatMessages = new ArrayList<ChatMessage>();
+        List<ActionLinks> actionLinks = new ArrayList<ActionLinks>();
+        int tag;
+        while((tag = in.readTag()) != 0) {
+            switch(WireFormat.getTagFieldNumber(tag)) {
+                case 1: chatRoom.setChatRoomID(in.readString()); break;
+                case 2: chatRoom.setTopic(in.readString()); break;
+                case 3: participants.add(readNestedUser(in)); break;
+                case 4: chatMessages.add(readNestedChatMessage(in)); break;
+                case 5: actionLinks.add(readActionLink(in)); break;
+                default: in.skipField(tag);
+            }
+        }
+        chatRoom.setParticipants(participants);
+        chatRoom.setChatMessages(chatMessages);
+        chatRoom.setNextActionLinks(actionLinks);
+        return chatRoom;
+    }
+
+    private static NotificationFields readNotification(CodedInputStream in) throws IOException {
+        NotificationFields notification = new NotificationFields();
+        notification.links = new ArrayList<String>();
+        int tag;
+        while((tag = in.readTag()) != 0) {
+            switch(WireFormat.getTagFieldNumber(tag)) {
+                case 1: notification.timestamp = in.readInt64(); break;
+                case 2: notification.sequence = in.readInt64(); break;
+                case 3: notification.parentResourceIDModified = in.readString(); break;
+                case 4: notification.subResourceIDModified = in.readString(); break;
+                case 5: notification.links.add(in.readString()); break;
+                case 6: notification.count = in.readInt32(); break;
+                case 7: notification.chatMessage = readNestedChatMessage(in); break;
+                case 8: notification.chatRoomTopic = in.readString(); break;
+                case 9: notification.user = readNestedUser(in); break;
+                default: in.skipField(tag);
+            }
+        }
+        return notification;
+    }
+
+    //A message embedded in another is preceded by its length
+    private static User readNestedUser(CodedInputStream in) throws IOException {
+        int limit = in.pushLimit(in.readRawVarint32());
+        User user = readUser(in);
+        in.popLimit(limit);
+        return user;
+    }
+
+    private static ChatMessage readNestedChatMessage(CodedInputStream in) throws IOException {
+        int limit = in.pushLimit(in.readRawVarint32());
+        ChatMessage chatMessage = readChatMessage(in);
+        in.popLimit(limit);
+        return chatMessage;
+    }
+}
@@ -0,0 +1,12 @@
+package com.acme.server.util;
+
+/**
+ *  Runs the DatabaseManager contract against the InMemoryDatabaseManager
+ */
+public class InMemoryDatabaseManagerTest extends DatabaseManagerContractTest {
+
+    @Override
+    protected DatabaseManager createDatabaseManager() {
+        return new InMemoryDatabaseManager(4, FEED_MAX_LENGTH);
+    }
+}
@@ -0,0 +1,116 @@
+package com.acme.server.util;
+
+import ch.qos.logback.classic.Level;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ *  Measures the time & heap allocated per call of an operation run in a loop on the calling thread, for the benchmarks
+ *  kept with the tests. They are plain main classes rather than tests so the build never waits for them. The Spring Boot
+ *  parent points exec:java at start-class, so a benchmark is run from collab-apps with e.g.
+ *
+ *  mvn -B test-compile exec:java -Dexec.classpathScope=test -Dstart-class=com.acme.server.util.RequestBodyParserBenchmark
+ *
+ *  The allocation is read from the HotSpot ThreadMXBean, which counts every byte allocated by the thread including what
+ *  the JIT would otherwise keep off the heap, so it is only reported on a JVM that supports it. Each measurement is
+ *  preceded by warm up rounds & the fastest of the measured rounds is reported.
+ */
+final class MicroBenchmark {
+
+    private static final int WARM_UP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    //An operation measured, returns a value depending on its work so the JIT cannot drop it
+    interface Operation {
+        int run() throws Exception;
+    }
+
+    private static int sink;
+
+    private MicroBenchmark() {
+    }
+
+    //The model classes & services log at INFO on every call, which would be measured along with them
+    static void silenceLogging() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.OFF);
+    }
+
+    //The time & bytes allocated per call of an operation, bytes is -1 if the JVM does not count them
+    static class Measurement {
+
+        final double nanosPerCall;
+        final long bytesPerCall;
+
+        Measurement(double nanosPerCall, long bytesPerCall) {
+            this.nanosPerCall = nanosPerCall;
+            this.bytesPerCall = bytesPerCall;
+        }
+    }
+
+    /**
+     * Runs an operation & prints the time & bytes allocated per call
+     *
+     * @param       name - The name printed for the operation
+     * @param       iterations - The number of calls in each round
+     * @param       operation - The operation measured
+     */
+    static void report(String name, int iterations, Operation operation) throws Exception {
+        Measurement measurement = measure(iterations, operation);
+        String allocation = measurement.bytesPerCall >= 0 ? String.format("%,8d B/op", measurement.bytesPerCall)
+                : "     n/a B/op";
+        System.out.println(String.format("%-40s %s %,10.0f ns/op", name, allocation, measurement.nanosPerCall));
+    }
+
+    /**
+     * Runs an operation & measures the time & bytes allocated per call in the fastest round
+     *
+     * @param       iterations - The number of calls in each round
+     * @param       operation - The operation measured
+     * @return      <code>Measurement</code>
+     */
+    static Measurement measure(int iterations, Operation operation) throws Exception {
+        for(int round = 0;round<WARM_UP_ROUNDS;round++){
+            runRound(iterations, operation);
+        }
+
+        long bestNanos = Long.MAX_VALUE;
+        long allocatedBytes = 0;
+        for(int round = 0;round<MEASURED_ROUNDS;round++){
+            long allocatedBefore = allocatedBytes();
+            long nanos = runRound(iterations, operation);
+            long allocatedAfter = allocatedBytes();
+            if(nanos < bestNanos) {
+                bestNanos = nanos;
+                allocatedBytes = allocatedAfter - allocatedBefore;
+            }
+        }
+
+        return new Measurement((double) bestNanos / iterations, allocatedBytes() >= 0 ? allocatedBytes / iterations : -1);
+    }
+
+    private static long runRound(int iterations, Operation operation) throws Exception {
+        long start = System.nanoTime();
+        for(int i = 0;i<iterations;i++){
+            sink += operation.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    //The bytes allocated by this thread so far, -1 if the JVM does not count them
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if(!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    //Prints the JVM measured on, the numbers depend on it
+    static void printEnvironment() {
+        System.out.println(System.getProperty("java.vm.name") + " " + System.getProperty("java.runtime.version")
+                + " on " + System.getProperty("os.name") + " " + System.getProperty("os.arch")
+                + ", " + Runtime.getRuntime().availableProcessors() + " processors");
+    }
+}
@@ -0,0 +1,74 @@
+package com.acme.server.util;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import redis.clients.jedis.JedisPoolConfig;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ *  Runs the DatabaseManager contract against the RedisDatabaseManager, connected as RedisConfiguration connects. The
+ *  Redis server is given by the redis.host & redis.port system properties, 127.0.0.1:6379 by default. Every test is
+ *  skipped when no Redis server answers there.
+ *
+ *  The keys written are left in Redis, each test creates its own so they never clash with the data already there.
+ */
+public class RedisDatabaseManagerTest extends DatabaseManagerContractTest {
+
+    private PooledJedisConnectionFactory connectionFactory;
+    private RedisMessageListenerContainer feedChangeListenerContainer;
+
+    @Override
+    protected DatabaseManager createDatabaseManager() throws Exception {
+        connectionFactory = new PooledJedisConnectionFactory(new JedisPoolConfig());
+        connectionFactory.setHostName(System.getProperty("redis.host", "127.0.0.1"));
+        connectionFactory.setPort(Integer.getInteger("redis.port", 6379));
+        connectionFactory.afterPropertiesSet();
+        assumeTrue(redisAvailable());
+
+        RedisTemplate< String, Object > template = new RedisTemplate< String, Object >();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setHashKeySerializer(new StringRedisSerializer());
+        template.setHashValueSerializer(new GenericToStringSerializer< Object >(Object.class));
+        template.setValueSerializer(new GenericToStringSerializer< Object >(Object.class));
+        template.afterPropertiesSet();
+
+        feedChangeListenerContainer = new RedisMessageListenerContainer();
+        feedChangeListenerContainer.setConnectionFactory(connectionFactory);
+        feedChangeListenerContainer.afterPropertiesSet();
+
+        RedisDatabaseManager databaseManager = new RedisDatabaseManager(template, feedChangeListenerContainer, 2,
+                FEED_MAX_LENGTH);
+        feedChangeListenerContainer.start();
+        return databaseManager;
+    }
+
+    @Override
+    protected void destroyDatabaseManager() throws Exception {
+        if(feedChangeListenerContainer != null) {
+            feedChangeListenerContainer.destroy();
+        }
+        if(connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    private boolean redisAvailable() {
+        try {
+            RedisConnection connection = connectionFactory.getConnection();
+            try {
+                return "PONG".equals(connection.ping());
+            }
+            finally {
+                connection.close();
+            }
+        }
+        catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
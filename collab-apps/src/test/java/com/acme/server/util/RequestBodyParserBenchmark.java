@@ -0,0 +1,64 @@
+package com.acme.server.util;
+
+import com.acme.server.model.ChatMessage;
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ *  Compares binding a POST /chatrooms/{id}/chatmessages body the way the services used to, copying the body into a
+ *  String line by line & parsing it with a new Gson, against the RequestBodyParser reading it straight from the stream.
+ *  Bodies of about 200 bytes & 2 KB are measured. See MicroBenchmark for how to run it.
+ */
+public class RequestBodyParserBenchmark {
+
+    private static final int ITERATIONS = 200000;
+
+    public static void main(String[] args) throws Exception {
+        MicroBenchmark.silenceLogging();
+        MicroBenchmark.printEnvironment();
+
+        final RequestBodyParser requestBodyParser = new RequestBodyParser(65536);
+        for(int messageLength : new int[] { 40, 1900 }) {
+            final byte[] body = chatMessageBody(messageLength);
+            System.out.println(body.length + " byte body");
+
+            MicroBenchmark.report("  String & new Gson().fromJson", ITERATIONS, new MicroBenchmark.Operation() {
+                public int run() throws Exception {
+                    String json = readToString(new ByteArrayInputStream(body));
+                    return new Gson().fromJson(json, ChatMessage.class).getMessage().length();
+                }
+            });
+            MicroBenchmark.report("  RequestBodyParser.readChatMessage", ITERATIONS, new MicroBenchmark.Operation() {
+                public int run() throws Exception {
+                    return requestBodyParser.readChatMessage(new ByteArrayInputStream(body)).getMessage().length();
+                }
+            });
+        }
+    }
+
+    private static byte[] chatMessageBody(int messageLength) throws IOException {
+        StringBuilder message = new StringBuilder();
+        for(int i = 0;i<messageLength;i++){
+            message.append((char) ('a' + i % 26));
+        }
+        return ("{\"chatRoomID\":\"CHATROOM:d4960b8e-480f-4582-8248-4f1ffa7b228f\","
+                + "\"fromParticipantID\":\"USER:7c97c921-d0de-4b2f-b738-05239fcdeb0b\","
+                + "\"message\":\"" + message + "\",\"readReceipt\":\"false\"}").getBytes("UTF-8");
+    }
+
+    //The body copy the services made before the RequestBodyParser, StringUtils.InputStringToString
+    private static String readToString(InputStream data) throws IOException {
+        StringBuilder json = new StringBuilder();
+        BufferedReader in = new BufferedReader(new InputStreamReader(data));
+        String line;
+        while((line = in.readLine()) != null) {
+            json.append(line);
+        }
+        return json.toString();
+    }
+}